@@ -0,0 +1,76 @@
+package com.bgpay.bgai.cache;
+
+import com.bgpay.bgai.utils.TimeZoneUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time-period resolution of a usage timestamp: the precomputed {@link DiscountCalendar} lookup used by
+ * the billing consumer against the per-message time-zone conversion it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimePeriodBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private DiscountCalendar calendar;
+    private long[] millis;
+    private LocalDateTime[] utcTimes;
+    private int index;
+
+    @Setup
+    public void setup() {
+        LocalDate firstDay = LocalDate.now(ZoneOffset.UTC).minusDays(2);
+        // 一次历史调整加当前时段，贴近线上配置
+        List<DiscountCalendar.Window> windows = List.of(
+                new DiscountCalendar.Window(Long.MIN_VALUE, TimeZoneUtils.DEFAULT_DISCOUNT_START,
+                        TimeZoneUtils.DEFAULT_DISCOUNT_END, TimeZoneUtils.BEIJING_ZONE),
+                new DiscountCalendar.Window(firstDay.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli(),
+                        TimeZoneUtils.DEFAULT_DISCOUNT_START, TimeZoneUtils.DEFAULT_DISCOUNT_END.plusHours(1),
+                        TimeZoneUtils.BEIJING_ZONE));
+        calendar = DiscountCalendar.build(windows, firstDay, 9);
+
+        SplittableRandom random = new SplittableRandom(42);
+        long now = System.currentTimeMillis();
+        millis = new long[SAMPLES];
+        utcTimes = new LocalDateTime[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            millis[i] = now - random.nextLong(TimeUnit.DAYS.toMillis(1));
+            utcTimes[i] = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis[i]), ZoneOffset.UTC);
+        }
+    }
+
+    @Benchmark
+    public String calendarLookup() {
+        return calendar.resolve(millis[next()]);
+    }
+
+    @Benchmark
+    public boolean zoneConversion() {
+        return TimeZoneUtils.isInDiscountPeriod(utcTimes[next()]);
+    }
+
+    private int next() {
+        return index++ & (SAMPLES - 1);
+    }
+}
@@ -0,0 +1,125 @@
+package com.bgpay.bgai.service.deepseek;
+
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load on {@code /api/chat} and {@code /api/chatGatWay} of a running instance, whose
+ * upstream is a {@link MockUpstreamServer} started by the benchmark. Every request carries the mock's
+ * URL as {@code apiUrl}, so the instance needs no DeepSeek credentials, only its usual MySQL, Redis and
+ * RocketMQ.
+ * <p>
+ * {@code -Djmh.app.url} points at the instance (default {@code http://localhost:8080});
+ * {@code -Dmock.host} is the host name under which the instance reaches this machine and
+ * {@code -Dmock.port} the mock's port. The remaining {@code -Dmock.*} properties shape the upstream
+ * as described in {@link MockUpstreamServer.Settings#fromSystemProperties()}. Non-2xx responses count
+ * as operations and are reported at tear-down.
+ * <p>
+ * The benchmarks profile excludes this class by default; run it with
+ * {@code -Djmh.includes=ChatEndpointLoadBenchmark -Djmh.excludes=^$}. Setup fails fast if the instance
+ * does not answer.
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 15)
+@Measurement(iterations = 5, time = 15)
+@Fork(1)
+@Threads(32)
+public class ChatEndpointLoadBenchmark {
+    private static final String BOUNDARY = "----bgai-load-" + UUID.randomUUID();
+    private static final int USERS = 200;
+
+    @Param({"/api/chat", "/api/chatGatWay"})
+    public String endpoint;
+
+    private MockUpstreamServer upstream;
+    private HttpClient client;
+    private URI target;
+    private String apiUrl;
+    private final AtomicLong failures = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception {
+        String appUrl = System.getProperty("jmh.app.url", "http://localhost:8080");
+        target = URI.create(appUrl + endpoint);
+        client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        try {
+            // 只确认实例可连通，状态码不重要
+            client.send(HttpRequest.newBuilder(URI.create(appUrl)).timeout(Duration.ofSeconds(5)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+        } catch (IOException e) {
+            throw new IllegalStateException("No instance answering at " + appUrl + ", start one or set -Djmh.app.url", e);
+        }
+        upstream = new MockUpstreamServer(MockUpstreamServer.Settings.fromSystemProperties()).start();
+        apiUrl = upstream.url().replace("localhost", System.getProperty("mock.host", "localhost"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        log.info("{}: {} non-2xx responses; mock upstream served {} requests, {} injected errors",
+                endpoint, failures.get(), upstream.requests(), upstream.injectedErrors());
+        upstream.close();
+    }
+
+    @Benchmark
+    public int chat() throws Exception {
+        String userId = "load-" + ThreadLocalRandom.current().nextInt(USERS);
+        HttpRequest request = HttpRequest.newBuilder(target)
+                .timeout(Duration.ofSeconds(180))
+                .header("X-User-Id", userId)
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(form(
+                        "question", "请总结第三季度各区域的销售情况，并给出下季度的投放建议。",
+                        "apiUrl", apiUrl,
+                        "apiKey", "sk-mock",
+                        "modelName", "deepseek-chat")))
+                .build();
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() / 100 != 2) {
+            failures.incrementAndGet();
+        }
+        return response.statusCode();
+    }
+
+    private static byte[] form(String... fields) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < fields.length; i += 2) {
+            String part = "--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + fields[i] + "\"\r\n"
+                    + "Content-Type: text/plain; charset=UTF-8\r\n\r\n"
+                    + fields[i + 1] + "\r\n";
+            body.writeBytes(part.getBytes(StandardCharsets.UTF_8));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+}
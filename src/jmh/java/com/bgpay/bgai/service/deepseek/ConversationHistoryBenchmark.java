@@ -0,0 +1,68 @@
+package com.bgpay.bgai.service.deepseek;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversation history maintenance per chat turn: appending a message to a full history and reading the
+ * history back for the next request, across a rotating set of users.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversationHistoryBenchmark {
+    private static final int USERS = 256;
+    private static final String CONTENT = "请帮我总结一下上面这份文件的要点，并给出三条改进建议。";
+
+    @Param({"10", "50"})
+    public int maxRounds;
+
+    private ConversationHistoryService history;
+    private String[] userIds;
+    private int index;
+
+    @Setup
+    public void setup() {
+        history = new ConversationHistoryService();
+        ReflectionTestUtils.setField(history, "maxRounds", maxRounds);
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user-" + i;
+            for (int round = 0; round < maxRounds; round++) {
+                history.addMessage(userIds[i], "user", CONTENT);
+                history.addMessage(userIds[i], "assistant", CONTENT);
+            }
+        }
+    }
+
+    @Benchmark
+    public void addMessage() {
+        history.addMessage(nextUser(), "user", CONTENT);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> getValidHistory() {
+        return history.getValidHistory(nextUser());
+    }
+
+    private String nextUser() {
+        return userIds[index++ & (USERS - 1)];
+    }
+}
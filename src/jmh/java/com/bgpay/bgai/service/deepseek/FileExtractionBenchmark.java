@@ -0,0 +1,81 @@
+package com.bgpay.bgai.service.deepseek;
+
+import com.bgpay.bgai.mapper.FileTypeMapper;
+import com.bgpay.bgai.service.impl.FileTypeService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text extraction by {@link FileProcessor} over a synthetic upload corpus (see {@link SyntheticCorpus}):
+ * per-file latency distribution on one thread and throughput with eight concurrent extractions.
+ * Allocation per operation and peak heap come from the {@code gc} and
+ * {@link com.bgpay.bgai.utils.PeakHeapProfiler} profilers enabled by the {@code benchmarks} profile.
+ * <p>
+ * Runs offline. The PNG case needs {@code eng.traineddata} and {@code chi_sim.traineddata} in the
+ * directory given by {@code -Djmh.tessdata}; without them only that case fails.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class FileExtractionBenchmark {
+
+    @Param
+    public SyntheticCorpus.Kind kind;
+
+    private FileProcessor fileProcessor;
+    private File file;
+
+    @Setup
+    public void setup() throws Exception {
+        String tessdata = System.getProperty("jmh.tessdata", "tessdata");
+        if (kind == SyntheticCorpus.Kind.PNG) {
+            for (String language : List.of("eng", "chi_sim")) {
+                if (!Files.exists(Path.of(tessdata, language + ".traineddata"))) {
+                    throw new IllegalStateException("OCR benchmark needs " + language
+                            + ".traineddata under -Djmh.tessdata=" + tessdata);
+                }
+            }
+        }
+        // 不连数据库：类型配置为空时只按声明的 contentType 分派
+        FileTypeMapper mapper = (FileTypeMapper) Proxy.newProxyInstance(FileTypeMapper.class.getClassLoader(),
+                new Class<?>[]{FileTypeMapper.class}, (proxy, method, args) -> List.of());
+        FileTypeService fileTypeService = new FileTypeService(mapper);
+        fileTypeService.refreshCache();
+        fileProcessor = new FileProcessor(fileTypeService, new ChatMetrics(new SimpleMeterRegistry()), tessdata);
+        file = SyntheticCorpus.file(kind).toFile();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public String latency() throws Exception {
+        return fileProcessor.processFile(file, kind.contentType);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public String concurrentThroughput() throws Exception {
+        return fileProcessor.processFile(file, kind.contentType);
+    }
+}
@@ -0,0 +1,300 @@
+package com.bgpay.bgai.service.deepseek;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable stand-in for the DeepSeek chat-completions API, for load tests that must not call the real
+ * upstream. Answers {@code POST} on any path with a {@code chat.completion} body, or with
+ * {@code chat.completion.chunk} server-sent events when the request has {@code "stream": true}, both
+ * carrying a usage block in the upstream's shape.
+ * <p>
+ * Time to first byte follows a log-normal distribution fixed by its median and p99; the completion then
+ * takes {@code completionTokens / tokensPerSecond}, streamed as one chunk per token group. Errors are
+ * injected per request: 429 with {@code Retry-After}, a 500/502/503, or a hang longer than the client's
+ * socket timeout that ends with a dropped connection.
+ * <p>
+ * Runs on virtual threads, so thousands of slow in-flight responses cost little. Start it standalone with
+ * {@link #main}, configured through {@code -Dmock.*} system properties.
+ */
+@Slf4j
+public class MockUpstreamServer implements AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final double Z_99 = 2.326;
+    private static final int TOKENS_PER_CHUNK = 4;
+    private static final String[] VOCABULARY = {
+            "根据", "您提供的", "数据", "，", "本季度", "销售额", "环比", "增长", "了", "12.4%", "。",
+            "主要", "来自", "华东区", "线上", "渠道", "，", "建议", "继续", "加大", "投放", "。"
+    };
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong injectedTimeouts = new AtomicLong();
+
+    /**
+     * Response shaping. All rates are per-request probabilities in [0, 1].
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class Settings {
+        private int port;
+        private double latencyMedianMs = 400;
+        private double latencyP99Ms = 2_000;
+        private double tokensPerSecond = 60;
+        private int minCompletionTokens = 50;
+        private int maxCompletionTokens = 400;
+        private double cacheHitRatio = 0.5;
+        private double rate429;
+        private double rate5xx;
+        private double rateTimeout;
+        private long timeoutHangMs = 130_000;
+        private boolean includeUsage = true;
+
+        /**
+         * Reads {@code mock.<field>} system properties, e.g. {@code -Dmock.rate429=0.02}.
+         */
+        public static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            settings.port = Integer.getInteger("mock.port", 18080);
+            settings.latencyMedianMs = doubleProperty("mock.latencyMedianMs", settings.latencyMedianMs);
+            settings.latencyP99Ms = doubleProperty("mock.latencyP99Ms", settings.latencyP99Ms);
+            settings.tokensPerSecond = doubleProperty("mock.tokensPerSecond", settings.tokensPerSecond);
+            settings.minCompletionTokens = Integer.getInteger("mock.minCompletionTokens", settings.minCompletionTokens);
+            settings.maxCompletionTokens = Integer.getInteger("mock.maxCompletionTokens", settings.maxCompletionTokens);
+            settings.cacheHitRatio = doubleProperty("mock.cacheHitRatio", settings.cacheHitRatio);
+            settings.rate429 = doubleProperty("mock.rate429", settings.rate429);
+            settings.rate5xx = doubleProperty("mock.rate5xx", settings.rate5xx);
+            settings.rateTimeout = doubleProperty("mock.rateTimeout", settings.rateTimeout);
+            settings.timeoutHangMs = Long.getLong("mock.timeoutHangMs", settings.timeoutHangMs);
+            settings.includeUsage = Boolean.parseBoolean(System.getProperty("mock.includeUsage", "true"));
+            return settings;
+        }
+
+        private static double doubleProperty(String key, double defaultValue) {
+            String value = System.getProperty(key);
+            return value == null ? defaultValue : Double.parseDouble(value);
+        }
+    }
+
+    public MockUpstreamServer(Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress(settings.getPort()), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public MockUpstreamServer start() {
+        server.start();
+        log.info("Mock upstream listening on {}", url());
+        return this;
+    }
+
+    /**
+     * The chat-completions URL to hand to the client as {@code apiUrl}.
+     */
+    public String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/chat/completions";
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    public long injectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long injectedTimeouts() {
+        return injectedTimeouts.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        MockUpstreamServer server = new MockUpstreamServer(Settings.fromSystemProperties()).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        Thread.currentThread().join();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double dice = random.nextDouble();
+            if (dice < settings.rateTimeout) {
+                // 挂起超过客户端读超时后直接断开，不写任何响应
+                injectedTimeouts.incrementAndGet();
+                Thread.sleep(settings.timeoutHangMs);
+                return;
+            }
+            sleep(firstByteLatencyMs(random));
+            if (dice < settings.rateTimeout + settings.rate429) {
+                injectedErrors.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendJson(exchange, 429, error("rate_limit_exceeded", "Rate limit reached for requests"));
+                return;
+            }
+            if (dice < settings.rateTimeout + settings.rate429 + settings.rate5xx) {
+                injectedErrors.incrementAndGet();
+                int[] statuses = {500, 502, 503};
+                sendJson(exchange, statuses[random.nextInt(statuses.length)], error("server_error", "Upstream overloaded"));
+                return;
+            }
+
+            int promptTokens = Math.max(1, request.path("messages").toString().length() / 4);
+            int completionTokens = random.nextInt(settings.minCompletionTokens, settings.maxCompletionTokens + 1);
+            String id = UUID.randomUUID().toString();
+            String model = request.path("model").asText("deepseek-chat");
+            if (request.path("stream").asBoolean(false)) {
+                stream(exchange, id, model, promptTokens, completionTokens);
+            } else {
+                sleep(completionTokens * 1000.0 / settings.tokensPerSecond);
+                ObjectNode body = completion(id, model);
+                body.putArray("choices").addObject()
+                        .put("index", 0)
+                        .put("finish_reason", "stop")
+                        .putNull("logprobs")
+                        .putObject("message")
+                        .put("role", "assistant")
+                        .put("content", text(completionTokens, new SplittableRandom(id.hashCode())));
+                if (settings.includeUsage) {
+                    body.set("usage", usage(promptTokens, completionTokens));
+                }
+                sendJson(exchange, 200, body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stream(HttpExchange exchange, String id, String model, int promptTokens, int completionTokens)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        SplittableRandom words = new SplittableRandom(id.hashCode());
+        double chunkDelayMs = TOKENS_PER_CHUNK * 1000.0 / settings.tokensPerSecond;
+        for (int sent = 0; sent < completionTokens; sent += TOKENS_PER_CHUNK) {
+            ObjectNode chunk = chunk(id, model);
+            ObjectNode choice = ((ArrayNode) chunk.get("choices")).addObject().put("index", 0);
+            ObjectNode delta = choice.putObject("delta");
+            if (sent == 0) {
+                delta.put("role", "assistant");
+            }
+            delta.put("content", text(Math.min(TOKENS_PER_CHUNK, completionTokens - sent), words));
+            choice.putNull("finish_reason");
+            event(out, chunk.toString());
+            sleep(chunkDelayMs);
+        }
+        ObjectNode last = chunk(id, model);
+        ((ArrayNode) last.get("choices")).addObject()
+                .put("index", 0)
+                .put("finish_reason", "stop")
+                .putObject("delta");
+        if (settings.includeUsage) {
+            last.set("usage", usage(promptTokens, completionTokens));
+        }
+        event(out, last.toString());
+        event(out, "[DONE]");
+    }
+
+    private ObjectNode completion(String id, String model) {
+        ObjectNode body = MAPPER.createObjectNode();
+        body.put("id", id);
+        body.put("object", "chat.completion");
+        body.put("created", System.currentTimeMillis() / 1000);
+        body.put("model", model);
+        body.put("system_fingerprint", "fp_mock");
+        return body;
+    }
+
+    private ObjectNode chunk(String id, String model) {
+        ObjectNode chunk = completion(id, model);
+        chunk.put("object", "chat.completion.chunk");
+        chunk.putArray("choices");
+        return chunk;
+    }
+
+    private ObjectNode usage(int promptTokens, int completionTokens) {
+        int cacheHit = (int) (promptTokens * settings.cacheHitRatio);
+        ObjectNode usage = MAPPER.createObjectNode();
+        usage.put("prompt_tokens", promptTokens);
+        usage.put("completion_tokens", completionTokens);
+        usage.put("total_tokens", promptTokens + completionTokens);
+        usage.putObject("prompt_tokens_details").put("cached_tokens", cacheHit);
+        usage.putObject("completion_tokens_details").put("reasoning_tokens", 0);
+        usage.put("prompt_cache_hit_tokens", cacheHit);
+        usage.put("prompt_cache_miss_tokens", promptTokens - cacheHit);
+        return usage;
+    }
+
+    private static ObjectNode error(String code, String message) {
+        ObjectNode body = MAPPER.createObjectNode();
+        body.putObject("error")
+                .put("message", message)
+                .put("type", code)
+                .putNull("param")
+                .put("code", code);
+        return body;
+    }
+
+    private double firstByteLatencyMs(ThreadLocalRandom random) {
+        double mu = Math.log(settings.latencyMedianMs);
+        double sigma = Math.max(0, Math.log(settings.latencyP99Ms / settings.latencyMedianMs) / Z_99);
+        return Math.exp(mu + sigma * random.nextGaussian());
+    }
+
+    private static String text(int tokens, SplittableRandom random) {
+        StringBuilder text = new StringBuilder(tokens * 3);
+        for (int i = 0; i < tokens; i++) {
+            text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return text.toString();
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void event(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sleep(double millis) throws InterruptedException {
+        if (millis >= 1) {
+            Thread.sleep((long) millis);
+        }
+    }
+}
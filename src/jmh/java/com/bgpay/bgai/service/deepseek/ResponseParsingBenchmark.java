@@ -0,0 +1,91 @@
+package com.bgpay.bgai.service.deepseek;
+
+import com.bgpay.bgai.entity.ChatCompletions;
+import com.bgpay.bgai.entity.UsageCalculationDTO;
+import com.bgpay.bgai.entity.UsageInfo;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handling of a non-streaming DeepSeek response after it has been read: JSON tree parsing, mapping to
+ * the completion and usage entities, and building the billing DTO.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParsingBenchmark {
+    private static final String RESPONSE = """
+            {"id":"930c60df-bf64-41c9-a88e-3ec75f81e00e","object":"chat.completion","created":1705651092,\
+            "model":"deepseek-chat","choices":[{"index":0,"message":{"role":"assistant",\
+            "content":"根据您提供的表格，第三季度的总销售额为 1,284,300 元，环比增长 12.4%。主要增长来自华东区的线上渠道，\
+            其中新品类贡献了约 38% 的增量。建议在第四季度继续加大该渠道的投放，并关注库存周转。"},\
+            "logprobs":null,"finish_reason":"stop"}],"usage":{"prompt_tokens":1832,"completion_tokens":96,\
+            "total_tokens":1928,"prompt_tokens_details":{"cached_tokens":1536},\
+            "completion_tokens_details":{"reasoning_tokens":0},"prompt_cache_hit_tokens":1536,\
+            "prompt_cache_miss_tokens":296},"system_fingerprint":"fp_3a5770e1b4"}""";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private DeepSeekServiceImp service;
+    private JsonNode root;
+    private UsageInfo usage;
+
+    @Setup
+    public void setup() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service = new DeepSeekServiceImp(10, 10, registry, new ChatMetrics(registry));
+        root = mapper.readTree(RESPONSE);
+        usage = service.extractUsageInfo(root.path("usage"), root);
+    }
+
+    @Benchmark
+    public JsonNode readTree() throws Exception {
+        return mapper.readTree(RESPONSE);
+    }
+
+    @Benchmark
+    public ChatCompletions parseChatCompletion() {
+        return service.parseChatCompletion(root);
+    }
+
+    @Benchmark
+    public UsageInfo parseUsageInfo() {
+        return service.parseUsageInfo(root);
+    }
+
+    @Benchmark
+    public UsageInfo extractUsageInfo() {
+        return service.extractUsageInfo(root.path("usage"), root);
+    }
+
+    @Benchmark
+    public UsageCalculationDTO toCalculationDTO() {
+        return service.toCalculationDTO(usage);
+    }
+
+    /**
+     * Everything the non-streaming path does with the body before handing off to the write buffer.
+     */
+    @Benchmark
+    public UsageCalculationDTO fullResponse() throws Exception {
+        JsonNode tree = mapper.readTree(RESPONSE);
+        service.parseChatCompletion(tree);
+        service.parseUsageInfo(tree);
+        return service.toCalculationDTO(service.extractUsageInfo(tree.path("usage"), tree));
+    }
+}
@@ -0,0 +1,276 @@
+package com.bgpay.bgai.service.deepseek;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFTextBox;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic upload corpus for the extraction benchmarks. Each file is generated on first use into
+ * {@code ${java.io.tmpdir}/bgai-corpus-v1} (or {@code -Djmh.corpus}) and reused by later forks and runs;
+ * bump the directory version when the generators change.
+ */
+public final class SyntheticCorpus {
+    private static final long SEED = 20240601L;
+    private static final String[] WORDS = {
+            "订单", "结算", "invoice", "用户", "region", "华东", "华南", "revenue", "库存", "shipment",
+            "季度", "growth", "渠道", "margin", "退款", "customer", "折扣", "forecast", "供应商", "budget"
+    };
+    private static final String[] CODE_LINES = {
+            "public static BigDecimal total(List<Order> orders) {",
+            "    // 汇总所有订单的实付金额，忽略已退款订单",
+            "    return orders.stream().filter(o -> !o.isRefunded()).map(Order::getPaid).reduce(ZERO, BigDecimal::add);",
+            "}",
+            "def load_rows(path):  # 读取原始报表并去掉表头",
+            "    with open(path, encoding='utf-8') as f:",
+            "        return [line.rstrip('\\n').split(',') for line in f][1:]",
+            "SELECT region, SUM(amount) AS 销售额 FROM orders WHERE created_at >= '2024-01-01' GROUP BY region;",
+            "# 配置说明：timeout 单位为毫秒，retry 为最大重试次数",
+            "timeout=3000",
+            "retry=3"
+    };
+
+    public enum Kind {
+        XLSX("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+        PDF("pdf", "application/pdf"),
+        DOCX("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"),
+        PPTX("pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation"),
+        PNG("png", "image/png"),
+        TEXT_UTF8("txt", "text/plain"),
+        TEXT_UTF8_BOM("txt", "text/plain"),
+        TEXT_UTF16LE("txt", "text/plain"),
+        TEXT_UTF16BE("txt", "text/plain"),
+        TEXT_GBK("txt", "text/plain");
+
+        final String extension;
+        final String contentType;
+
+        Kind(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+    }
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * Returns the corpus file of the given kind, generating it if needed.
+     */
+    public static Path file(Kind kind) throws IOException {
+        Path directory = Path.of(System.getProperty("jmh.corpus",
+                Path.of(System.getProperty("java.io.tmpdir"), "bgai-corpus-v1").toString()));
+        Path target = directory.resolve(kind.name().toLowerCase() + "." + kind.extension);
+        if (Files.exists(target)) {
+            return target;
+        }
+        Files.createDirectories(directory);
+        // 先写临时文件再原子替换，避免并发 fork 读到半个文件
+        Path tmp = Files.createTempFile(directory, kind.name().toLowerCase(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            generate(kind, out, new SplittableRandom(SEED + kind.ordinal()));
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    private static void generate(Kind kind, OutputStream out, SplittableRandom random) throws IOException {
+        switch (kind) {
+            case XLSX -> writeXlsx(out, random);
+            case PDF -> writePdf(out, random);
+            case DOCX -> writeDocx(out, random);
+            case PPTX -> writePptx(out, random);
+            case PNG -> writePng(out, random);
+            case TEXT_UTF8 -> writeText(out, random, Charset.forName("UTF-8"), new byte[0]);
+            case TEXT_UTF8_BOM -> writeText(out, random, Charset.forName("UTF-8"),
+                    new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+            case TEXT_UTF16LE -> writeText(out, random, Charset.forName("UTF-16LE"), new byte[]{(byte) 0xFF, (byte) 0xFE});
+            case TEXT_UTF16BE -> writeText(out, random, Charset.forName("UTF-16BE"), new byte[]{(byte) 0xFE, (byte) 0xFF});
+            case TEXT_GBK -> writeText(out, random, Charset.forName("GBK"), new byte[0]);
+        }
+    }
+
+    /**
+     * Three sheets of 20,000 rows: text, numbers and a formula column, about 6 MB unzipped per sheet.
+     */
+    private static void writeXlsx(OutputStream out, SplittableRandom random) throws IOException {
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(500)) {
+            for (int s = 0; s < 3; s++) {
+                Sheet sheet = workbook.createSheet("销售明细" + (s + 1));
+                Row header = sheet.createRow(0);
+                String[] titles = {"订单号", "区域", "客户", "渠道", "数量", "单价", "折扣", "金额", "日期", "备注"};
+                for (int c = 0; c < titles.length; c++) {
+                    header.createCell(c).setCellValue(titles[c]);
+                }
+                for (int r = 1; r <= 20_000; r++) {
+                    Row row = sheet.createRow(r);
+                    row.createCell(0).setCellValue("SO" + (1_000_000 + s * 20_000 + r));
+                    row.createCell(1).setCellValue(word(random));
+                    row.createCell(2).setCellValue(word(random) + word(random));
+                    row.createCell(3).setCellValue(word(random));
+                    row.createCell(4).setCellValue(random.nextInt(1, 500));
+                    row.createCell(5).setCellValue(random.nextInt(100, 100_000) / 100.0);
+                    row.createCell(6).setCellValue(random.nextInt(0, 30) / 100.0);
+                    Cell amount = row.createCell(7);
+                    amount.setCellFormula("E" + (r + 1) + "*F" + (r + 1) + "*(1-G" + (r + 1) + ")");
+                    row.createCell(8).setCellValue("2024-" + random.nextInt(1, 13) + "-" + random.nextInt(1, 29));
+                    row.createCell(9).setCellValue(sentence(random, 6));
+                }
+            }
+            workbook.write(out);
+            workbook.dispose();
+        }
+    }
+
+    /**
+     * 60 pages of dense Latin text; the standard 14 fonts cannot encode CJK without embedding one.
+     */
+    private static void writePdf(OutputStream out, SplittableRandom random) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int p = 0; p < 60; p++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(13);
+                    content.newLineAtOffset(50, 790);
+                    for (int line = 0; line < 56; line++) {
+                        content.showText(latinSentence(random, 14));
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            document.save(out);
+        }
+    }
+
+    /**
+     * 400 paragraphs followed by a 200-row table.
+     */
+    private static void writeDocx(OutputStream out, SplittableRandom random) throws IOException {
+        try (XWPFDocument document = new XWPFDocument()) {
+            for (int p = 0; p < 400; p++) {
+                document.createParagraph().createRun().setText(sentence(random, 40));
+            }
+            XWPFTable table = document.createTable(200, 6);
+            for (int r = 0; r < 200; r++) {
+                for (int c = 0; c < 6; c++) {
+                    table.getRow(r).getCell(c).setText(c == 0 ? "R" + r : word(random));
+                }
+            }
+            document.write(out);
+        }
+    }
+
+    /**
+     * 40 slides with a title and a body text box each.
+     */
+    private static void writePptx(OutputStream out, SplittableRandom random) throws IOException {
+        try (XMLSlideShow slideShow = new XMLSlideShow()) {
+            for (int s = 0; s < 40; s++) {
+                XSLFSlide slide = slideShow.createSlide();
+                XSLFTextBox title = slide.createTextBox();
+                title.setAnchor(new Rectangle2D.Double(40, 20, 640, 60));
+                title.setText("第" + (s + 1) + "页 " + sentence(random, 4));
+                XSLFTextBox body = slide.createTextBox();
+                body.setAnchor(new Rectangle2D.Double(40, 100, 640, 400));
+                StringBuilder text = new StringBuilder();
+                for (int line = 0; line < 8; line++) {
+                    text.append(sentence(random, 12)).append('\n');
+                }
+                body.setText(text.toString());
+            }
+            slideShow.write(out);
+        }
+    }
+
+    /**
+     * An A4 page at 150 dpi with 40 lines of mixed Chinese and Latin text, as a scanned upload.
+     * Glyph coverage depends on the fonts installed on the host.
+     */
+    private static void writePng(OutputStream out, SplittableRandom random) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        BufferedImage image = new BufferedImage(1240, 1754, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.setColor(Color.BLACK);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 26));
+            for (int line = 0; line < 40; line++) {
+                g.drawString(sentence(random, 10), 80, 120 + line * 40);
+            }
+        } finally {
+            g.dispose();
+        }
+        ImageIO.write(image, "png", out);
+    }
+
+    /**
+     * About 1 MB of source code and config lines with Chinese comments.
+     */
+    private static void writeText(OutputStream out, SplittableRandom random, Charset charset, byte[] bom)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 20);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 600_000) {
+            text.append(CODE_LINES[random.nextInt(CODE_LINES.length)]).append('\n');
+        }
+        body.write(bom);
+        body.write(text.toString().getBytes(charset));
+        body.writeTo(out);
+    }
+
+    private static String word(SplittableRandom random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String sentence(SplittableRandom random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sentence.append(word(random)).append(' ');
+        }
+        return sentence.toString().trim();
+    }
+
+    private static String latinSentence(SplittableRandom random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        while (words > 0) {
+            String word = word(random);
+            if (word.chars().allMatch(ch -> ch < 0x80)) {
+                sentence.append(word).append(' ');
+                words--;
+            }
+        }
+        return sentence.toString().trim();
+    }
+}
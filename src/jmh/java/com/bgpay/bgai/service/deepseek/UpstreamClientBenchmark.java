@@ -0,0 +1,93 @@
+package com.bgpay.bgai.service.deepseek;
+
+import com.bgpay.bgai.config.AsyncConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upstream call path of {@link DeepSeekServiceImp} (pooled HTTP client, async executor and retry)
+ * against {@link MockUpstreamServer}, with 64 concurrent callers. Measures calls per second and the
+ * latency distribution as the injected error rate grows, without the rest of the application.
+ * <p>
+ * Retry and pool settings are the production defaults from deepseek-config.properties and
+ * AsyncConfig; change them here to compare alternatives.
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(64)
+public class UpstreamClientBenchmark {
+    private static final String REQUEST = """
+            {"model":"deepseek-chat","stream":false,"messages":[{"role":"user",\
+            "content":"【用户提问】请总结第三季度各区域的销售情况，并给出下季度的投放建议。"}]}""";
+
+    /**
+     * Share of requests answered with 429 or 5xx, split evenly.
+     */
+    @Param({"0", "0.05", "0.2"})
+    public double errorRate;
+
+    /**
+     * Share of requests that hang past the client's socket timeout.
+     */
+    @Param({"0"})
+    public double timeoutRate;
+
+    private MockUpstreamServer upstream;
+    private DeepSeekServiceImp service;
+    private ThreadPoolTaskExecutor executor;
+
+    @Setup
+    public void setup() throws Exception {
+        upstream = new MockUpstreamServer(new MockUpstreamServer.Settings()
+                .setLatencyMedianMs(300)
+                .setLatencyP99Ms(1_500)
+                .setTokensPerSecond(400)
+                .setRate429(errorRate / 2)
+                .setRate5xx(errorRate / 2)
+                .setRateTimeout(timeoutRate))
+                .start();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service = new DeepSeekServiceImp(500, 50, registry, new ChatMetrics(registry));
+        executor = (ThreadPoolTaskExecutor) new AsyncConfig().asyncTaskExecutor();
+        ReflectionTestUtils.setField(service, "asyncRequestExecutor", executor);
+        ReflectionTestUtils.setField(service, "maxRetries", Integer.parseInt(ConfigLoader.getProperty("retry.count", "5")));
+        ReflectionTestUtils.setField(service, "initialDelay", Long.parseLong(ConfigLoader.getProperty("retry.initial_delay", "2000")));
+        ReflectionTestUtils.setField(service, "backoffFactor", Double.parseDouble(ConfigLoader.getProperty("retry.backoff_factor", "1.5")));
+    }
+
+    @TearDown
+    public void tearDown() {
+        log.info("Mock upstream served {} requests, {} injected errors, {} injected timeouts",
+                upstream.requests(), upstream.injectedErrors(), upstream.injectedTimeouts());
+        // 非守护线程池不关闭会让 fork 的 JVM 无法退出
+        executor.shutdown();
+        upstream.close();
+    }
+
+    @Benchmark
+    public String chatCompletion() throws Exception {
+        return service.executeWithRetry(upstream.url(), "sk-mock", "deepseek-chat", REQUEST).get();
+    }
+}
@@ -0,0 +1,148 @@
+package com.bgpay.bgai.service.impl;
+
+import com.bgpay.bgai.entity.PriceConfig;
+import com.bgpay.bgai.entity.PriceQuery;
+import com.bgpay.bgai.service.PriceConfigService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.bgpay.bgai.entity.PriceConstants.*;
+
+/**
+ * Price lookups through {@link PriceCacheServiceImpl} as the billing consumer does them, with Redis,
+ * Redisson and the database replaced by in-memory fakes. Lookups are served by the in-process price
+ * table; the fakes only take part in building it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriceLookupBenchmark {
+    private static final List<String> MODELS = List.of("chat", "reasoner");
+    private static final List<String> PERIODS = List.of(DISCOUNT_PERIOD, STANDARD_PERIOD);
+
+    private PriceCacheServiceImpl priceCache;
+    private PriceQuery[] queries;
+
+    @Setup
+    public void setup() {
+        List<PriceConfig> rows = new ArrayList<>();
+        List<PriceQuery> keys = new ArrayList<>();
+        long id = 1;
+        for (String model : MODELS) {
+            for (String period : PERIODS) {
+                for (String[] variant : new String[][]{{CACHE_HIT, INPUT_TYPE}, {CACHE_MISS, INPUT_TYPE}, {null, OUTPUT_TYPE}}) {
+                    rows.add(new PriceConfig()
+                            .setId(id++)
+                            .setModelType(model)
+                            .setTimePeriod(period)
+                            .setCacheStatus(variant[0])
+                            .setIoType(variant[1])
+                            .setPrice(new BigDecimal("2.0000"))
+                            .setVersion(1)
+                            .setEffectiveTime(LocalDateTime.now().minusDays(1)));
+                    keys.add(new PriceQuery(model, period, variant[0], variant[1]));
+                }
+            }
+        }
+        queries = keys.toArray(new PriceQuery[0]);
+
+        priceCache = new PriceCacheServiceImpl(
+                new InMemoryRedisTemplate<>(),
+                new InMemoryRedisTemplate<>(),
+                new InMemoryRedisTemplate<>(),
+                fake(PriceConfigService.class, Map.of("list", rows)),
+                fake(RedissonClient.class, Map.of()),
+                new RedisMessageListenerContainer());
+        priceCache.init();
+    }
+
+    @Benchmark
+    public PriceConfig tableHit() {
+        return priceCache.getPriceConfig(queries[ThreadLocalRandom.current().nextInt(queries.length)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public PriceConfig tableHitContended() {
+        return priceCache.getPriceConfig(queries[ThreadLocalRandom.current().nextInt(queries.length)]);
+    }
+
+    /**
+     * Interface fake answering the named no-argument methods with fixed values.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T fake(Class<T> type, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (answers.containsKey(method.getName())) {
+                return answers.get(method.getName());
+            }
+            if (method.getDeclaringClass() == Object.class) {
+                return method.getName().equals("hashCode") ? System.identityHashCode(proxy) : type.getSimpleName();
+            }
+            throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+        });
+    }
+
+    /**
+     * RedisTemplate whose value operations live in a map, without a connection factory.
+     */
+    private static final class InMemoryRedisTemplate<V> extends RedisTemplate<String, V> {
+        private final Map<String, Object> values = new ConcurrentHashMap<>();
+        private final ValueOperations<String, V> valueOperations;
+
+        @SuppressWarnings("unchecked")
+        private InMemoryRedisTemplate() {
+            valueOperations = (ValueOperations<String, V>) Proxy.newProxyInstance(
+                    ValueOperations.class.getClassLoader(), new Class<?>[]{ValueOperations.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "get" -> values.get((String) args[0]);
+                        case "set" -> {
+                            values.put((String) args[0], args[1]);
+                            yield null;
+                        }
+                        case "increment" -> values.merge((String) args[0], 1L, (a, b) -> (Long) a + 1);
+                        default -> throw new UnsupportedOperationException("ValueOperations." + method.getName());
+                    });
+        }
+
+        @Override
+        public ValueOperations<String, V> opsForValue() {
+            return valueOperations;
+        }
+
+        @Override
+        public Boolean hasKey(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public void convertAndSend(String channel, Object message) {
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.bgpay.bgai.utils;
+
+import com.bgpay.bgai.entity.PriceConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost calculation of one usage record as done by the billing consumer: input and output cost from
+ * token counts and per-million prices. The BigDecimal variant is the formula used before
+ * {@link CostEngine} and serves as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CostEngineBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private final BigDecimal inputPrice = new BigDecimal("2.0000");
+    private final BigDecimal outputPrice = new BigDecimal("8.0000");
+    private int[] inputTokens;
+    private int[] outputTokens;
+    private int index;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        inputTokens = new int[SAMPLES];
+        outputTokens = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            inputTokens[i] = random.nextInt(50, 64_000);
+            outputTokens[i] = random.nextInt(10, 8_000);
+        }
+    }
+
+    @Benchmark
+    public void fixedPoint(Blackhole blackhole) {
+        int i = next();
+        blackhole.consume(CostEngine.cost(inputTokens[i], inputPrice));
+        blackhole.consume(CostEngine.cost(outputTokens[i], outputPrice));
+    }
+
+    @Benchmark
+    public long fixedPointUnits() {
+        int i = next();
+        return CostEngine.costUnits(inputTokens[i], inputPrice) + CostEngine.costUnits(outputTokens[i], outputPrice);
+    }
+
+    @Benchmark
+    public void bigDecimalBaseline(Blackhole blackhole) {
+        int i = next();
+        blackhole.consume(BigDecimal.valueOf(inputTokens[i])
+                .divide(PriceConstants.ONE_MILLION, 6, RoundingMode.HALF_UP)
+                .multiply(inputPrice)
+                .setScale(4, RoundingMode.HALF_UP));
+        blackhole.consume(BigDecimal.valueOf(outputTokens[i])
+                .divide(PriceConstants.ONE_MILLION, 6, RoundingMode.HALF_UP)
+                .multiply(outputPrice)
+                .setScale(4, RoundingMode.HALF_UP));
+    }
+
+    private int next() {
+        return index++ & (SAMPLES - 1);
+    }
+}
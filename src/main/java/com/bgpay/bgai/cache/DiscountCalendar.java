@@ -0,0 +1,137 @@
+package com.bgpay.bgai.cache;
+
+import com.bgpay.bgai.utils.TimeZoneUtils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.bgpay.bgai.entity.PriceConstants.DISCOUNT_PERIOD;
+import static com.bgpay.bgai.entity.PriceConstants.STANDARD_PERIOD;
+
+/**
+ * Immutable discount calendar of one model for a window of days.
+ * <p>
+ * Discount intervals are precomputed as sorted, non-overlapping epoch-millisecond ranges stored flat in a
+ * {@code long[]} as {@code [start0, end0, start1, end1, ...]} (start inclusive, end exclusive), so a lookup
+ * is a single binary search. Instants outside the window are answered directly with
+ * {@link TimeZoneUtils#isInDiscountWindow}, which applies the same boundary rule.
+ */
+public final class DiscountCalendar {
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    private final List<Window> windows;
+    private final long[] boundaries;
+    private final long coveredFrom;
+    private final long coveredUntil;
+
+    private DiscountCalendar(List<Window> windows, long[] boundaries, long coveredFrom, long coveredUntil) {
+        this.windows = windows;
+        this.boundaries = boundaries;
+        this.coveredFrom = coveredFrom;
+        this.coveredUntil = coveredUntil;
+    }
+
+    /**
+     * A discount window and the instant from which it applies.
+     */
+    public record Window(long effectiveFrom, LocalTime start, LocalTime end, ZoneId zone) {
+    }
+
+    /**
+     * Builds the calendar covering {@code [firstDay, firstDay + days)} in UTC.
+     *
+     * @param windows  The windows ordered by effective instant, at least one. The first one also applies
+     *                 before its effective instant.
+     * @param firstDay The first covered day
+     * @param days     The number of covered days
+     * @return The calendar
+     */
+    public static DiscountCalendar build(List<Window> windows, LocalDate firstDay, int days) {
+        if (windows.isEmpty()) {
+            throw new IllegalArgumentException("At least one discount window is required");
+        }
+        long from = firstDay.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long until = from + days * DAY_MILLIS;
+
+        long[] bounds = new long[Math.max(8, (days + 4) * 2 * windows.size())];
+        int count = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            Window window = windows.get(i);
+            if (window.start().equals(window.end())) {
+                continue;
+            }
+            long validFrom = i == 0 ? from : Math.max(window.effectiveFrom(), from);
+            long validTo = i + 1 < windows.size() ? Math.min(windows.get(i + 1).effectiveFrom(), until) : until;
+            if (validFrom >= validTo) {
+                continue;
+            }
+            // 时区偏移不超过18小时，前后各多算两天即可覆盖窗口边缘
+            for (LocalDate day = firstDay.minusDays(2); !day.isAfter(firstDay.plusDays(days + 1)); day = day.plusDays(1)) {
+                LocalDate endDay = window.start().isBefore(window.end()) ? day : day.plusDays(1);
+                long start = Math.max(toMillis(day, window.start(), window.zone()), validFrom);
+                long end = Math.min(toMillis(endDay, window.end(), window.zone()), validTo);
+                if (start >= end) {
+                    continue;
+                }
+                if (count > 0 && start <= bounds[count - 1]) {
+                    // 相邻或重叠的区间合并，保证数组严格递增
+                    bounds[count - 1] = Math.max(bounds[count - 1], end);
+                    continue;
+                }
+                if (count + 2 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[count++] = start;
+                bounds[count++] = end;
+            }
+        }
+        return new DiscountCalendar(List.copyOf(windows), Arrays.copyOf(bounds, count), from, until);
+    }
+
+    /**
+     * @param epochMillis The instant
+     * @return {@code discount} or {@code standard}
+     */
+    public String resolve(long epochMillis) {
+        return isDiscount(epochMillis) ? DISCOUNT_PERIOD : STANDARD_PERIOD;
+    }
+
+    public boolean isDiscount(long epochMillis) {
+        if (epochMillis < coveredFrom || epochMillis >= coveredUntil) {
+            return isDiscountDirect(epochMillis);
+        }
+        int index = Arrays.binarySearch(boundaries, epochMillis);
+        if (index >= 0) {
+            // 命中边界：区间起点算优惠，终点不算
+            return (index & 1) == 0;
+        }
+        return ((-index - 1) & 1) == 1;
+    }
+
+    public boolean covers(long epochMillis) {
+        return epochMillis >= coveredFrom && epochMillis < coveredUntil;
+    }
+
+    public int intervalCount() {
+        return boundaries.length / 2;
+    }
+
+    private boolean isDiscountDirect(long epochMillis) {
+        Window window = windows.get(0);
+        for (int i = 1; i < windows.size() && windows.get(i).effectiveFrom() <= epochMillis; i++) {
+            window = windows.get(i);
+        }
+        return TimeZoneUtils.isInDiscountWindow(Instant.ofEpochMilli(epochMillis),
+                window.start(), window.end(), window.zone());
+    }
+
+    private static long toMillis(LocalDate day, LocalTime time, ZoneId zone) {
+        return ZonedDateTime.of(day, time, zone).toInstant().toEpochMilli();
+    }
+}
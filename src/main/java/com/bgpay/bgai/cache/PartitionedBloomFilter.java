@@ -0,0 +1,196 @@
+package com.bgpay.bgai.cache;
+
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RAtomicLong;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBitSetAsync;
+import org.redisson.api.RedissonClient;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time-partitioned Bloom filter shared through Redis bitmaps, with a local copy of every live partition.
+ * <p>
+ * Additions go to the partition of the current time; a lookup consults the last {@code partitions}
+ * partitions, so an id is remembered for at least {@code (partitions - 1) * partitionMillis}. Older
+ * partitions expire in Redis. Bits are addressed with Murmur3-128 double hashing, so a node can answer
+ * from its local copy without a round trip: the current partition is re-fetched on every {@link #sync()},
+ * a closed one until a fetch has happened {@code maxStaleness} after it closed, which covers additions
+ * other nodes made right up to the boundary. A negative answer is only trusted once the filter has been
+ * filled for its whole retention and the local copy is recent; otherwise {@link #mightContain} says yes.
+ * <p>
+ * Even then a negative can miss ids another node added since the last sync, so up to one sync interval
+ * (at most {@code maxStaleness}). Callers for which a wrong "new" is costly must confirm negatives elsewhere.
+ */
+@Slf4j
+public final class PartitionedBloomFilter {
+    private final RedissonClient redissonClient;
+    private final String name;
+    private final long partitionMillis;
+    private final int partitions;
+    private final long bits;
+    private final int hashes;
+    private final long maxStalenessMillis;
+    private final Map<Long, AtomicLongArray> local = new ConcurrentHashMap<>();
+    // 关闭后已完整加载过的分区，不再刷新
+    private final Set<Long> sealed = ConcurrentHashMap.newKeySet();
+
+    private volatile long since = Long.MAX_VALUE;
+    private volatile long lastSyncAt;
+
+    public PartitionedBloomFilter(RedissonClient redissonClient, String name, Duration partition, int partitions,
+                                  long expectedInsertions, double falsePositiveRate, Duration maxStaleness) {
+        this.redissonClient = redissonClient;
+        this.name = name;
+        this.partitionMillis = partition.toMillis();
+        this.partitions = partitions;
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        // 按64位对齐，本地副本用long数组保存
+        this.bits = (optimalBits + 63) / 64 * 64;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+        this.maxStalenessMillis = maxStaleness.toMillis();
+    }
+
+    /**
+     * Records when the filter started receiving ids (shared by all nodes) and loads the local copy.
+     */
+    public void start() {
+        RAtomicLong startedAt = redissonClient.getAtomicLong(name + ":since");
+        startedAt.compareAndSet(0, System.currentTimeMillis());
+        since = startedAt.get();
+        sync();
+    }
+
+    /**
+     * @param id The id
+     * @return false only if the id was definitely not added within the retention
+     */
+    public boolean mightContain(String id) {
+        long now = System.currentTimeMillis();
+        if (now - since < (partitions - 1) * partitionMillis || now - lastSyncAt > maxStalenessMillis) {
+            return true;
+        }
+        long[] indexes = indexes(id);
+        long current = now / partitionMillis;
+        for (long partition = current - partitions + 1; partition <= current; partition++) {
+            AtomicLongArray words = local.get(partition);
+            if (words == null || containsAll(words, indexes)) {
+                // 缺少本地副本时无法判定，按可能存在处理
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds ids to the current partition in Redis and in the local copy.
+     */
+    public void addAll(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        long partition = System.currentTimeMillis() / partitionMillis;
+        RBatch batch = redissonClient.createBatch();
+        RBitSetAsync bitSet = batch.getBitSet(key(partition));
+        AtomicLongArray words = local.computeIfAbsent(partition, p -> new AtomicLongArray((int) (bits / 64)));
+        for (String id : ids) {
+            for (long index : indexes(id)) {
+                bitSet.setAsync(index);
+                setBit(words, index);
+            }
+        }
+        bitSet.expireAsync(Duration.ofMillis(partitionMillis * (partitions + 1)));
+        batch.execute();
+    }
+
+    /**
+     * Refreshes the local copy: the current partition is reloaded, a closed one is reloaded until it has
+     * been loaded {@code maxStaleness} after closing, expired ones are dropped.
+     */
+    public void sync() {
+        long now = System.currentTimeMillis();
+        long current = now / partitionMillis;
+        long oldest = current - partitions + 1;
+        try {
+            for (long partition = oldest; partition <= current; partition++) {
+                if (!sealed.contains(partition)) {
+                    boolean complete = now >= (partition + 1) * partitionMillis + maxStalenessMillis;
+                    AtomicLongArray loaded = load(partition);
+                    AtomicLongArray previous = local.put(partition, loaded);
+                    if (previous != null) {
+                        // 合并同步期间本节点新加的位
+                        for (int i = 0; i < previous.length(); i++) {
+                            loaded.getAndAccumulate(i, previous.get(i), (a, b) -> a | b);
+                        }
+                    }
+                    if (complete) {
+                        sealed.add(partition);
+                    }
+                }
+            }
+            local.keySet().removeIf(partition -> partition < oldest);
+            sealed.removeIf(partition -> partition < oldest);
+            lastSyncAt = System.currentTimeMillis();
+        } catch (Exception e) {
+            log.warn("Bloom filter sync failed [name={}]", name, e);
+        }
+    }
+
+    private AtomicLongArray load(long partition) {
+        byte[] raw = redissonClient.getBitSet(key(partition)).toByteArray();
+        AtomicLongArray words = new AtomicLongArray((int) (bits / 64));
+        // Redis位图按字节大端存放，第i位是第i/8字节的从高到低第i%8位
+        byte[] padded = new byte[words.length() * 8];
+        System.arraycopy(raw, 0, padded, 0, Math.min(raw.length, padded.length));
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, buffer.getLong());
+        }
+        return words;
+    }
+
+    private long[] indexes(String id) {
+        byte[] hash = Hashing.murmur3_128().hashString(id, StandardCharsets.UTF_8).asBytes();
+        ByteBuffer buffer = ByteBuffer.wrap(hash).order(ByteOrder.LITTLE_ENDIAN);
+        long hash1 = buffer.getLong();
+        long hash2 = buffer.getLong();
+        long[] indexes = new long[hashes];
+        long combined = hash1;
+        for (int i = 0; i < hashes; i++) {
+            indexes[i] = (combined & Long.MAX_VALUE) % bits;
+            combined += hash2;
+        }
+        return indexes;
+    }
+
+    private static boolean containsAll(AtomicLongArray words, long[] indexes) {
+        for (long index : indexes) {
+            if ((words.get((int) (index >>> 6)) & mask(index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void setBit(AtomicLongArray words, long index) {
+        long mask = mask(index);
+        words.getAndAccumulate((int) (index >>> 6), mask, (a, b) -> a | b);
+    }
+
+    private static long mask(long index) {
+        return 1L << (63 - (index & 63));
+    }
+
+    private String key(long partition) {
+        return name + ":" + partition;
+    }
+}
@@ -0,0 +1,91 @@
+package com.bgpay.bgai.cache;
+
+import com.bgpay.bgai.entity.PriceConfig;
+import com.bgpay.bgai.entity.PriceQuery;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of every effective price, indexed by model, time period, cache status and IO type.
+ * <p>
+ * A snapshot is only valid until the next future {@code effective_time} found in the rows it was built
+ * from; after that {@link #isFresh()} returns false and the owner must rebuild it.
+ */
+public final class PriceTable {
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final long version;
+    private final Map<PriceQuery, PriceConfig> prices;
+    private final long validUntilMillis;
+
+    private PriceTable(long version, Map<PriceQuery, PriceConfig> prices, long validUntilMillis) {
+        this.version = version;
+        this.prices = prices;
+        this.validUntilMillis = validUntilMillis;
+    }
+
+    /**
+     * Builds a snapshot from all price rows, keeping for each key the latest row already in effect.
+     *
+     * @param version The version of the snapshot, used to discard out-of-order refreshes
+     * @param rows    All price_config rows
+     * @param now     The build time
+     * @return The snapshot
+     */
+    public static PriceTable build(long version, Collection<PriceConfig> rows, LocalDateTime now) {
+        Map<PriceQuery, PriceConfig> effective = new HashMap<>();
+        LocalDateTime nextChange = null;
+
+        for (PriceConfig row : rows) {
+            LocalDateTime effectiveTime = row.getEffectiveTime();
+            if (effectiveTime == null) {
+                continue;
+            }
+            if (effectiveTime.isAfter(now)) {
+                // 尚未生效的价格决定快照的有效期
+                if (nextChange == null || effectiveTime.isBefore(nextChange)) {
+                    nextChange = effectiveTime;
+                }
+                continue;
+            }
+            PriceQuery key = new PriceQuery(row.getModelType(), row.getTimePeriod(),
+                    row.getCacheStatus(), row.getIoType());
+            effective.merge(key, row, (current, candidate) ->
+                    candidate.getEffectiveTime().isAfter(current.getEffectiveTime()) ? candidate : current);
+        }
+
+        long validUntil = nextChange == null
+                ? Long.MAX_VALUE
+                : nextChange.atZone(ZONE).toInstant().toEpochMilli();
+        return new PriceTable(version, Collections.unmodifiableMap(effective), validUntil);
+    }
+
+    public static PriceTable empty() {
+        return new PriceTable(Long.MIN_VALUE, Collections.emptyMap(), Long.MIN_VALUE);
+    }
+
+    /**
+     * @param query The lookup conditions
+     * @return The effective price, or null if the snapshot has none
+     */
+    public PriceConfig find(PriceQuery query) {
+        return prices.get(query);
+    }
+
+    public boolean isFresh() {
+        return System.currentTimeMillis() < validUntilMillis;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return prices.size();
+    }
+}
@@ -0,0 +1,158 @@
+package com.bgpay.bgai.cache;
+
+import com.bgpay.bgai.entity.TimePeriodSchedule;
+import com.bgpay.bgai.mapper.TimePeriodScheduleMapper;
+import com.bgpay.bgai.service.PriceCacheService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the billing time period (discount or standard) of a usage timestamp.
+ * <p>
+ * Schedules are loaded from the time_period_schedule table. The default rows, with the configured window
+ * as the baseline, apply to every model until the model's own first row takes effect; from then on only
+ * the model's rows apply, so a future-dated model schedule changes nothing before its effective time.
+ * Each model gets a {@link DiscountCalendar} for a rolling window of days, rebuilt periodically and
+ * whenever prices are switched, so resolving a message is a binary search with no time-zone arithmetic.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TimePeriodResolver {
+    private static final ZoneId EFFECTIVE_TIME_ZONE = ZoneId.systemDefault();
+
+    @Value("${billing.time-period.lookback-days:2}")
+    private int lookbackDays;
+
+    @Value("${billing.time-period.window-days:9}")
+    private int windowDays;
+
+    @Value("${billing.time-period.default-start:00:30}")
+    private String defaultStart;
+
+    @Value("${billing.time-period.default-end:08:30}")
+    private String defaultEnd;
+
+    @Value("${billing.time-period.default-zone:Asia/Shanghai}")
+    private String defaultZone;
+
+    private final TimePeriodScheduleMapper scheduleMapper;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private volatile Map<String, DiscountCalendar> calendars = Map.of();
+    private volatile DiscountCalendar defaultCalendar;
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener((message, pattern) -> rebuild(),
+                new ChannelTopic(PriceCacheService.PRICE_TABLE_CHANNEL));
+        rebuild();
+    }
+
+    /**
+     * @param modelType The model of the usage
+     * @param utcTime   The usage time in UTC
+     * @return {@code discount} or {@code standard}
+     */
+    public String resolve(String modelType, LocalDateTime utcTime) {
+        return resolve(modelType, utcTime.toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    public String resolve(String modelType, long epochMillis) {
+        DiscountCalendar calendar = modelType == null ? null : calendars.get(modelType);
+        return (calendar != null ? calendar : defaultCalendar).resolve(epochMillis);
+    }
+
+    /**
+     * Rebuilds every calendar so that the window keeps rolling forward.
+     */
+    @Scheduled(fixedDelayString = "${billing.time-period.rebuild-interval-ms:3600000}",
+            initialDelayString = "${billing.time-period.rebuild-interval-ms:3600000}")
+    public synchronized void rebuild() {
+        DiscountCalendar.Window baseline = new DiscountCalendar.Window(Long.MIN_VALUE,
+                LocalTime.parse(defaultStart), LocalTime.parse(defaultEnd), ZoneId.of(defaultZone));
+        List<TimePeriodSchedule> rows;
+        try {
+            rows = scheduleMapper.selectAllOrderByEffectiveTime();
+        } catch (Exception e) {
+            // 表不可用时保留上一次的日历，首次加载则只用默认时段
+            log.warn("优惠时段配置加载失败", e);
+            if (defaultCalendar != null) {
+                return;
+            }
+            rows = List.of();
+        }
+
+        List<DiscountCalendar.Window> defaults = new ArrayList<>();
+        defaults.add(baseline);
+        Map<String, List<DiscountCalendar.Window>> byModel = new HashMap<>();
+        for (TimePeriodSchedule row : rows) {
+            if (row.getDiscountStart() == null || row.getDiscountEnd() == null) {
+                continue;
+            }
+            String model = row.getModelType();
+            List<DiscountCalendar.Window> target = model == null || model.isBlank()
+                    ? defaults : byModel.computeIfAbsent(model, k -> new ArrayList<>());
+            addWindow(target, toWindow(row, baseline.zone()));
+        }
+
+        LocalDate firstDay = LocalDate.now(ZoneOffset.UTC).minusDays(lookbackDays);
+        Map<String, DiscountCalendar> built = new HashMap<>();
+        byModel.forEach((model, own) ->
+                built.put(model, DiscountCalendar.build(withDefaults(defaults, own), firstDay, windowDays)));
+        defaultCalendar = DiscountCalendar.build(defaults, firstDay, windowDays);
+        calendars = Map.copyOf(built);
+        log.info("Time period calendars rebuilt [from={}, days={}, models={}]", firstDay, windowDays, built.size());
+    }
+
+    /**
+     * 模型自有配置生效前沿用默认配置；否则日历会把模型的第一条配置向前延伸，未来生效的配置提前生效
+     */
+    private static List<DiscountCalendar.Window> withDefaults(List<DiscountCalendar.Window> defaults,
+                                                              List<DiscountCalendar.Window> own) {
+        long ownFrom = own.get(0).effectiveFrom();
+        List<DiscountCalendar.Window> windows = new ArrayList<>(defaults.size() + own.size());
+        for (DiscountCalendar.Window window : defaults) {
+            if (window.effectiveFrom() < ownFrom) {
+                windows.add(window);
+            }
+        }
+        windows.addAll(own);
+        return windows;
+    }
+
+    private static DiscountCalendar.Window toWindow(TimePeriodSchedule row, ZoneId defaultZone) {
+        long effectiveFrom = row.getEffectiveTime() == null
+                ? Long.MIN_VALUE
+                : row.getEffectiveTime().atZone(EFFECTIVE_TIME_ZONE).toInstant().toEpochMilli();
+        ZoneId zone = row.getZoneId() == null || row.getZoneId().isBlank()
+                ? defaultZone : ZoneId.of(row.getZoneId());
+        return new DiscountCalendar.Window(effectiveFrom, row.getDiscountStart(), row.getDiscountEnd(), zone);
+    }
+
+    private static void addWindow(List<DiscountCalendar.Window> windows, DiscountCalendar.Window window) {
+        // 行已按生效时间排序；同一生效时间的多行以后读到的（版本更高的）为准
+        int last = windows.size() - 1;
+        if (last >= 0 && windows.get(last).effectiveFrom() == window.effectiveFrom()) {
+            windows.set(last, window);
+        } else {
+            windows.add(window);
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.bgpay.bgai.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -12,10 +16,24 @@ import java.util.concurrent.ThreadPoolExecutor;
 @EnableAsync
 public class AsyncConfig {
 
+    // 任务在提交线程的链路上下文、数据源选择中执行，见 TracingConfig、DataSourceConfig
+    private TaskDecorator taskDecorator = runnable -> runnable;
+
+    @Autowired(required = false)
+    public void setTaskDecorators(List<TaskDecorator> taskDecorators) {
+        this.taskDecorator = runnable -> {
+            Runnable decorated = runnable;
+            for (TaskDecorator decorator : taskDecorators) {
+                decorated = decorator.decorate(decorated);
+            }
+            return decorated;
+        };
+    }
 
     @Bean("asyncTaskExcutor")
     public Executor asyncTaskExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setTaskDecorator(taskDecorator);
         executor.setCorePoolSize(20);
         executor.setMaxPoolSize(200);
         executor.setQueueCapacity(1000);
@@ -29,6 +47,7 @@ public class AsyncConfig {
     @Bean("ioTaskExecutor")
     public ThreadPoolTaskExecutor ioExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setTaskDecorator(taskDecorator);
         executor.setCorePoolSize(50);
         executor.setMaxPoolSize(200);
         executor.setQueueCapacity(1000);
@@ -40,26 +59,17 @@ public class AsyncConfig {
     @Bean("dbTaskExecutor")
     public ThreadPoolTaskExecutor dbExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setTaskDecorator(taskDecorator);
         executor.setCorePoolSize(20);
         executor.setMaxPoolSize(50);
         executor.setQueueCapacity(5000);
         executor.setThreadNamePrefix("db-");
         return executor;
     }
-    @Bean("fileWriteExecutor")
-    public Executor fileWriteExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(5);
-        executor.setQueueCapacity(100);
-        executor.setThreadNamePrefix("FileWrite-");
-        executor.initialize();
-        return executor;
-    }
-
     @Bean("mqAsyncExecutor")
     public Executor mqAsyncExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setTaskDecorator(taskDecorator);
         executor.setCorePoolSize(10);
         executor.setMaxPoolSize(20);
         executor.setQueueCapacity(10000);
@@ -67,4 +77,20 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    // 异步文件分析任务（有界队列，满了直接拒绝，由调用方返回繁忙）
+    @Bean("chatJobExecutor")
+    public ThreadPoolTaskExecutor chatJobExecutor(
+            @Value("${chat.job.workers:8}") int workers,
+            @Value("${chat.job.queue-capacity:200}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setTaskDecorator(taskDecorator);
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ChatJob-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
 }
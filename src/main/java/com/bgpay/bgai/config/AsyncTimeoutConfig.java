@@ -0,0 +1,41 @@
+package com.bgpay.bgai.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Per-request timeouts for async MVC handlers whose return type has no timeout of its own, such as
+ * {@code StreamingResponseBody}.
+ * <p>
+ * A handler stores a {@link Duration} under {@link #TIMEOUT_ATTRIBUTE}; it replaces the default async
+ * timeout for that request only, before async processing starts. Requests without the attribute keep
+ * the default.
+ */
+@Configuration
+public class AsyncTimeoutConfig implements WebMvcConfigurer {
+    public static final String TIMEOUT_ATTRIBUTE = AsyncTimeoutConfig.class.getName() + ".timeout";
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new TimeoutInterceptor());
+    }
+
+    private static final class TimeoutInterceptor implements CallableProcessingInterceptor {
+        @Override
+        public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+            Object timeout = request.getAttribute(TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            // 此时尚未 startAsync，超时仍可修改
+            if (timeout instanceof Duration duration && request instanceof AsyncWebRequest asyncRequest) {
+                asyncRequest.setTimeout(duration.toMillis());
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.bgpay.bgai.config;
+
+import io.micrometer.tracing.Tracer;
+import io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingSpanExporter;
+import io.opentelemetry.exporter.otlp.http.trace.OtlpHttpSpanExporter;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Span export and trace context propagation across thread pools.
+ * <p>
+ * Spring Boot creates the OpenTelemetry tracer and the HTTP server spans; this configuration adds the
+ * exporter, chosen by {@code tracing.exporter}: {@code otlp} posts to a collector over OTLP/HTTP,
+ * {@code file} writes OTLP JSON lines through the {@code TRACE_FILE} appender of logback-spring.xml.
+ */
+@Configuration
+public class TracingConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "tracing.exporter", havingValue = "otlp", matchIfMissing = true)
+    public SpanExporter otlpSpanExporter(
+            @Value("${tracing.otlp.endpoint:http://localhost:4318/v1/traces}") String endpoint) {
+        return OtlpHttpSpanExporter.builder()
+                .setEndpoint(endpoint)
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "tracing.exporter", havingValue = "file")
+    public SpanExporter fileSpanExporter() {
+        return OtlpJsonLoggingSpanExporter.create();
+    }
+
+    /**
+     * Runs each task in the trace context of the thread that submitted it, so that spans and logs of
+     * pooled work stay in the request's trace. Applied to the executors of {@link AsyncConfig}.
+     */
+    @Bean
+    public TaskDecorator tracingTaskDecorator(ObjectProvider<Tracer> tracer) {
+        Tracer resolved = tracer.getIfAvailable(() -> Tracer.NOOP);
+        return runnable -> resolved.currentTraceContext().wrap(runnable);
+    }
+}
@@ -1,34 +1,55 @@
 package com.bgpay.bgai.controller;
 
+import com.bgpay.bgai.response.ChatDiagnostics;
+import com.bgpay.bgai.response.ChatJob;
+import com.bgpay.bgai.service.deepseek.ChatJobService;
+import com.bgpay.bgai.service.deepseek.ChatMetrics;
 import com.bgpay.bgai.service.deepseek.DeepSeekService;
 import com.bgpay.bgai.service.deepseek.FileProcessor;
 import com.bgpay.bgai.entity.ApiConfig;
 import com.bgpay.bgai.entity.UsageInfo;
 import com.bgpay.bgai.response.ChatResponse;
 import com.bgpay.bgai.service.ApiConfigService;
+import com.bgpay.bgai.service.UserSpendService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.File;
 
 
 
 @RestController
 @RequestMapping("/api")
 public class EnhancedChatController {
+
     private final FileProcessor fileProcessor;
     private final ApiConfigService apiConfigService;
     private final DeepSeekService deepSeekService;
+    private final ChatJobService chatJobService;
+    private final UserSpendService userSpendService;
+    private final ChatMetrics chatMetrics;
 
     @Autowired
     public EnhancedChatController(FileProcessor fileProcessor,
                                   ApiConfigService apiConfigService,
-                                  DeepSeekService deepSeekService) {
+                                  DeepSeekService deepSeekService,
+                                  ChatJobService chatJobService,
+                                  UserSpendService userSpendService,
+                                  ChatMetrics chatMetrics) {
         this.fileProcessor = fileProcessor;
         this.apiConfigService = apiConfigService;
         this.deepSeekService = deepSeekService;
+        this.chatJobService = chatJobService;
+        this.userSpendService = userSpendService;
+        this.chatMetrics = chatMetrics;
     }
 
     @PostMapping(value = "/chat", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -39,16 +60,28 @@ public class EnhancedChatController {
             @RequestParam(value = "apiKey", required = false) String apiKey,
             @RequestParam(value = "modelName", required = false) String modelName,
             @RequestParam(value = "multiTurn", defaultValue = "false") boolean multiTurn,
-            @RequestHeader("X-User-Id") String userId) {
+            @RequestHeader("X-User-Id") String userId,
+            @RequestHeader(value = ChatDiagnostics.HEADER, defaultValue = "false") boolean withDiagnostics) {
 
+        // 仅在请求头要求时收集诊断信息，普通请求不创建
+        ChatDiagnostics diagnostics = withDiagnostics ? new ChatDiagnostics() : null;
         try {
             if ((file == null || file.isEmpty()) && question.isBlank()) {
                 return errorResponse(400, "必须提供问题或文件");
             }
+            if (!userSpendService.hasRemainingQuota(userId)) {
+                return errorResponse(429, UserSpendService.QUOTA_EXCEEDED_MESSAGE);
+            }
 
-            ApiConfig apiConfig = resolveApiConfig(apiUrl, apiKey, modelName, userId);
+            ApiConfig apiConfig = chatMetrics.time(ChatMetrics.STAGE_CONFIG_RESOLVE, modelName, diagnostics,
+                    () -> resolveApiConfig(apiUrl, apiKey, modelName, userId));
 
+            long fileStart = diagnostics == null ? 0 : System.nanoTime();
             String content = buildContent(file, question, multiTurn);
+            if (diagnostics != null && file != null && !file.isEmpty()) {
+                // 校验与解析在 FileProcessor 内分别计时，这里记录文件处理的总耗时
+                diagnostics.recordStage("file.process", System.nanoTime() - fileStart);
+            }
 
             ChatResponse response = deepSeekService.processRequest(
                     content,
@@ -56,7 +89,8 @@ public class EnhancedChatController {
                     apiConfig.getApiKey(),
                     apiConfig.getModelName(),
                     userId,
-                    multiTurn
+                    multiTurn,
+                    diagnostics
             );
 
             return ResponseEntity.ok(response);
@@ -67,6 +101,70 @@ public class EnhancedChatController {
         }
     }
 
+    /**
+     * 异步模式：文件落盘后立即返回任务ID，解析与上游调用在有界队列中执行
+     */
+    @PostMapping(value = "/chat/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<ChatJob> submitChatJob(
+            @RequestPart(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "question", defaultValue = "请分析该内容") String question,
+            @RequestParam(value = "apiUrl", required = false) String apiUrl,
+            @RequestParam(value = "apiKey", required = false) String apiKey,
+            @RequestParam(value = "modelName", required = false) String modelName,
+            @RequestParam(value = "multiTurn", defaultValue = "false") boolean multiTurn,
+            @RequestHeader("X-User-Id") String userId) {
+
+        try {
+            boolean hasFile = file != null && !file.isEmpty();
+            if (!hasFile && question.isBlank()) {
+                return jobErrorResponse(400, "必须提供问题或文件");
+            }
+            if (!userSpendService.hasRemainingQuota(userId)) {
+                return jobErrorResponse(429, UserSpendService.QUOTA_EXCEEDED_MESSAGE);
+            }
+
+            ApiConfig apiConfig = chatMetrics.time(ChatMetrics.STAGE_CONFIG_RESOLVE, modelName,
+                    () -> resolveApiConfig(apiUrl, apiKey, modelName, userId));
+            File stagedFile = hasFile ? fileProcessor.stageFile(file) : null;
+
+            ChatJob job = chatJobService.submit(
+                    userId,
+                    apiConfig,
+                    question,
+                    multiTurn,
+                    stagedFile,
+                    hasFile ? file.getContentType() : null
+            );
+            return ResponseEntity.accepted().body(job);
+        } catch (IllegalArgumentException e) {
+            return jobErrorResponse(400, e.getMessage());
+        } catch (TaskRejectedException e) {
+            return jobErrorResponse(503, "任务队列已满，请稍后重试");
+        } catch (Exception e) {
+            return jobErrorResponse(500, "提交失败: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/chat/jobs/{jobId}")
+    public ResponseEntity<ChatJob> getChatJob(@PathVariable String jobId,
+                                              @RequestHeader("X-User-Id") String userId) {
+        ChatJob job = chatJobService.find(jobId);
+        if (job == null || !userId.equals(job.getUserId())) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    @GetMapping(value = "/chat/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeChatJob(@PathVariable String jobId,
+                                       @RequestHeader("X-User-Id") String userId) {
+        ChatJob job = chatJobService.find(jobId);
+        if (job == null || !userId.equals(job.getUserId())) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在");
+        }
+        return chatJobService.subscribe(job);
+    }
+
     private ApiConfig resolveApiConfig(String apiUrl, String apiKey, String modelName, String userId) {
         // 用户提供完整参数
         if (StringUtils.hasText(apiUrl)
@@ -100,6 +198,13 @@ public class EnhancedChatController {
         return content.toString();
     }
 
+    private ResponseEntity<ChatJob> jobErrorResponse(int code, String message) {
+        ChatJob job = new ChatJob();
+        job.setStatus(ChatJob.Status.FAILED);
+        job.setError(message);
+        return ResponseEntity.status(code).body(job);
+    }
+
     // 修改 errorResponse 方法，使其返回 ResponseEntity<ChatResponse>
     private ResponseEntity<ChatResponse> errorResponse(int code, String message) {
         ChatResponse chatResponse = new ChatResponse();
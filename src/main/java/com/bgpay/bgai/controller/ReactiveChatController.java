@@ -6,6 +6,8 @@ import com.bgpay.bgai.entity.UsageInfo;
 import com.bgpay.bgai.exception.BillingException;
 import com.bgpay.bgai.response.ChatResponse;
 import com.bgpay.bgai.service.ApiConfigService;
+import com.bgpay.bgai.service.UserSpendService;
+import com.bgpay.bgai.service.deepseek.ChatMetrics;
 import com.bgpay.bgai.service.deepseek.DeepSeekService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +17,7 @@ import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @RestController
 @RequestMapping("/api")
@@ -24,14 +27,20 @@ public class ReactiveChatController {
     private final ReactiveFileProcessor fileProcessor;
     private final ApiConfigService apiConfigService;
     private final DeepSeekService deepSeekService;
+    private final UserSpendService userSpendService;
+    private final ChatMetrics chatMetrics;
 
     @Autowired
     public ReactiveChatController(ReactiveFileProcessor fileProcessor,
                                   ApiConfigService apiConfigService,
-                                  DeepSeekService deepSeekService) {
+                                  DeepSeekService deepSeekService,
+                                  UserSpendService userSpendService,
+                                  ChatMetrics chatMetrics) {
         this.fileProcessor = fileProcessor;
         this.apiConfigService = apiConfigService;
         this.deepSeekService = deepSeekService;
+        this.userSpendService = userSpendService;
+        this.chatMetrics = chatMetrics;
     }
 
     @PostMapping(
@@ -54,22 +63,26 @@ public class ReactiveChatController {
                 return Mono.just(errorResponse(400, "必须提供问题或文件"));
             }
 
-            // 解析配置
-            return resolveApiConfigReactive(apiUrl, apiKey, modelName, userId)
-                    .flatMap(apiConfig ->
-                            processContent(file, question, multiTurn)
-                                    .flatMap(content ->
-                                            deepSeekService.processRequestReactive(
-                                                    content,
-                                                    apiConfig.getApiUrl(),
-                                                    apiConfig.getApiKey(),
-                                                    apiConfig.getModelName(),
-                                                    userId,
-                                                    multiTurn
-                                            )
+            // 额度检查（Redis 读取放到弹性线程池），再解析配置
+            return Mono.fromCallable(() -> userSpendService.hasRemainingQuota(userId))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMap(allowed -> !allowed
+                            ? Mono.just(errorResponse(429, UserSpendService.QUOTA_EXCEEDED_MESSAGE))
+                            : resolveApiConfigReactive(apiUrl, apiKey, modelName, userId)
+                                    .flatMap(apiConfig ->
+                                            processContent(file, question, multiTurn)
+                                                    .flatMap(content ->
+                                                            deepSeekService.processRequestReactive(
+                                                                    content,
+                                                                    apiConfig.getApiUrl(),
+                                                                    apiConfig.getApiKey(),
+                                                                    apiConfig.getModelName(),
+                                                                    userId,
+                                                                    multiTurn
+                                                            )
+                                                    )
                                     )
-                    )
-                    .map(ResponseEntity::ok)
+                                    .map(ResponseEntity::ok))
                     .onErrorResume(e ->
                             Mono.just(errorResponse(500, "处理失败: " + e.getMessage()))
                     );
@@ -77,6 +90,11 @@ public class ReactiveChatController {
     }
 
     private Mono<ApiConfig> resolveApiConfigReactive(String apiUrl, String apiKey, String modelName, String userId) {
+        return chatMetrics.time(ChatMetrics.STAGE_CONFIG_RESOLVE, modelName, ChatMetrics.NONE, ChatMetrics.NONE,
+                lookupApiConfig(apiUrl, apiKey, modelName, userId));
+    }
+
+    private Mono<ApiConfig> lookupApiConfig(String apiUrl, String apiKey, String modelName, String userId) {
         if (StringUtils.hasText(apiUrl)
                 && StringUtils.hasText(apiKey)
                 && StringUtils.hasText(modelName)) {
@@ -96,13 +114,15 @@ public class ReactiveChatController {
                     .doOnNext(c -> log.debug("Processing text-only request"));
         }
 
-        return fileProcessor.processReactiveFile(file)
+        String fileType = ChatMetrics.fileTypeOf(String.valueOf(file.headers().getContentType()));
+        return chatMetrics.time(ChatMetrics.STAGE_FILE_EXTRACT, ChatMetrics.NONE, ChatMetrics.NONE, fileType,
+                        fileProcessor.processReactiveFile(file))
                 .onErrorResume(e -> {
                     log.error("File processing failed", e);
                     return Mono.error(new BillingException("文件处理失败: " + e.getMessage()));
                 })
                 .map(fileContent -> buildFileContent(fileContent, question))
-                .doOnNext(c -> log.debug("File content processed: {}", c.substring(0, 50)));
+                .doOnNext(c -> log.debug("File content processed [length={}]", c.length()));
     }
 
     private String buildFileContent(String fileContent, String question) {
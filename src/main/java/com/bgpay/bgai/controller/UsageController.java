@@ -1,30 +1,64 @@
 package com.bgpay.bgai.controller;
 
+import com.bgpay.bgai.config.AsyncTimeoutConfig;
+import com.bgpay.bgai.datasource.DS;
+import com.bgpay.bgai.datasource.DataSourceContextHolder;
 import com.bgpay.bgai.entity.BatchRequest;
+import com.bgpay.bgai.entity.UsageQuery;
 import com.bgpay.bgai.entity.UsageRecord;
 import com.bgpay.bgai.mapper.UsageRecordMapper;
+import com.bgpay.bgai.response.CursorPageResponse;
 import com.bgpay.bgai.response.PageResponse;
 import com.bgpay.bgai.service.BillingService;
+import com.bgpay.bgai.service.UsageExportService;
+import com.bgpay.bgai.service.UsageRecordService;
+import com.bgpay.bgai.service.UserSpendService;
+import com.bgpay.bgai.utils.TimeZoneUtils;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/usage")
 @RequiredArgsConstructor
 public class UsageController {
-    private final RocketMQTemplate rocketMQTemplate;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final Duration EXPORT_TIMEOUT = Duration.ofMinutes(30);
+    private static final String EXPORT_ROWS_TRAILER = "X-Export-Rows";
+
+    private final ObjectProvider<RocketMQTemplate> rocketMQTemplate;
     private final BillingService billingService;
     private final UsageRecordMapper recordMapper;
+    private final UserSpendService userSpendService;
+    private final UsageRecordService usageRecordService;
+    private final UsageExportService usageExportService;
 
     @PostMapping("/batch")
     public ResponseEntity<Void> processBatch(@Valid @RequestBody BatchRequest request,String userId) {
@@ -32,7 +66,12 @@ public class UsageController {
         return ResponseEntity.accepted().build();
     }
 
+    /**
+     * @deprecated OFFSET 分页随页码线性变慢，请使用 {@link #queryRecordPage}
+     */
+    @Deprecated
     @GetMapping
+    @DS(DataSourceContextHolder.SLAVE)
     public PageResponse<UsageRecord> queryRecords(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size,
@@ -46,10 +85,113 @@ public class UsageController {
                 pageInfo.getPageSize());
     }
 
+    /**
+     * 游标分页查询计费记录，按计费时间倒序；翻页深度不影响单页耗时。
+     * 时间范围为 [from, to)，withCount 为 true 时额外返回有上限的总数
+     */
+    @GetMapping("/records")
+    public CursorPageResponse<UsageRecord> queryRecordPage(
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) String modelType,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int size,
+            @RequestParam(defaultValue = "false") boolean withCount) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size 取值范围 1-" + MAX_PAGE_SIZE);
+        }
+        try {
+            return usageRecordService.queryPage(new UsageQuery(userId, modelType, from, to), cursor, size, withCount);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "无效的游标", e);
+        }
+    }
+
+    /**
+     * 流式导出 [from, to) 内的计费记录（CSV 或 NDJSON），按计费时间正序；
+     * 边读边写，内存占用与行数无关。gzip 为 true 时输出 .gz 文件。
+     * 导出完整结束时在响应尾部字段 X-Export-Rows 中给出行数，缺少该字段（或 .gz 文件不完整）说明导出中途失败
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportRecords(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) String modelType,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        UsageExportService.Format exportFormat;
+        try {
+            exportFormat = UsageExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "不支持的导出格式: " + format);
+        }
+        if (!from.isBefore(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from 必须早于 to");
+        }
+        UsageQuery query = new UsageQuery(userId, modelType, from, to);
+
+        // 只放宽本接口的异步超时，其余异步请求保持默认
+        request.setAttribute(AsyncTimeoutConfig.TIMEOUT_ATTRIBUTE, EXPORT_TIMEOUT);
+        AtomicLong exportedRows = new AtomicLong(-1);
+        boolean trailer = declareRowCountTrailer(response, exportedRows);
+
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream gzipOut = new GZIPOutputStream(out, 64 * 1024);
+                long rows = usageExportService.export(query, exportFormat, gzipOut);
+                gzipOut.finish();
+                exportedRows.set(rows);
+            } else {
+                exportedRows.set(usageExportService.export(query, exportFormat, out));
+            }
+        };
+        String filename = "usage_" + from.toLocalDate() + "_" + to.toLocalDate() + "." + exportFormat.getExtension()
+                + (gzip ? ".gz" : "");
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(gzip ? "application/gzip" : exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename).build().toString());
+        if (trailer) {
+            builder.header(HttpHeaders.TRAILER, EXPORT_ROWS_TRAILER);
+        }
+        return builder.body(body);
+    }
+
+    /**
+     * 导出成功后才写出行数尾部字段；HTTP/1.0 等不支持尾部字段的连接返回 false
+     */
+    private static boolean declareRowCountTrailer(HttpServletResponse response, AtomicLong exportedRows) {
+        try {
+            response.setTrailerFields(() -> exportedRows.get() < 0 ?
+                    Map.of() : Map.of(EXPORT_ROWS_TRAILER, String.valueOf(exportedRows.get())));
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 用户当日（或指定日期）消费，读取实时计数，无需扫描 usage_record
+     */
+    @GetMapping("/spend")
+    public BigDecimal querySpend(@RequestHeader("X-User-Id") String userId,
+                                 @RequestParam(required = false)
+                                 @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return userSpendService.getDailySpend(userId,
+                date != null ? date : LocalDate.now(TimeZoneUtils.BEIJING_ZONE));
+    }
 
     @GetMapping("/send")
     public String sendMessage() {
-        rocketMQTemplate.convertAndSend("test-topic", "Hello RocketMQ!");
+        RocketMQTemplate template = rocketMQTemplate.getIfAvailable();
+        if (template == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "未配置 RocketMQ");
+        }
+        template.convertAndSend("test-topic", "Hello RocketMQ!");
         return "Message sent!";
     }
 }
\ No newline at end of file
@@ -5,6 +5,9 @@ import java.lang.annotation.*;
 @Target({ElementType.METHOD, ElementType.TYPE})
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
+/**
+ * 指定数据源：master 为主库，slave 为任一健康的只读副本（见 {@link ReplicaRouter}）
+ */
 public @interface DS {
     String value() default "master";
 }
\ No newline at end of file
@@ -1,20 +1,30 @@
 package com.bgpay.bgai.datasource;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.Data;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import reactor.core.scheduler.Schedulers;
 
 import javax.sql.DataSource;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @Configuration
 public class DataSourceConfig {
+    private static final String REACTOR_HOOK_KEY = "dataSourceContext";
 
     @Bean
     @ConfigurationProperties(prefix = "spring.datasource.dynamic.datasource.master")
@@ -24,6 +34,15 @@ public class DataSourceConfig {
         return properties;
     }
 
+    /**
+     * spring.datasource.dynamic.datasource 下以 slave 开头的键（slave_1、slave_2...）为只读副本
+     */
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.dynamic")
+    public DynamicProperties dynamicDataSourceProperties() {
+        return new DynamicProperties();
+    }
+
     @Bean(name = "masterDataSource")
     public DataSource masterDataSource() {
         // 显式验证驱动可用性
@@ -39,14 +58,67 @@ public class DataSourceConfig {
                 .build();
     }
 
+    @Bean(name = "replicaDataSources")
+    public Map<String, DataSource> replicaDataSources() {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        dynamicDataSourceProperties().getDatasource().forEach((key, properties) -> {
+            if (key.startsWith(DataSourceContextHolder.SLAVE)) {
+                replicas.put(key, properties
+                        .initializeDataSourceBuilder()
+                        .type(com.alibaba.druid.pool.DruidDataSource.class)
+                        .build());
+            }
+        });
+        return replicas;
+    }
+
+    @Bean
+    public ReplicaRouter replicaRouter(@Qualifier("replicaDataSources") Map<String, DataSource> replicaDataSources,
+                                       @Value("${spring.datasource.dynamic.validation-timeout-seconds:2}") int validationTimeoutSeconds,
+                                       @Value("${spring.datasource.dynamic.max-lag-seconds:0}") long maxLagSeconds,
+                                       MeterRegistry meterRegistry) {
+        return new ReplicaRouter(replicaDataSources, validationTimeoutSeconds, maxLagSeconds, meterRegistry);
+    }
+
+    /**
+     * 路由数据源外包一层 LazyConnectionDataSourceProxy：只读事务的标记在 doBegin 取连接之后才设置，
+     * 延迟到首条语句再取连接，路由时才能看到 readOnly
+     */
     @Primary
     @Bean(name = "dynamicDataSource")
-    public DataSource dynamicDataSource(@Qualifier("masterDataSource") DataSource masterDataSource) {
-        DynamicDataSource dynamicDataSource = new DynamicDataSource();
-        Map<Object, Object> targetDataSources = new HashMap<>();
-        targetDataSources.put("master", masterDataSource);
+    public DataSource dynamicDataSource(@Qualifier("masterDataSource") DataSource masterDataSource,
+                                        @Qualifier("replicaDataSources") Map<String, DataSource> replicaDataSources,
+                                        ReplicaRouter replicaRouter) {
+        DynamicDataSource dynamicDataSource = new DynamicDataSource(replicaRouter);
+        Map<Object, Object> targetDataSources = new HashMap<>(replicaDataSources);
+        targetDataSources.put(DataSourceContextHolder.MASTER, masterDataSource);
         dynamicDataSource.setTargetDataSources(targetDataSources);
         dynamicDataSource.setDefaultTargetDataSource(masterDataSource);
-        return dynamicDataSource;
+        dynamicDataSource.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(dynamicDataSource);
+    }
+
+    /**
+     * AsyncConfig 的线程池任务沿用提交线程的 @DS 选择
+     */
+    @Bean
+    public TaskDecorator dataSourceContextTaskDecorator() {
+        return DataSourceContextHolder::wrap;
+    }
+
+    // Reactor 调度的任务同样沿用提交线程的 @DS 选择
+    @PostConstruct
+    public void registerReactorHook() {
+        Schedulers.onScheduleHook(REACTOR_HOOK_KEY, DataSourceContextHolder::wrap);
+    }
+
+    @PreDestroy
+    public void resetReactorHook() {
+        Schedulers.resetOnScheduleHook(REACTOR_HOOK_KEY);
+    }
+
+    @Data
+    public static class DynamicProperties {
+        private Map<String, DataSourceProperties> datasource = new LinkedHashMap<>();
     }
-}
\ No newline at end of file
+}
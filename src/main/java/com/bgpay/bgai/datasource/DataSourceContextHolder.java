@@ -1,6 +1,11 @@
 package com.bgpay.bgai.datasource;
 
+import java.util.concurrent.Callable;
+
 public class DataSourceContextHolder {
+    public static final String MASTER = "master";
+    /** 任一健康的只读副本，由 {@link ReplicaRouter} 选择 */
+    public static final String SLAVE = "slave";
 
     private static final ThreadLocal<String> CONTEXT_HOLDER = new ThreadLocal<>();
 
@@ -15,4 +20,44 @@ public class DataSourceContextHolder {
     public static void clearDataSourceKey() {
         CONTEXT_HOLDER.remove();
     }
+
+    /**
+     * 在主库上执行，期间内层的 @DS("slave") 不生效，用于需要读到最新写入的查询
+     */
+    public static <T> T callOnMaster(Callable<T> callable) throws Exception {
+        String previous = CONTEXT_HOLDER.get();
+        CONTEXT_HOLDER.set(MASTER);
+        try {
+            return callable.call();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * 捕获提交线程的数据源键，在执行线程上恢复，任务结束后还原执行线程原有的键
+     */
+    public static Runnable wrap(Runnable task) {
+        String captured = CONTEXT_HOLDER.get();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            String previous = CONTEXT_HOLDER.get();
+            CONTEXT_HOLDER.set(captured);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    static void restore(String previous) {
+        if (previous == null) {
+            CONTEXT_HOLDER.remove();
+        } else {
+            CONTEXT_HOLDER.set(previous);
+        }
+    }
 }
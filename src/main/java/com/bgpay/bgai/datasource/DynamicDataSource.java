@@ -1,11 +1,36 @@
 package com.bgpay.bgai.datasource;
 
 import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+/**
+ * 读写分离路由：
+ * <ul>
+ *     <li>读写事务内一律走主库，避免事务中途切到只读副本；</li>
+ *     <li>@DS("slave") 或只读事务（@Transactional(readOnly = true)）走健康的只读副本，没有可用副本时回落主库；</li>
+ *     <li>其余按 @DS 指定的键，未指定时走默认的主库。</li>
+ * </ul>
+ * 事务的只读标记在获取连接之后才设置，因此需由 LazyConnectionDataSourceProxy 包装，首条语句执行时再路由
+ */
 public class DynamicDataSource extends AbstractRoutingDataSource {
+    private final ReplicaRouter replicaRouter;
+
+    public DynamicDataSource(ReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
+    }
 
     @Override
     protected Object determineCurrentLookupKey() {
-        return DataSourceContextHolder.getDataSourceKey();
+        boolean inTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+        boolean readOnlyTransaction = inTransaction && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        if (inTransaction && !readOnlyTransaction) {
+            return DataSourceContextHolder.MASTER;
+        }
+        String key = DataSourceContextHolder.getDataSourceKey();
+        if (DataSourceContextHolder.SLAVE.equals(key) || key == null && readOnlyTransaction) {
+            String replica = replicaRouter.select();
+            return replica != null ? replica : DataSourceContextHolder.MASTER;
+        }
+        return key;
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,10 @@
 package com.bgpay.bgai.datasource;
 
-import org.aspectj.lang.JoinPoint;
-import org.aspectj.lang.annotation.After;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.aspectj.lang.annotation.Before;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.stereotype.Component;
 
 import java.lang.reflect.Method;
@@ -13,18 +13,29 @@ import java.lang.reflect.Method;
 @Component
 public class DynamicDataSourceAspect {
 
-    @Before("@annotation(DS)")
-    public void beforeSwitchDataSource(JoinPoint point) {
+    /**
+     * 方法上的注解优先于类上的注解；外层已指定主库时内层的 slave 不生效。
+     * 结束后恢复外层的键，嵌套调用不会清掉调用方的选择
+     */
+    @Around("@annotation(com.bgpay.bgai.datasource.DS) || @within(com.bgpay.bgai.datasource.DS)")
+    public Object switchDataSource(ProceedingJoinPoint point) throws Throwable {
         MethodSignature signature = (MethodSignature) point.getSignature();
         Method method = signature.getMethod();
-        DS dsAnnotation = method.getAnnotation(DS.class);
-        if (dsAnnotation != null) {
-            DataSourceContextHolder.setDataSourceKey(dsAnnotation.value());
+        DS dsAnnotation = AnnotationUtils.findAnnotation(method, DS.class);
+        if (dsAnnotation == null) {
+            dsAnnotation = AnnotationUtils.findAnnotation(point.getTarget().getClass(), DS.class);
+        }
+        String previous = DataSourceContextHolder.getDataSourceKey();
+        if (dsAnnotation == null
+                || DataSourceContextHolder.MASTER.equals(previous)
+                && DataSourceContextHolder.SLAVE.equals(dsAnnotation.value())) {
+            return point.proceed();
+        }
+        DataSourceContextHolder.setDataSourceKey(dsAnnotation.value());
+        try {
+            return point.proceed();
+        } finally {
+            DataSourceContextHolder.restore(previous);
         }
     }
-
-    @After("@annotation(DS)")
-    public void afterSwitchDataSource() {
-        DataSourceContextHolder.clearDataSourceKey();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+package com.bgpay.bgai.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the read replica for a read: round robin over the replicas that passed their last health check.
+ * <p>
+ * A replica is healthy when a connection validates within the timeout and, if {@code maxLagSeconds} is
+ * positive, MySQL reports it less than that far behind the primary. Replicas start healthy; a failed
+ * check takes one out of rotation until a later check passes. When none is healthy reads go to the
+ * primary.
+ */
+@Slf4j
+public class ReplicaRouter {
+    private final List<Replica> replicas;
+    private final int validationTimeoutSeconds;
+    private final long maxLagSeconds;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * @param replicas                 Replica data sources by lookup key
+     * @param validationTimeoutSeconds Timeout of one connection validation
+     * @param maxLagSeconds            Replication lag above which a replica is taken out; 0 disables the check
+     */
+    public ReplicaRouter(Map<String, DataSource> replicas, int validationTimeoutSeconds, long maxLagSeconds,
+                         MeterRegistry meterRegistry) {
+        this.replicas = replicas.entrySet().stream()
+                .map(entry -> new Replica(entry.getKey(), entry.getValue()))
+                .toList();
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.maxLagSeconds = maxLagSeconds;
+        for (Replica replica : this.replicas) {
+            Gauge.builder("datasource.replica.healthy", replica, r -> r.healthy ? 1 : 0)
+                    .description("Whether the replica is in the read rotation")
+                    .tag("replica", replica.name)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * @return The lookup key of a healthy replica, or null if there is none
+     */
+    public String select() {
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica.name;
+            }
+        }
+        return null;
+    }
+
+    @Scheduled(fixedDelayString = "${spring.datasource.dynamic.health-check-interval-ms:5000}")
+    public void checkHealth() {
+        for (Replica replica : replicas) {
+            boolean healthy = probe(replica);
+            if (healthy != replica.healthy) {
+                if (healthy) {
+                    log.info("只读副本恢复，重新加入读路由 [replica={}]", replica.name);
+                } else {
+                    log.warn("只读副本不可用，移出读路由 [replica={}]", replica.name);
+                }
+                replica.healthy = healthy;
+            }
+        }
+    }
+
+    private boolean probe(Replica replica) {
+        try (Connection connection = replica.dataSource.getConnection()) {
+            if (!connection.isValid(validationTimeoutSeconds)) {
+                return false;
+            }
+            return maxLagSeconds <= 0 || lagSeconds(connection) <= maxLagSeconds;
+        } catch (Exception e) {
+            log.debug("只读副本健康检查失败 [replica={}]", replica.name, e);
+            return false;
+        }
+    }
+
+    /**
+     * Seconds_Behind_Master of MySQL; a stopped replication thread reports NULL and counts as lagging.
+     */
+    private long lagSeconds(Connection connection) throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(validationTimeoutSeconds);
+            try (ResultSet rs = statement.executeQuery("SHOW SLAVE STATUS")) {
+                if (!rs.next()) {
+                    return 0;
+                }
+                long lag = rs.getLong("Seconds_Behind_Master");
+                return rs.wasNull() ? Long.MAX_VALUE : lag;
+            }
+        }
+    }
+}
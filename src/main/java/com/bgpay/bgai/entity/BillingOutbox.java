@@ -0,0 +1,43 @@
+package com.bgpay.bgai.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * A billing event waiting to be relayed to RocketMQ. Written in the same transaction as the
+ * usage_info row it bills, and deleted once the broker has accepted it.
+ * </p>
+ */
+@Getter
+@Setter
+@Accessors(chain = true)
+@TableName("billing_outbox")
+@ApiModel(value = "BillingOutbox对象", description = "计费消息发件箱")
+public class BillingOutbox {
+
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    @TableField("completion_id")
+    private String completionId;
+
+    @TableField("user_id")
+    private String userId;
+
+    @ApiModelProperty("已编码的计费消息体")
+    @TableField("payload")
+    private byte[] payload;
+
+    @TableField("created_at")
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,59 @@
+package com.bgpay.bgai.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * <p>
+ * Discount window of a model. A window whose end is not after its start wraps past midnight.
+ * Rows without a model type apply to every model until that model's own first row takes effect.
+ * </p>
+ */
+@Getter
+@Setter
+@Accessors(chain = true)
+@TableName("time_period_schedule")
+@ApiModel(value = "TimePeriodSchedule对象", description = "优惠时段配置")
+public class TimePeriodSchedule {
+
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    @ApiModelProperty("模型类型，为空表示默认配置")
+    @TableField("model_type")
+    private String modelType;
+
+    @ApiModelProperty("优惠开始时间（含）")
+    @TableField("discount_start")
+    @JsonFormat(pattern = "HH:mm:ss")
+    private LocalTime discountStart;
+
+    @ApiModelProperty("优惠结束时间（不含）")
+    @TableField("discount_end")
+    @JsonFormat(pattern = "HH:mm:ss")
+    private LocalTime discountEnd;
+
+    @ApiModelProperty("时区")
+    @TableField("zone_id")
+    private String zoneId;
+
+    @ApiModelProperty("版本号")
+    @TableField("version")
+    private Integer version;
+
+    @ApiModelProperty("生效时间")
+    @TableField("effective_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime effectiveTime;
+}
@@ -25,6 +25,9 @@ public class UsageCalculationDTO {
     @Min(0)
     private int completionTokens;
 
+    /**
+     * Usage time in UTC.
+     */
     @PastOrPresent
     private LocalDateTime createdAt;
 }
\ No newline at end of file
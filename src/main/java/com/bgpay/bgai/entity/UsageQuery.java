@@ -0,0 +1,20 @@
+package com.bgpay.bgai.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * usage_record 查询条件，均可为空；时间范围为 [from, to)
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UsageQuery {
+    private String userId;
+    private String modelType;
+    private LocalDateTime from;
+    private LocalDateTime to;
+}
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.annotation.IdType;
 import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import io.swagger.annotations.ApiModel;
@@ -50,4 +51,11 @@ public class UsageRecord {
 
     @TableField("calculated_at")
     private LocalDateTime calculatedAt;
+
+    /**
+     * 用量发生时间（UTC），消费按此归日；不落库
+     */
+    @JsonIgnore
+    @TableField(exist = false)
+    private LocalDateTime usageAt;
 }
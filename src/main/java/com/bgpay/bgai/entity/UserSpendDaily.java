@@ -0,0 +1,50 @@
+package com.bgpay.bgai.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * Daily spend of a user per model, rolled up from the Redis spend counters.
+ * Unique on (user_id, model_type, spend_date).
+ * </p>
+ */
+@Getter
+@Setter
+@Accessors(chain = true)
+@TableName("user_spend_daily")
+@ApiModel(value = "UserSpendDaily对象", description = "用户每日消费汇总")
+public class UserSpendDaily {
+
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    @TableField("user_id")
+    private String userId;
+
+    @ApiModelProperty("模型类型")
+    @TableField("model_type")
+    private String modelType;
+
+    @ApiModelProperty("消费日期（北京时间）")
+    @TableField("spend_date")
+    private LocalDate spendDate;
+
+    @ApiModelProperty("消费金额")
+    @TableField("cost")
+    private BigDecimal cost;
+
+    @TableField("updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,47 @@
+package com.bgpay.bgai.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.bgpay.bgai.entity.BillingOutbox;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ */
+@Mapper
+public interface BillingOutboxMapper extends BaseMapper<BillingOutbox> {
+
+    @Insert("<script>" +
+            "INSERT INTO billing_outbox (completion_id, user_id, payload, created_at) VALUES " +
+            "<foreach collection='rows' item='r' separator=','>" +
+            "(#{r.completionId}, #{r.userId}, #{r.payload}, #{r.createdAt})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("rows") List<BillingOutbox> rows);
+
+    /**
+     * 锁定最早的一批待投递事件，SKIP LOCKED 使多个节点的中继各自领取不同的行
+     * @param limit 批大小
+     * @return 按 id 升序的事件
+     */
+    @Select("SELECT id, completion_id, user_id, payload, created_at FROM billing_outbox " +
+            "ORDER BY id LIMIT #{limit} FOR UPDATE SKIP LOCKED")
+    List<BillingOutbox> lockOldest(@Param("limit") int limit);
+
+    @Delete("<script>" +
+            "DELETE FROM billing_outbox WHERE id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    int deleteByIdList(@Param("ids") Collection<Long> ids);
+
+    @Select("SELECT COUNT(*) FROM billing_outbox")
+    long countPending();
+}
@@ -0,0 +1,24 @@
+package com.bgpay.bgai.mapper;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.bgpay.bgai.entity.TimePeriodSchedule;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ */
+@Mapper
+public interface TimePeriodScheduleMapper extends BaseMapper<TimePeriodSchedule> {
+
+    default List<TimePeriodSchedule> selectAllOrderByEffectiveTime() {
+        LambdaQueryWrapper<TimePeriodSchedule> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.orderByAsc(TimePeriodSchedule::getEffectiveTime)
+                .orderByAsc(TimePeriodSchedule::getVersion);
+        return this.selectList(queryWrapper);
+    }
+}
@@ -1,10 +1,16 @@
 package com.bgpay.bgai.mapper;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.bgpay.bgai.entity.UsageQuery;
 import com.bgpay.bgai.entity.UsageRecord;
+import com.bgpay.bgai.utils.KeysetCursor;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -31,4 +37,52 @@ public interface UsageRecordMapper extends BaseMapper<UsageRecord> {
         queryWrapper.eq(UsageRecord::getModelType, modelType);
         return this.selectList(queryWrapper);
     }
-}
\ No newline at end of file
+
+    default List<String> findExistingCompletionIds(Collection<String> completionIds) {
+        LambdaQueryWrapper<UsageRecord> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.select(UsageRecord::getChatCompletionId)
+                .in(UsageRecord::getChatCompletionId, completionIds);
+        return this.selectObjs(queryWrapper).stream()
+                .map(String::valueOf)
+                .toList();
+    }
+
+    /**
+     * 多行插入，一条语句写入整批计费记录
+     * @param records 计费记录
+     * @return 受影响的行数
+     */
+    @Insert("<script>" +
+            "INSERT INTO usage_record (model_type, chat_completion_id, user_id, input_cost, output_cost, price_version, calculated_at) VALUES " +
+            "<foreach collection='records' item='r' separator=','>" +
+            "(#{r.modelType}, #{r.chatCompletionId}, #{r.userId}, #{r.inputCost}, #{r.outputCost}, #{r.priceVersion}, #{r.calculatedAt})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("records") List<UsageRecord> records);
+
+    /**
+     * 按 (calculated_at DESC, id DESC) 取游标之后的一页，见 UsageRecordMapper.xml
+     * @param query 过滤条件
+     * @param cursor 上一页最后一行，首页为 null
+     * @param limit 最多返回的行数
+     * @return 计费记录
+     */
+    List<UsageRecord> findPage(@Param("query") UsageQuery query,
+                               @Param("cursor") KeysetCursor cursor,
+                               @Param("limit") int limit);
+
+    /**
+     * 满足条件的行数，最多数到 cap 行
+     * @param query 过滤条件
+     * @param cap 计数上限
+     * @return min(实际行数, cap)
+     */
+    long countCapped(@Param("query") UsageQuery query, @Param("cap") int cap);
+
+    /**
+     * 按 (calculated_at, id) 顺序逐行读取满足条件的记录，须在事务内调用并在用完后关闭
+     * @param query 过滤条件
+     * @return 流式游标
+     */
+    Cursor<UsageRecord> exportCursor(@Param("query") UsageQuery query);
+}
@@ -0,0 +1,38 @@
+package com.bgpay.bgai.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.bgpay.bgai.entity.UserSpendDaily;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ */
+@Mapper
+public interface UserSpendDailyMapper extends BaseMapper<UserSpendDaily> {
+
+    /**
+     * 批量写入汇总值。Redis 计数只增不减，取较大值可避免并发汇总时旧快照覆盖新快照
+     * @param rows 汇总行
+     * @return 受影响的行数
+     */
+    @Insert("<script>" +
+            "INSERT INTO user_spend_daily (user_id, model_type, spend_date, cost, updated_at) VALUES " +
+            "<foreach collection='rows' item='r' separator=','>" +
+            "(#{r.userId}, #{r.modelType}, #{r.spendDate}, #{r.cost}, #{r.updatedAt})" +
+            "</foreach>" +
+            " ON DUPLICATE KEY UPDATE cost = GREATEST(cost, VALUES(cost)), updated_at = VALUES(updated_at)" +
+            "</script>")
+    int upsertBatch(@Param("rows") List<UserSpendDaily> rows);
+
+    @Select("SELECT COALESCE(SUM(cost), 0) FROM user_spend_daily WHERE user_id = #{userId} AND spend_date = #{spendDate}")
+    BigDecimal sumByUserAndDate(@Param("userId") String userId, @Param("spendDate") LocalDate spendDate);
+}
@@ -0,0 +1,76 @@
+package com.bgpay.bgai.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单次请求的耗时与费用明细，仅当请求头 {@value #HEADER} 为 true 时创建并随 {@link ChatResponse} 返回。
+ * 其余请求不创建该对象，各记录点判空后直接跳过，不产生额外分配
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChatDiagnostics {
+    public static final String HEADER = "X-Chat-Diagnostics";
+
+    /** 各阶段耗时（毫秒），按完成先后排列；同一阶段多次执行（如上游重试）累加 */
+    private final Map<String, Double> stagesMs = new LinkedHashMap<>();
+
+    /** 每次上游调用的结果，第一条之后的都是重试 */
+    private final List<String> upstreamAttempts = new ArrayList<>();
+
+    private int historyMessagesStored;
+    private int historyMessagesSent;
+    /** 按字符估算的提示词 token 数：历史窗口裁剪前（全部已存历史 + 本次提问）与裁剪后（实际发送） */
+    private int estimatedPromptTokensBeforeWindow;
+    private int estimatedPromptTokensAfterWindow;
+
+    private int priceLookups;
+    /** 由进程内价格表直接命中的次数，其余回落到 Redis 与数据库 */
+    private int priceTableHits;
+    /** 上游上下文缓存命中的提示词 token 数 */
+    private Integer promptCacheHitTokens;
+
+    private BigDecimal inputCost;
+    private BigDecimal outputCost;
+    private BigDecimal totalCost;
+    private Integer priceVersion;
+
+    public synchronized void recordStage(String stage, long nanos) {
+        stagesMs.merge(stage, nanos / 1_000_000.0, Double::sum);
+    }
+
+    public synchronized void recordUpstreamAttempt(String outcome) {
+        upstreamAttempts.add(outcome);
+    }
+
+    public synchronized void recordPriceLookup(boolean tableHit) {
+        priceLookups++;
+        if (tableHit) {
+            priceTableHits++;
+        }
+    }
+
+    public int getUpstreamRetries() {
+        return Math.max(0, upstreamAttempts.size() - 1);
+    }
+
+    /**
+     * 粗略估算 token 数：汉字等宽字符约 0.6 个 token，其余字符约 0.3 个
+     */
+    public static int estimateTokens(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        double tokens = 0;
+        for (int i = 0; i < text.length(); i++) {
+            tokens += text.charAt(i) < 0x2E80 ? 0.3 : 0.6;
+        }
+        return (int) Math.ceil(tokens);
+    }
+}
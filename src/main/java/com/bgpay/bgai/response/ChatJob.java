@@ -0,0 +1,25 @@
+package com.bgpay.bgai.response;
+
+import lombok.Data;
+
+/**
+ * 异步文件分析任务的状态视图，保存在 Redis 中以便任意节点查询
+ */
+@Data
+public class ChatJob {
+    private String jobId;
+    private String userId;
+    private Status status;
+    private ChatResponse response;
+    private String error;
+    private long createdAt;
+    private long updatedAt;
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+}
@@ -2,6 +2,7 @@ package com.bgpay.bgai.response;
 
 import com.alibaba.dashscope.threads.runs.Usage;
 import com.bgpay.bgai.entity.UsageInfo;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 import java.util.UUID;
@@ -10,4 +11,6 @@ import java.util.UUID;
 public final class ChatResponse {
     private String content;
     private UsageInfo usage;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private ChatDiagnostics diagnostics;
 }
\ No newline at end of file
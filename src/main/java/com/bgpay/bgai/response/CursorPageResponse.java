@@ -0,0 +1,24 @@
+package com.bgpay.bgai.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 游标分页结果：nextCursor 原样传回即可取下一页，hasMore 为 false 时没有下一页。
+ * total 仅在请求计数时返回，超过上限时为上限值且 totalCapped 为 true
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CursorPageResponse<T> {
+    private List<T> data;
+    private String nextCursor;
+    private boolean hasMore;
+    private Long total;
+    private Boolean totalCapped;
+}
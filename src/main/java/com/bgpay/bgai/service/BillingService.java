@@ -1,6 +1,8 @@
 package com.bgpay.bgai.service;
 
 import com.bgpay.bgai.entity.UsageCalculationDTO;
+import com.bgpay.bgai.entity.UsageRecord;
+import com.bgpay.bgai.response.ChatDiagnostics;
 import org.apache.rocketmq.common.message.MessageExt;
 
 import java.util.List;
@@ -12,5 +14,15 @@ public interface BillingService {
 
     public void processMessage(MessageExt messageExt);
 
+    public void processMessages(List<MessageExt> messages);
+
+    /**
+     * Prices a usage as billing will, without recording it.
+     *
+     * @param diagnostics Receives the outcome of each price lookup
+     * @return The usage record billing would insert
+     */
+    UsageRecord quote(UsageCalculationDTO dto, String userId, ChatDiagnostics diagnostics);
+
 
 }
@@ -0,0 +1,56 @@
+package com.bgpay.bgai.service;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Idempotency checks shared by the billing consumer and the billing transaction listener.
+ * <p>
+ * Ids are checked against a local cache, then a time-partitioned Bloom filter whose negative answer
+ * means the id is new and ends the check; only probable duplicates go on to the Redis marker key and
+ * the database.
+ */
+public interface DedupService {
+
+    enum Scope {
+        /**
+         * A usage_record row has been written for the completion.
+         */
+        BILLING("billing", "PROCESSED:"),
+        /**
+         * A usage_info row has been written for the completion.
+         */
+        USAGE_INFO("usage_info", "USAGE_SAVED:");
+
+        private final String filterName;
+        private final String keyPrefix;
+
+        Scope(String filterName, String keyPrefix) {
+            this.filterName = filterName;
+            this.keyPrefix = keyPrefix;
+        }
+
+        public String getFilterName() {
+            return filterName;
+        }
+
+        public String getKeyPrefix() {
+            return keyPrefix;
+        }
+    }
+
+    boolean isProcessed(Scope scope, String completionId);
+
+    /**
+     * Like {@link #isProcessed} but never trusts a filter negative: the Redis marker and then the primary
+     * database decide. For callers that act irreversibly on "not processed".
+     */
+    boolean isProcessedConfirmed(Scope scope, String completionId);
+
+    /**
+     * @return The ids among the given ones that have already been processed
+     */
+    Set<String> findProcessed(Scope scope, Collection<String> completionIds);
+
+    void markProcessed(Scope scope, Collection<String> completionIds);
+}
@@ -4,8 +4,20 @@ import com.bgpay.bgai.entity.PriceConfig;
 import com.bgpay.bgai.entity.PriceQuery;
 
 public interface PriceCacheService {
+    /**
+     * Redis channel on which price switches are announced.
+     */
+    String PRICE_TABLE_CHANNEL = "PRICE_TABLE_REFRESH";
+
     PriceConfig getPriceConfig(PriceQuery query);
+
+    /**
+     * Whether {@link #getPriceConfig} would answer the query from the in-process price table.
+     */
+    boolean isInPriceTable(PriceQuery query);
     public void refreshCacheByModel(String modelType);
 
     void clearPriceConfigCache();
+
+    void refreshPriceTable();
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.bgpay.bgai.service;
+
+import com.bgpay.bgai.entity.UsageQuery;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Bulk export of usage_record rows for finance reconciliation.
+ * <p>
+ * Rows are read through a forward-only database cursor and written out as they arrive, in
+ * {@code (calculated_at, id)} order, so memory does not grow with the number of rows exported.
+ */
+public interface UsageExportService {
+
+    enum Format {
+        CSV("text/csv", "csv"),
+        /**
+         * One JSON object per line.
+         */
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Writes every row matching the query to the stream. The stream is flushed but not closed.
+     * If the export fails part way, the failure is logged with the number of rows already written
+     * and rethrown; the stream then holds an incomplete export.
+     * @return Number of rows written
+     */
+    long export(UsageQuery query, Format format, OutputStream out) throws IOException;
+}
@@ -1,9 +1,15 @@
 package com.bgpay.bgai.service;
 
+import com.bgpay.bgai.entity.UsageQuery;
 import com.bgpay.bgai.entity.UsageRecord;
+import com.bgpay.bgai.response.CursorPageResponse;
 import com.baomidou.mybatisplus.extension.service.IService;
 import jakarta.validation.constraints.NotBlank;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
 /**
  * <p>
  *  服务类
@@ -19,5 +25,19 @@ public interface UsageRecordService extends IService<UsageRecord> {
 
     public boolean existsByCompletionId(@NotBlank String chatCompletionId);
 
+    public Set<String> findExistingCompletionIds(Collection<String> completionIds);
+
+    public void insertUsageRecords(List<UsageRecord> usageRecords);
+
+    /**
+     * 游标分页查询，按计费时间倒序
+     * @param query 过滤条件
+     * @param cursor 上一页返回的 nextCursor，首页为 null
+     * @param size 每页行数
+     * @param withCount 是否返回（有上限的）总数
+     * @throws IllegalArgumentException 游标无法解析
+     */
+    public CursorPageResponse<UsageRecord> queryPage(UsageQuery query, String cursor, int size, boolean withCount);
+
 
 }
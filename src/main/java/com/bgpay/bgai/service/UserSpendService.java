@@ -0,0 +1,33 @@
+package com.bgpay.bgai.service;
+
+import com.bgpay.bgai.entity.UsageRecord;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Running spend per user, kept in Redis counters and rolled up to user_spend_daily.
+ */
+public interface UserSpendService {
+    String QUOTA_EXCEEDED_MESSAGE = "今日消费已达额度上限";
+
+    /**
+     * Adds newly billed records to the spend counters of the day each usage happened.
+     */
+    void recordSpend(Collection<UsageRecord> records);
+
+    /**
+     * O(1) check against the user's daily quota, done before calling the upstream model.
+     *
+     * @return true if the user may still spend today
+     */
+    boolean hasRemainingQuota(String userId);
+
+    BigDecimal getDailySpend(String userId, LocalDate date);
+
+    /**
+     * @param dailyLimit The daily limit, or null to fall back to the default
+     */
+    void setDailyQuota(String userId, BigDecimal dailyLimit);
+}
@@ -0,0 +1,291 @@
+package com.bgpay.bgai.service.deepseek;
+
+import com.bgpay.bgai.entity.ApiConfig;
+import com.bgpay.bgai.response.ChatJob;
+import com.bgpay.bgai.response.ChatResponse;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs heavy file analyses off the request thread. A job is staged on a bounded executor,
+ * its state is kept in a Redis hash so that any node can answer status calls, and every
+ * state change is broadcast over Redis pub/sub to the node holding the client's SSE stream.
+ */
+@Slf4j
+@Service
+public class ChatJobService {
+    private static final String JOB_KEY_PREFIX = "CHAT_JOB:";
+    private static final String JOB_EVENT_CHANNEL = "CHAT_JOB_EVENTS";
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Value("${chat.job.ttl-minutes:60}")
+    private long jobTtlMinutes;
+
+    @Value("${chat.job.sse-timeout-ms:600000}")
+    private long sseTimeoutMs;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ThreadPoolTaskExecutor chatJobExecutor;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final FileProcessor fileProcessor;
+    private final DeepSeekService deepSeekService;
+    private final MeterRegistry meterRegistry;
+
+    // 本节点持有的 SSE 连接，按任务ID分组
+    private final Map<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    public ChatJobService(RedisTemplate<String, String> redisTemplate,
+                          @Qualifier("chatJobExecutor") ThreadPoolTaskExecutor chatJobExecutor,
+                          RedisMessageListenerContainer listenerContainer,
+                          FileProcessor fileProcessor,
+                          DeepSeekService deepSeekService,
+                          MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.chatJobExecutor = chatJobExecutor;
+        this.listenerContainer = listenerContainer;
+        this.fileProcessor = fileProcessor;
+        this.deepSeekService = deepSeekService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("chat.job.queue.depth", chatJobExecutor,
+                        executor -> executor.getThreadPoolExecutor().getQueue().size())
+                .description("Chat jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("chat.job.active", chatJobExecutor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Chat jobs currently running")
+                .register(meterRegistry);
+
+        listenerContainer.addMessageListener(
+                (message, pattern) -> onJobEvent(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(JOB_EVENT_CHANNEL));
+    }
+
+    /**
+     * Registers a job and hands it to the bounded worker pool.
+     *
+     * @param userId      The requesting user
+     * @param apiConfig   The resolved upstream configuration
+     * @param question    The user's question
+     * @param multiTurn   Whether to use conversation history
+     * @param stagedFile  The staged upload, or null for text-only jobs
+     * @param contentType The declared content type of the upload
+     * @return The queued job
+     * @throws TaskRejectedException if the work queue is full
+     */
+    public ChatJob submit(String userId,
+                          ApiConfig apiConfig,
+                          String question,
+                          boolean multiTurn,
+                          File stagedFile,
+                          String contentType) {
+        long now = System.currentTimeMillis();
+        ChatJob job = new ChatJob();
+        job.setJobId(UUID.randomUUID().toString());
+        job.setUserId(userId);
+        job.setStatus(ChatJob.Status.QUEUED);
+        job.setCreatedAt(now);
+        job.setUpdatedAt(now);
+        save(job);
+
+        try {
+            chatJobExecutor.execute(() -> runJob(job, apiConfig, question, multiTurn, stagedFile, contentType));
+        } catch (TaskRejectedException e) {
+            redisTemplate.delete(jobKey(job.getJobId()));
+            deleteQuietly(stagedFile);
+            meterRegistry.counter("chat.job.rejected").increment();
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * Loads a job from Redis.
+     *
+     * @param jobId The job ID
+     * @return The job, or null if it does not exist or has expired
+     */
+    public ChatJob find(String jobId) {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(jobKey(jobId));
+        if (fields.isEmpty()) {
+            return null;
+        }
+
+        ChatJob job = new ChatJob();
+        job.setJobId(jobId);
+        job.setUserId((String) fields.get("userId"));
+        job.setStatus(ChatJob.Status.valueOf((String) fields.get("status")));
+        job.setError((String) fields.get("error"));
+        job.setCreatedAt(Long.parseLong((String) fields.get("createdAt")));
+        job.setUpdatedAt(Long.parseLong((String) fields.get("updatedAt")));
+        String response = (String) fields.get("response");
+        if (response != null) {
+            try {
+                job.setResponse(mapper.readValue(response, ChatResponse.class));
+            } catch (IOException e) {
+                log.error("任务结果反序列化失败 [jobId={}]", jobId, e);
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Opens an SSE stream that pushes every state change of the job until it finishes.
+     *
+     * @param job The job to follow
+     * @return The emitter bound to the current request
+     */
+    public SseEmitter subscribe(ChatJob job) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        String jobId = job.getJobId();
+        if (job.isFinished()) {
+            push(emitter, job);
+            return emitter;
+        }
+
+        emitters.computeIfAbsent(jobId, k -> new CopyOnWriteArrayList<>()).add(emitter);
+        Runnable cleanup = () -> removeEmitter(jobId, emitter);
+        emitter.onCompletion(cleanup);
+        emitter.onTimeout(cleanup);
+        emitter.onError(e -> cleanup.run());
+
+        // 注册后重新读取一次，避免注册前的状态变更被错过
+        ChatJob latest = find(jobId);
+        push(emitter, latest != null ? latest : job);
+        return emitter;
+    }
+
+    private void runJob(ChatJob job,
+                        ApiConfig apiConfig,
+                        String question,
+                        boolean multiTurn,
+                        File stagedFile,
+                        String contentType) {
+        job.setStatus(ChatJob.Status.RUNNING);
+        save(job);
+        try {
+            String content = stagedFile == null
+                    ? "【用户提问】" + question
+                    : "【文件内容】\n" + fileProcessor.processStagedFile(stagedFile, contentType)
+                    + "\n\n【用户提问】" + question;
+
+            ChatResponse response = deepSeekService.processRequest(
+                    content,
+                    apiConfig.getApiUrl(),
+                    apiConfig.getApiKey(),
+                    apiConfig.getModelName(),
+                    job.getUserId(),
+                    multiTurn
+            );
+            job.setResponse(response);
+            job.setStatus(ChatJob.Status.SUCCEEDED);
+        } catch (Exception e) {
+            log.error("异步任务执行失败 [jobId={}]", job.getJobId(), e);
+            job.setError(e.getMessage());
+            job.setStatus(ChatJob.Status.FAILED);
+        }
+        save(job);
+    }
+
+    private void save(ChatJob job) {
+        job.setUpdatedAt(System.currentTimeMillis());
+        Map<String, String> fields = new HashMap<>();
+        fields.put("userId", job.getUserId());
+        fields.put("status", job.getStatus().name());
+        fields.put("createdAt", String.valueOf(job.getCreatedAt()));
+        fields.put("updatedAt", String.valueOf(job.getUpdatedAt()));
+        if (job.getError() != null) {
+            fields.put("error", job.getError());
+        }
+        if (job.getResponse() != null) {
+            try {
+                fields.put("response", mapper.writeValueAsString(job.getResponse()));
+            } catch (IOException e) {
+                log.error("任务结果序列化失败 [jobId={}]", job.getJobId(), e);
+            }
+        }
+
+        String key = jobKey(job.getJobId());
+        redisTemplate.opsForHash().putAll(key, fields);
+        redisTemplate.expire(key, jobTtlMinutes, TimeUnit.MINUTES);
+        redisTemplate.convertAndSend(JOB_EVENT_CHANNEL, job.getJobId());
+    }
+
+    private void onJobEvent(String jobId) {
+        List<SseEmitter> subscribers = emitters.get(jobId);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+        ChatJob job = find(jobId);
+        if (job == null) {
+            return;
+        }
+        subscribers.forEach(emitter -> push(emitter, job));
+    }
+
+    private void push(SseEmitter emitter, ChatJob job) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name(job.getStatus().name())
+                    .data(job));
+            if (job.isFinished()) {
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("SSE推送失败 [jobId={}]", job.getJobId(), e);
+            emitter.completeWithError(e);
+        }
+    }
+
+    private void removeEmitter(String jobId, SseEmitter emitter) {
+        emitters.computeIfPresent(jobId, (k, list) -> {
+            list.remove(emitter);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    private void deleteQuietly(File file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            log.warn("临时文件删除失败: {}", file, e);
+        }
+    }
+
+    private static String jobKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId;
+    }
+}
@@ -0,0 +1,277 @@
+package com.bgpay.bgai.service.deepseek;
+
+import com.bgpay.bgai.response.ChatDiagnostics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Stage timers of the chat pipeline, published as one {@code chat.stage} timer with percentile
+ * histograms and the tags {@code stage}, {@code model}, {@code host}, {@code file_type} and
+ * {@code outcome}. Every timer carries all five tags ({@value #NONE} where a tag does not apply), as
+ * Prometheus requires one label set per metric name.
+ * <p>
+ * Model and host come from request parameters, so their values are normalized and capped at
+ * {@value #MAX_TAG_VALUES} distinct values each; later values are reported as {@value #OTHER}.
+ * File types are folded into a fixed set.
+ * <p>
+ * When a {@link Tracer} is present each stage is also a span named {@code chat.<stage>}, a child of the
+ * span current where the stage starts, carrying the same tags. Stages started with a
+ * {@link ChatDiagnostics} also report their duration to it.
+ */
+@Component
+public class ChatMetrics {
+    public static final String STAGE_CONFIG_RESOLVE = "config.resolve";
+    public static final String STAGE_FILE_VALIDATE = "file.validate";
+    /** Includes the magic-byte check of the staged file. */
+    public static final String STAGE_FILE_EXTRACT = "file.extract";
+    public static final String STAGE_HISTORY = "history.assemble";
+    public static final String STAGE_REQUEST_BUILD = "request.build";
+    /** Until the response headers arrive, per attempt. */
+    public static final String STAGE_UPSTREAM_TTFB = "upstream.ttfb";
+    /** Until the response body has been read, per attempt. */
+    public static final String STAGE_UPSTREAM_TOTAL = "upstream.total";
+    public static final String STAGE_PARSE = "parse";
+    /** Hand-off to the write-behind buffer; the flush itself is {@code writebehind.flush}. */
+    public static final String STAGE_PERSIST = "persist";
+    /** From the chat-log send to the broker's callback. */
+    public static final String STAGE_MQ_SEND = "mq.send";
+    public static final String STAGE_BILLING_PUBLISH = "billing.publish";
+    /** One message billed on its own. */
+    public static final String STAGE_BILLING_CONSUME = "billing.consume";
+    /** One batch of messages billed together; divide by the batch size for a per-message figure. */
+    public static final String STAGE_BILLING_CONSUME_BATCH = "billing.consume.batch";
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_TIMEOUT = "timeout";
+    public static final String NONE = "none";
+    public static final String OTHER = "other";
+
+    private static final String METRIC_NAME = "chat.stage";
+    private static final int MAX_TAG_VALUES = 32;
+    private static final Pattern TAG_VALUE = Pattern.compile("[a-z0-9._:-]{1,64}");
+
+    private final MeterRegistry meterRegistry;
+    private Tracer tracer = Tracer.NOOP;
+    private final Set<String> models = ConcurrentHashMap.newKeySet();
+    private final Set<String> hosts = ConcurrentHashMap.newKeySet();
+
+    public ChatMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Autowired(required = false)
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @FunctionalInterface
+    public interface StageCall<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * A started stage: its timer sample, its span and the diagnostics it reports to, if any.
+     */
+    public static final class Stage {
+        private final String name;
+        private final Timer.Sample sample;
+        private final Span span;
+        private final ChatDiagnostics diagnostics;
+        private final long startNanos;
+
+        private Stage(String name, Timer.Sample sample, Span span, ChatDiagnostics diagnostics) {
+            this.name = name;
+            this.sample = sample;
+            this.span = span;
+            this.diagnostics = diagnostics;
+            this.startNanos = diagnostics == null ? 0 : System.nanoTime();
+        }
+
+        public Span span() {
+            return span;
+        }
+    }
+
+    public Stage start(String stage) {
+        return start(stage, null);
+    }
+
+    /**
+     * @param diagnostics Receives the stage's duration when it stops; null on ordinary requests
+     */
+    public Stage start(String stage, ChatDiagnostics diagnostics) {
+        return new Stage(stage, Timer.start(meterRegistry), tracer.nextSpan().name("chat." + stage).start(),
+                diagnostics);
+    }
+
+    public void stop(Stage stage, String model, String host, String fileType, String outcome) {
+        stage.span.tag("model", model == null ? NONE : model)
+                .tag("host", host == null ? NONE : host)
+                .tag("file_type", fileType == null ? NONE : fileType)
+                .tag("outcome", outcome)
+                .end();
+        stage.sample.stop(timer(stage.name, model, host, fileType, outcome));
+        if (stage.diagnostics != null) {
+            stage.diagnostics.recordStage(stage.name, System.nanoTime() - stage.startNanos);
+        }
+    }
+
+    public void stop(Stage stage, String model, String outcome) {
+        stop(stage, model, NONE, NONE, outcome);
+    }
+
+    /**
+     * Makes the stage's span current on this thread until the scope is closed, so that spans and
+     * outgoing messages started inside it become its children.
+     */
+    public Tracer.SpanInScope inScope(Stage stage) {
+        return tracer.withSpan(stage.span);
+    }
+
+    /**
+     * Times a call, tagging it {@value #OUTCOME_SUCCESS} or, if it throws, {@value #OUTCOME_ERROR}.
+     */
+    public <T> T time(String stage, String model, String fileType, StageCall<T> call) throws Exception {
+        return time(stage, model, fileType, (ChatDiagnostics) null, call);
+    }
+
+    public <T> T time(String stage, String model, String fileType, ChatDiagnostics diagnostics,
+                      StageCall<T> call) throws Exception {
+        Stage started = start(stage, diagnostics);
+        String outcome = OUTCOME_ERROR;
+        try (Tracer.SpanInScope ignored = inScope(started)) {
+            T result = call.call();
+            outcome = OUTCOME_SUCCESS;
+            return result;
+        } catch (Exception e) {
+            started.span.error(e);
+            throw e;
+        } finally {
+            stop(started, model, NONE, fileType, outcome);
+        }
+    }
+
+    public <T> T time(String stage, String model, StageCall<T> call) throws Exception {
+        return time(stage, model, NONE, (ChatDiagnostics) null, call);
+    }
+
+    public <T> T time(String stage, String model, ChatDiagnostics diagnostics, StageCall<T> call) throws Exception {
+        return time(stage, model, NONE, diagnostics, call);
+    }
+
+    /**
+     * Times each subscription to a Mono. Errors that are, or are caused by, a {@link TimeoutException}
+     * are tagged {@value #OUTCOME_TIMEOUT}.
+     */
+    public <T> Mono<T> time(String stage, String model, String host, String fileType, Mono<T> mono) {
+        return Mono.defer(() -> {
+            Stage started = start(stage);
+            return mono
+                    .doOnSuccess(value -> stop(started, model, host, fileType, OUTCOME_SUCCESS))
+                    .doOnError(e -> {
+                        started.span.error(e);
+                        stop(started, model, host, fileType,
+                                e instanceof TimeoutException || e.getCause() instanceof TimeoutException
+                                        ? OUTCOME_TIMEOUT : OUTCOME_ERROR);
+                    });
+        });
+    }
+
+    /**
+     * The host of an upstream URL, for the {@code host} tag.
+     */
+    public static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? OTHER : host;
+        } catch (IllegalArgumentException e) {
+            return OTHER;
+        }
+    }
+
+    /**
+     * Folds a declared content type into the {@code file_type} tag values.
+     */
+    public static String fileTypeOf(String contentType) {
+        if (contentType == null || contentType.isBlank()) {
+            return NONE;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return switch (type) {
+            case "application/pdf" -> "pdf";
+            case "application/vnd.openxmlformats-officedocument.wordprocessingml.document" -> "docx";
+            case "application/vnd.ms-excel" -> "xls";
+            case "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet" -> "xlsx";
+            case "application/vnd.ms-powerpoint" -> "ppt";
+            case "application/vnd.openxmlformats-officedocument.presentationml.presentation" -> "pptx";
+            default -> type.startsWith("image/") ? "image"
+                    : type.startsWith("video/") ? "video"
+                    : type.startsWith("text/") || type.startsWith("application/") ? "text"
+                    : OTHER;
+        };
+    }
+
+    /**
+     * Outcome tag of an upstream HTTP status.
+     */
+    public static String outcomeOf(int statusCode) {
+        if (statusCode == 429) {
+            return "rate_limited";
+        }
+        return switch (statusCode / 100) {
+            case 2 -> OUTCOME_SUCCESS;
+            case 4 -> "client_error";
+            case 5 -> "server_error";
+            default -> OUTCOME_ERROR;
+        };
+    }
+
+    private Timer timer(String stage, String model, String host, String fileType, String outcome) {
+        return Timer.builder(METRIC_NAME)
+                .description("Latency of one chat pipeline stage")
+                .tags(Tags.of(
+                        "stage", stage,
+                        "model", bounded(models, model),
+                        "host", bounded(hosts, host),
+                        "file_type", fileType == null ? NONE : fileType,
+                        "outcome", outcome))
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(3))
+                .register(meterRegistry);
+    }
+
+    private static String bounded(Set<String> seen, String value) {
+        if (value == null || value.isBlank()) {
+            return NONE;
+        }
+        String normalized = value.trim().toLowerCase(Locale.ROOT);
+        if (!TAG_VALUE.matcher(normalized).matches()) {
+            return OTHER;
+        }
+        if (seen.contains(normalized)) {
+            return normalized;
+        }
+        // 超出上限的新取值一律归为 other，防止标签基数失控
+        if (seen.size() >= MAX_TAG_VALUES) {
+            return OTHER;
+        }
+        seen.add(normalized);
+        return normalized;
+    }
+}
@@ -0,0 +1,511 @@
+package com.bgpay.bgai.service.deepseek;
+
+import com.bgpay.bgai.entity.BillingOutbox;
+import com.bgpay.bgai.entity.ChatCompletions;
+import com.bgpay.bgai.entity.UsageInfo;
+import com.bgpay.bgai.mapper.BillingOutboxMapper;
+import com.bgpay.bgai.service.ChatCompletionsService;
+import com.bgpay.bgai.service.DedupService;
+import com.bgpay.bgai.service.UsageInfoService;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLDataException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind buffer for chat_completions and usage_info rows, plus the billing_outbox event of the chat
+ * in outbox mode so that the event commits or rolls back together with its usage_info row.
+ * <p>
+ * Rows are queued per chat and flushed by a single thread with MyBatis-Plus {@code saveBatch}
+ * once the batch is full or the flush interval has elapsed. A full queue pushes back on the
+ * caller and falls back to a direct insert. Batches that cannot be written, and anything still
+ * queued at shutdown, are spilled to NDJSON files that are replayed on startup, as soon as a flush
+ * succeeds again after a failure, and periodically. Spilled rows the database rejects are dead-lettered
+ * rather than replayed again.
+ * <p>
+ * Completion ids stay {@link #isPending pending} from enqueue until their usage_info row is written or
+ * dead-lettered, so the billing transaction check-back can wait for a spilled row instead of rolling back.
+ */
+@Slf4j
+@Service
+public class CompletionWriteBuffer {
+    private static final String SPILL_PREFIX = "completions-";
+    private static final String SPILL_SUFFIX = ".ndjson";
+    private static final String REPLAYING_SUFFIX = SPILL_SUFFIX + ".replaying";
+    private static final String DEAD_LETTER_PREFIX = "deadletter-";
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Value("${persistence.write-behind.batch-size:200}")
+    private int batchSize;
+
+    @Value("${persistence.write-behind.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    @Value("${persistence.write-behind.queue-capacity:50000}")
+    private int queueCapacity;
+
+    @Value("${persistence.write-behind.offer-timeout-ms:50}")
+    private long offerTimeoutMs;
+
+    @Value("${persistence.write-behind.spill-path:/var/data/bgai/spill}")
+    private String spillPath;
+
+    private final ChatCompletionsService chatCompletionsService;
+    private final UsageInfoService usageInfoService;
+    private final DedupService dedupService;
+    private final BillingOutboxMapper billingOutboxMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private Tracer tracer = Tracer.NOOP;
+
+    private BlockingQueue<PendingWrite> queue;
+    private Timer flushTimer;
+    private volatile boolean running;
+    private Thread flusher;
+    private final Object replayLock = new Object();
+    private final Set<String> pendingIds = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean spillPending = new AtomicBoolean();
+    private final ExecutorService replayExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "WriteBehind-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CompletionWriteBuffer(ChatCompletionsService chatCompletionsService,
+                                 UsageInfoService usageInfoService,
+                                 DedupService dedupService,
+                                 BillingOutboxMapper billingOutboxMapper,
+                                 PlatformTransactionManager transactionManager,
+                                 MeterRegistry meterRegistry) {
+        this.chatCompletionsService = chatCompletionsService;
+        this.usageInfoService = usageInfoService;
+        this.dedupService = dedupService;
+        this.billingOutboxMapper = billingOutboxMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Autowired(required = false)
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        flushTimer = Timer.builder("writebehind.flush")
+                .description("Time to write one batch of completions")
+                .register(meterRegistry);
+        Gauge.builder("writebehind.queue.depth", queue, BlockingQueue::size)
+                .description("Completions waiting to be written")
+                .register(meterRegistry);
+        Gauge.builder("writebehind.queue.utilization", queue,
+                        q -> (double) q.size() / queueCapacity)
+                .register(meterRegistry);
+
+        replaySpill();
+
+        running = true;
+        flusher = new Thread(this::runLoop, "WriteBehind-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        replayExecutor.shutdownNow();
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingWrite> remaining = new ArrayList<>(queue.size());
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            spill(remaining);
+            log.info("Spilled {} pending completions on shutdown", remaining.size());
+        }
+    }
+
+    /**
+     * Queues one chat's rows. Blocks for at most the offer timeout when the queue is full,
+     * then writes them directly on the calling thread.
+     *
+     * @param completion The chat_completions row
+     * @param usage      The usage_info row
+     */
+    public void enqueue(ChatCompletions completion, UsageInfo usage) {
+        enqueue(completion, usage, null);
+    }
+
+    /**
+     * Queues one chat's rows together with its billing event.
+     *
+     * @param completion The chat_completions row
+     * @param usage      The usage_info row
+     * @param outbox     The billing_outbox row, or null when the chat is billed directly
+     */
+    public void enqueue(ChatCompletions completion, UsageInfo usage, BillingOutbox outbox) {
+        PendingWrite write = new PendingWrite(completion, usage, outbox);
+        addPending(write);
+        try {
+            if (queue.offer(write, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        meterRegistry.counter("writebehind.backpressure").increment();
+        writeBatch(List.of(write));
+    }
+
+    /**
+     * Whether the chat's rows are still queued or spilled, i.e. its usage_info row may yet be written.
+     *
+     * @param chatCompletionId The chat completion id
+     */
+    public boolean isPending(String chatCompletionId) {
+        return pendingIds.contains(chatCompletionId);
+    }
+
+    /**
+     * Replays spilled batches. Files are claimed by renaming them to {@code .replaying} first; a claimed
+     * file is deleted only once all of its rows are written or dead-lettered, so a crash mid-replay leaves
+     * it to be picked up by the next replay. Lines that do not parse and rows the database rejects on
+     * their own go to a {@code deadletter-*} file in the spill directory instead of being retried forever.
+     */
+    @Scheduled(fixedDelayString = "${persistence.write-behind.replay-interval-ms:300000}",
+            initialDelayString = "${persistence.write-behind.replay-interval-ms:300000}")
+    public void replaySpill() {
+        Path dir = Paths.get(spillPath);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        synchronized (replayLock) {
+            // 先列出文件再处理，本轮重放中延后写回的文件留到下一轮
+            List<Path> resumed = list(dir, SPILL_PREFIX + "*" + REPLAYING_SUFFIX);
+            List<Path> spilled = list(dir, SPILL_PREFIX + "*" + SPILL_SUFFIX);
+            // 上次中断留下的 .replaying 文件接着处理
+            resumed.forEach(this::replayFile);
+            for (Path file : spilled) {
+                Path claimed = file.resolveSibling(file.getFileName() + ".replaying");
+                try {
+                    Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    log.error("Spill claim failed [file={}]", file.getFileName(), e);
+                    continue;
+                }
+                replayFile(claimed);
+            }
+        }
+    }
+
+    private static List<Path> list(Path dir, String glob) {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, glob)) {
+            files.forEach(paths::add);
+        } catch (IOException e) {
+            log.error("Spill listing failed [dir={}]", dir, e);
+        }
+        return paths;
+    }
+
+    private void replayFile(Path claimed) {
+        try {
+            replayClaimed(claimed);
+        } catch (IOException e) {
+            // 文件保留为 .replaying，下次重放继续处理
+            log.error("Spill replay failed [file={}]", claimed.getFileName(), e);
+        }
+    }
+
+    private void replayClaimed(Path claimed) throws IOException {
+        List<PendingWrite> rows = new ArrayList<>();
+        List<String> deadLetters = new ArrayList<>();
+        for (String line : Files.readAllLines(claimed, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                rows.add(mapper.readValue(line, PendingWrite.class));
+            } catch (IOException e) {
+                log.warn("Malformed spill line dead-lettered [file={}]", claimed.getFileName(), e);
+                deadLetters.add(line);
+            }
+        }
+        int malformed = deadLetters.size();
+
+        List<PendingWrite> unwritten = new ArrayList<>();
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            List<PendingWrite> chunk = rows.subList(from, Math.min(from + batchSize, rows.size()));
+            if (tryWrite(chunk) == null) {
+                continue;
+            }
+            // 整批失败时逐行写入，找出被数据库拒绝的行
+            for (int i = 0; i < chunk.size(); i++) {
+                Exception failure = tryWrite(List.of(chunk.get(i)));
+                if (failure == null) {
+                    continue;
+                }
+                if (isRejected(failure)) {
+                    deadLetters.add(mapper.writeValueAsString(chunk.get(i)));
+                    removePending(List.of(chunk.get(i)));
+                } else {
+                    // 数据库不可用：剩余行留待下次重放
+                    unwritten.addAll(chunk.subList(i, chunk.size()));
+                    unwritten.addAll(rows.subList(from + chunk.size(), rows.size()));
+                    break;
+                }
+            }
+            if (!unwritten.isEmpty()) {
+                break;
+            }
+        }
+
+        if (!deadLetters.isEmpty() && !deadLetter(deadLetters)) {
+            return;
+        }
+        if (!unwritten.isEmpty() && !spill(unwritten)) {
+            return;
+        }
+        Files.delete(claimed);
+        int rejected = deadLetters.size() - malformed;
+        log.info("Replayed spilled completions from {} [written={}, malformed={}, rejected={}, deferred={}]",
+                claimed.getFileName(), rows.size() - rejected - unwritten.size(), malformed, rejected,
+                unwritten.size());
+    }
+
+    /**
+     * Whether the database rejected the rows themselves (constraint or data error) rather than being
+     * unavailable; MyBatis-Plus batch writes may wrap the SQL exception, so the cause chain is searched.
+     */
+    private static boolean isRejected(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof DataIntegrityViolationException
+                    || t instanceof SQLIntegrityConstraintViolationException
+                    || t instanceof SQLDataException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void runLoop() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingWrite first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // 关闭时由destroy负责落盘，当前批次放回队列
+                queue.addAll(batch);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        Exception failure = tryWrite(batch);
+        if (failure != null) {
+            log.error("Batch write failed, spilling {} completions", batch.size(), failure);
+            spill(batch);
+        } else if (spillPending.compareAndSet(true, false)) {
+            // 数据库已恢复：立即重放落盘数据，不等定时重放，以免事务回查等待过久
+            try {
+                replayExecutor.execute(this::replaySpill);
+            } catch (RuntimeException e) {
+                log.warn("Spill replay not scheduled", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the rows in one transaction and marks them saved.
+     * @return The failure, or null if the rows were written
+     */
+    private Exception tryWrite(List<PendingWrite> batch) {
+        List<ChatCompletions> completions = new ArrayList<>(batch.size());
+        List<UsageInfo> usages = new ArrayList<>(batch.size());
+        List<BillingOutbox> outbox = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            completions.add(write.getCompletion());
+            usages.add(write.getUsage());
+            if (write.getOutbox() != null) {
+                outbox.add(write.getOutbox());
+            }
+        }
+
+        // 一批混合了多个请求，刷盘 span 单独成链，不挂在任何请求下
+        Span span = tracer.spanBuilder()
+                .setNoParent()
+                .name("writebehind.flush")
+                .tag("db.rows", String.valueOf(batch.size()))
+                .start();
+        try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+            flushTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+                chatCompletionsService.saveBatch(completions, batchSize);
+                usageInfoService.saveBatch(usages, batchSize);
+                if (!outbox.isEmpty()) {
+                    billingOutboxMapper.insertBatch(outbox);
+                }
+            }));
+            meterRegistry.counter("writebehind.flushed").increment(batch.size());
+        } catch (Exception e) {
+            span.error(e);
+            return e;
+        } finally {
+            span.end();
+        }
+        try {
+            // 事务回查据此判断 usage_info 是否已落库
+            dedupService.markProcessed(DedupService.Scope.USAGE_INFO,
+                    usages.stream().map(UsageInfo::getChatCompletionId).toList());
+        } catch (Exception e) {
+            log.warn("Failed to mark {} usage rows as saved", usages.size(), e);
+        }
+        removePending(batch);
+        return null;
+    }
+
+    /**
+     * @return false if the rows could not be written to disk and are lost
+     */
+    private boolean spill(List<PendingWrite> batch) {
+        List<String> lines = new ArrayList<>(batch.size());
+        try {
+            for (PendingWrite write : batch) {
+                lines.add(mapper.writeValueAsString(write));
+            }
+        } catch (IOException e) {
+            log.error("Spill failed, {} completions lost", batch.size(), e);
+            removePending(batch);
+            meterRegistry.counter("writebehind.lost").increment(batch.size());
+            return false;
+        }
+        if (writeSpillFile(SPILL_PREFIX, lines)) {
+            // 重启后重放失败再次落盘的行在此重新登记为待写入
+            batch.forEach(this::addPending);
+            spillPending.set(true);
+            meterRegistry.counter("writebehind.spilled").increment(batch.size());
+            return true;
+        }
+        removePending(batch);
+        meterRegistry.counter("writebehind.lost").increment(batch.size());
+        return false;
+    }
+
+    private void addPending(PendingWrite write) {
+        if (write.getUsage() != null && write.getUsage().getChatCompletionId() != null) {
+            pendingIds.add(write.getUsage().getChatCompletionId());
+        }
+    }
+
+    private void removePending(List<PendingWrite> batch) {
+        for (PendingWrite write : batch) {
+            if (write.getUsage() != null && write.getUsage().getChatCompletionId() != null) {
+                pendingIds.remove(write.getUsage().getChatCompletionId());
+            }
+        }
+    }
+
+    // 死信文件不会被重放，需人工处理
+    private boolean deadLetter(List<String> lines) {
+        if (writeSpillFile(DEAD_LETTER_PREFIX, lines)) {
+            meterRegistry.counter("writebehind.deadlettered").increment(lines.size());
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized boolean writeSpillFile(String prefix, List<String> lines) {
+        Path dir = Paths.get(spillPath);
+        Path file = dir.resolve(prefix + System.nanoTime() + SPILL_SUFFIX);
+        Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(dir);
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+            // 写完再改名，重放时不会读到半个文件
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            log.error("Spill failed, {} lines lost [file={}]", lines.size(), file, e);
+            return false;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PendingWrite {
+        private ChatCompletions completion;
+        private UsageInfo usage;
+        // 旧版本落盘的文件没有该字段，反序列化为 null
+        private BillingOutbox outbox;
+    }
+}
@@ -5,6 +5,7 @@ import com.google.common.cache.CacheBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -53,6 +54,14 @@ public class ConversationHistoryService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 已保存的全部历史（含已过期、尚未清理的记录），只读
+     */
+    public List<Map<String, Object>> getStoredHistory(String userId) {
+        List<Map<String, Object>> history = historyCache.getIfPresent(userId);
+        return history == null ? List.of() : Collections.unmodifiableList(history);
+    }
+
     private List<Map<String, Object>> getHistory(String userId) {
         List<Map<String, Object>> history = historyCache.getIfPresent(userId);
         if (history == null) {
@@ -1,5 +1,6 @@
 package com.bgpay.bgai.service.deepseek;
 
+import com.bgpay.bgai.response.ChatDiagnostics;
 import com.bgpay.bgai.response.ChatResponse;
 import reactor.core.publisher.Mono;
 
@@ -11,6 +12,18 @@ public interface DeepSeekService {
                                        String userId,
                                        boolean multiTurn);
 
+    /**
+     * @param diagnostics Collects per-stage latencies, retries, cache hits, token and cost figures and is
+     *                    attached to the response; null for ordinary requests
+     */
+    public ChatResponse processRequest(String content,
+                                       String apiUrl,
+                                       String apiKey,
+                                       String modelName,
+                                       String userId,
+                                       boolean multiTurn,
+                                       ChatDiagnostics diagnostics);
+
     public Mono<ChatResponse> processRequestReactive(String content,
                                                      String apiUrl,
                                                      String apiKey,
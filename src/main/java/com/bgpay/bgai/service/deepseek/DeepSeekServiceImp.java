@@ -1,12 +1,15 @@
 package com.bgpay.bgai.service.deepseek;
 
 import com.bgpay.bgai.datasource.DS;
+import com.bgpay.bgai.entity.BillingOutbox;
 import com.bgpay.bgai.entity.UsageCalculationDTO;
+import com.bgpay.bgai.entity.UsageRecord;
+import com.bgpay.bgai.response.ChatDiagnostics;
 import com.bgpay.bgai.response.ChatResponse;
-import com.bgpay.bgai.service.ChatCompletionsService;
-import com.bgpay.bgai.service.UsageInfoService;
+import com.bgpay.bgai.service.BillingService;
+import com.bgpay.bgai.service.mq.BillingEventBus;
 import com.bgpay.bgai.service.mq.MQCallback;
-import com.bgpay.bgai.service.mq.RocketMQProducerService;
+import com.bgpay.bgai.service.mq.ChatLogSink;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -14,6 +17,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.tracing.Tracer;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
@@ -28,12 +32,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import com.bgpay.bgai.entity.ChatCompletions;
 import com.bgpay.bgai.entity.UsageInfo;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
@@ -43,6 +45,7 @@ import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -78,13 +81,11 @@ public class DeepSeekServiceImp implements DeepSeekService {
     @Value("${max.request.length:8000}")
     private int maxRequestLength;
 
-    @Autowired
-    private ChatCompletionsService chatCompletionsService;
-
-    @Autowired
-    private UsageInfoService usageInfoService;
+    @Value("${billing.outbox.enabled:false}")
+    private boolean billingOutbox;
 
     private final MeterRegistry meterRegistry;
+    private final ChatMetrics chatMetrics;
 
 
     @Autowired
@@ -93,12 +94,24 @@ public class DeepSeekServiceImp implements DeepSeekService {
     @Autowired
     private FileWriterService fileWriterService;
 
+    @Autowired
+    private CompletionWriteBuffer completionWriteBuffer;
+
     @Autowired
     @Qualifier("asyncTaskExcutor")
     private Executor asyncRequestExecutor;
 
     @Autowired
-    private RocketMQProducerService rocketMQProducer;
+    private ChatLogSink chatLogSink;
+
+    @Autowired
+    private BillingEventBus billingEventBus;
+
+    @Autowired(required = false)
+    private Tracer tracer;
+
+    @Autowired
+    private BillingService billingService;
 
     private final CloseableHttpClient httpClient;
 
@@ -113,8 +126,10 @@ public class DeepSeekServiceImp implements DeepSeekService {
 
     public DeepSeekServiceImp(
             @Value("${http.max.conn:500}") int maxConn,
-            @Value("${http.max.conn.per.route:50}") int maxPerRoute, MeterRegistry meterRegistry) {
+            @Value("${http.max.conn.per.route:50}") int maxPerRoute, MeterRegistry meterRegistry,
+            ChatMetrics chatMetrics) {
         this.meterRegistry = meterRegistry;
+        this.chatMetrics = chatMetrics;
 
 
         // 配置连接存活性检查
@@ -157,31 +172,75 @@ public class DeepSeekServiceImp implements DeepSeekService {
                                        String modelName,
                                        String userId,
                                        boolean multiTurn) {
+        return processRequest(content, apiUrl, apiKey, modelName, userId, multiTurn, null);
+    }
+
+    @Override
+    @DS("master")
+    public ChatResponse processRequest(String content,
+                                       String apiUrl,
+                                       String apiKey,
+                                       String modelName,
+                                       String userId,
+                                       boolean multiTurn,
+                                       ChatDiagnostics diagnostics) {
         ChatResponse chatResponse = new ChatResponse();
         String requestBody = "";
         try {
-            List<Map<String, Object>> history = multiTurn ?
-                    historyService.getValidHistory(userId) :
-                    new ArrayList<>();
-
-            // 创建当前用户消息（始终包含最新内容）
-            Map<String, Object> currentMessage = createMessage("user", content);
-
-            // 构建完整消息序列 = 历史记录 + 当前消息
-            List<Map<String, Object>> messagesForRequest = new ArrayList<>(history);
-            messagesForRequest.add(currentMessage);
+            List<Map<String, Object>> messagesForRequest = chatMetrics.time(ChatMetrics.STAGE_HISTORY, modelName, diagnostics, () -> {
+                List<Map<String, Object>> history = multiTurn ?
+                        historyService.getValidHistory(userId) :
+                        new ArrayList<>();
+
+                // 创建当前用户消息（始终包含最新内容）
+                Map<String, Object> currentMessage = createMessage("user", content);
+
+                // 构建完整消息序列 = 历史记录 + 当前消息
+                List<Map<String, Object>> messages = new ArrayList<>(history);
+                messages.add(currentMessage);
+                if (diagnostics != null) {
+                    recordHistoryWindow(diagnostics, multiTurn ? historyService.getStoredHistory(userId) : List.of(),
+                            messages);
+                }
+                return messages;
+            });
 
             // 构建请求
-            requestBody = buildRequest(messagesForRequest, modelName);
-            CompletableFuture<String> future = executeWithRetry(apiUrl, apiKey, requestBody);
+            requestBody = chatMetrics.time(ChatMetrics.STAGE_REQUEST_BUILD, modelName, diagnostics,
+                    () -> buildRequest(messagesForRequest, modelName));
+            CompletableFuture<String> future = executeWithRetry(apiUrl, apiKey, modelName, requestBody, diagnostics);
             String response = future.get();
             if (multiTurn) {
                 String assistantContent = extractContent(response);
                 historyService.addMessage(userId, "user", content);  // 包含文件内容的问题
                 historyService.addMessage(userId, "assistant", assistantContent);
             }
-            saveCompletionDataAsync(response);
-            JsonNode root = mapper.readTree(response);
+            ChatMetrics.Stage parseStage = chatMetrics.start(ChatMetrics.STAGE_PARSE, diagnostics);
+            JsonNode root;
+            UsageInfo usage;
+            UsageCalculationDTO calculationDTO;
+            try {
+                root = mapper.readTree(response);
+                JsonNode usageNode = root.path("usage");
+                usage = usageNode.isEmpty() ? null : extractUsageInfo(usageNode, root);
+                calculationDTO = usage == null ? null : toCalculationDTO(usage);
+            } catch (IOException | RuntimeException e) {
+                // 响应解析失败也要结束解析阶段，否则 span 不会结束，失败也不计入计时器
+                parseStage.span().error(e);
+                chatMetrics.stop(parseStage, modelName, ChatMetrics.OUTCOME_ERROR);
+                throw e;
+            }
+            chatMetrics.stop(parseStage, modelName, ChatMetrics.OUTCOME_SUCCESS);
+            chatMetrics.time(ChatMetrics.STAGE_PERSIST, modelName, diagnostics, () -> {
+                if (billingOutbox && calculationDTO != null) {
+                    // 计费事件随 usage_info 同一事务落库，由 BillingOutboxRelay 批量投递，请求线程不再等待 broker
+                    completionWriteBuffer.enqueue(parseChatCompletion(root), parseUsageInfo(root),
+                            toOutboxEvent(calculationDTO, userId));
+                } else {
+                    saveCompletionDataAsync(response);
+                }
+                return null;
+            });
             JsonNode choices = root.path("choices");
             if (!choices.isEmpty()) {
                 JsonNode message = choices.get(0).path("message");
@@ -193,47 +252,89 @@ public class DeepSeekServiceImp implements DeepSeekService {
                 }
             }
 
-            JsonNode usageNode = root.path("usage");
-            if (!usageNode.isEmpty()) {
-                UsageInfo usage = extractUsageInfo(usageNode, root);
+            if (usage != null) {
                 chatResponse.setUsage(usage);
-                UsageCalculationDTO calculationDTO = new UsageCalculationDTO();
-                calculationDTO.setChatCompletionId(usage.getChatCompletionId());
-                calculationDTO.setModelType(usage.getModelType());
-                calculationDTO.setPromptCacheHitTokens(usage.getPromptCacheHitTokens());
-                calculationDTO.setPromptCacheMissTokens(usage.getPromptCacheMissTokens());
-                calculationDTO.setCompletionTokens(usage.getCompletionTokens());
-                calculationDTO.setCreatedAt(LocalDateTime.now());
-                rocketMQProducer.sendBillingMessage(calculationDTO, userId);
+                if (diagnostics != null) {
+                    recordCost(diagnostics, usage, calculationDTO, userId);
+                }
+                if (!billingOutbox) {
+                    chatMetrics.time(ChatMetrics.STAGE_BILLING_PUBLISH, modelName, diagnostics, () -> {
+                        billingEventBus.publish(calculationDTO, userId);
+                        return null;
+                    });
+                }
                 String messageId = UUID.randomUUID().toString();
-                rocketMQProducer.sendChatLogAsync(
-                        messageId,
-                        requestBody,
-                        chatResponse,
-                        userId,
-                        new MQCallback() {
-                            @Override
-                            public void onSuccess(String msgId) {
-                                meterRegistry.counter("mq.message.success", "msgId", msgId).increment();
-                                log.info("Message {} 发送成功，执行清理操作", msgId);
-                            }
-
-                            @Override
-                            public void onFailure(String msgId, Throwable e) {
-                                meterRegistry.counter("mq.message.failure", "msgId", msgId).increment();
-                                log.error("Message {} 发送失败", msgId, e);
+                ChatMetrics.Stage mqStage = chatMetrics.start(ChatMetrics.STAGE_MQ_SEND);
+                // 在发送阶段的 span 内发送，链路上下文随消息属性传给消费者
+                try (Tracer.SpanInScope ignored = chatMetrics.inScope(mqStage)) {
+                    chatLogSink.sendChatLogAsync(
+                            messageId,
+                            requestBody,
+                            chatResponse,
+                            userId,
+                            new MQCallback() {
+                                @Override
+                                public void onSuccess(String msgId) {
+                                    meterRegistry.counter("mq.message.success").increment();
+                                    chatMetrics.stop(mqStage, modelName, ChatMetrics.OUTCOME_SUCCESS);
+                                    log.debug("Message {} 发送成功，执行清理操作", msgId);
+                                }
+
+                                @Override
+                                public void onFailure(String msgId, Throwable e) {
+                                    meterRegistry.counter("mq.message.failure").increment();
+                                    chatMetrics.stop(mqStage, modelName, ChatMetrics.OUTCOME_ERROR);
+                                    log.error("Message {} 发送失败", msgId, e);
+                                }
                             }
-                        }
-                );
+                    );
+                }
             }
         } catch (Exception e) {
             String errorMessage = "Processing failed: " + e.getMessage();
             chatResponse.setContent(buildErrorResponse(500, errorMessage));
             chatResponse.setUsage(new UsageInfo());
         }
+        chatResponse.setDiagnostics(diagnostics);
         return chatResponse;
     }
 
+    private static void recordHistoryWindow(ChatDiagnostics diagnostics,
+                                            List<Map<String, Object>> stored,
+                                            List<Map<String, Object>> sent) {
+        int storedTokens = 0;
+        for (Map<String, Object> message : stored) {
+            storedTokens += ChatDiagnostics.estimateTokens((String) message.get("content"));
+        }
+        int sentTokens = 0;
+        for (Map<String, Object> message : sent) {
+            sentTokens += ChatDiagnostics.estimateTokens((String) message.get("content"));
+        }
+        // 本次提问是 sent 的最后一条，裁剪前同样要计入
+        String current = (String) sent.get(sent.size() - 1).get("content");
+        diagnostics.setHistoryMessagesStored(stored.size());
+        diagnostics.setHistoryMessagesSent(sent.size() - 1);
+        diagnostics.setEstimatedPromptTokensBeforeWindow(storedTokens + ChatDiagnostics.estimateTokens(current));
+        diagnostics.setEstimatedPromptTokensAfterWindow(sentTokens);
+    }
+
+    /**
+     * 按计费同样的价格表试算本次费用，只用于诊断信息，失败不影响响应
+     */
+    private void recordCost(ChatDiagnostics diagnostics, UsageInfo usage, UsageCalculationDTO calculationDTO,
+                            String userId) {
+        diagnostics.setPromptCacheHitTokens(usage.getPromptCacheHitTokens());
+        try {
+            UsageRecord quote = billingService.quote(calculationDTO, userId, diagnostics);
+            diagnostics.setInputCost(quote.getInputCost());
+            diagnostics.setOutputCost(quote.getOutputCost());
+            diagnostics.setTotalCost(quote.getInputCost().add(quote.getOutputCost()));
+            diagnostics.setPriceVersion(quote.getPriceVersion());
+        } catch (Exception e) {
+            log.warn("诊断信息费用试算失败 [model={}]", calculationDTO.getModelType(), e);
+        }
+    }
+
     @Override
     public Mono<ChatResponse> processRequestReactive(String content,
                                                      String apiUrl,
@@ -241,7 +342,17 @@ public class DeepSeekServiceImp implements DeepSeekService {
                                                      String modelName,
                                                      String userId,
                                                      boolean multiTurn) {
-        log.info("Calling DeepSeek API - URL: {}, Model: {}", apiUrl, modelName);
+        log.debug("Calling DeepSeek API - URL: {}, Model: {}", apiUrl, modelName);
+        return chatMetrics.time(ChatMetrics.STAGE_UPSTREAM_TOTAL, modelName, ChatMetrics.hostOf(apiUrl),
+                ChatMetrics.NONE, callReactive(content, apiUrl, apiKey, modelName, userId, multiTurn));
+    }
+
+    private Mono<ChatResponse> callReactive(String content,
+                                            String apiUrl,
+                                            String apiKey,
+                                            String modelName,
+                                            String userId,
+                                            boolean multiTurn) {
         return WebClient.create(apiUrl)
                 .post()
                 .header("Authorization", "Bearer " + apiKey)
@@ -259,10 +370,11 @@ public class DeepSeekServiceImp implements DeepSeekService {
                 )
                 .bodyToMono(ChatResponse.class)
                 .timeout(Duration.ofSeconds(30))
-                .doOnNext(resp -> log.debug("API Response: {}", resp))
+                .doOnNext(resp -> log.debug("API Response received [contentLength={}]",
+                        resp.getContent() == null ? 0 : resp.getContent().length()))
                 .onErrorResume(e -> {
                     log.error("API call failed", e);
-                    return Mono.error(new RuntimeException("API调用失败: " + e.getMessage()));
+                    return Mono.error(new RuntimeException("API调用失败: " + e.getMessage(), e));
                 });
     }
     private Map<String, Object> buildRequestJson(String content, String model, boolean multiTurn, String userId) {
@@ -349,10 +461,16 @@ public class DeepSeekServiceImp implements DeepSeekService {
      *
      * @param apiUrl      The URL of the API
      * @param apiKey      The API key for authentication
+     * @param modelName   The model name, used as a metrics tag
      * @param requestBody The request body in JSON format
      * @return A CompletableFuture that will complete with the response string
      */
-    private CompletableFuture<String> executeWithRetry(String apiUrl, String apiKey, String requestBody) {
+    CompletableFuture<String> executeWithRetry(String apiUrl, String apiKey, String modelName, String requestBody) {
+        return executeWithRetry(apiUrl, apiKey, modelName, requestBody, null);
+    }
+
+    CompletableFuture<String> executeWithRetry(String apiUrl, String apiKey, String modelName, String requestBody,
+                                               ChatDiagnostics diagnostics) {
         CompletableFuture<String> future = new CompletableFuture<>();
         AtomicInteger retries = new AtomicInteger(0);
 
@@ -367,13 +485,15 @@ public class DeepSeekServiceImp implements DeepSeekService {
 
                 try {
                     // Send the request and complete the future with the result
-                    String result = sendRequest(apiUrl, apiKey, requestBody);
+                    String result = sendRequest(apiUrl, apiKey, modelName, requestBody, diagnostics);
                     future.complete(result);
                 } catch (Exception e) {
                     if (retries.incrementAndGet() < maxRetries) {
                         // If the retry limit is not reached, schedule the next retry
                         long delay = (long) (initialDelay * Math.pow(backoffFactor, retries.get()));
-                        retryExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+                        // 重试线程池不在 AsyncConfig 中，需自行带上当前链路上下文
+                        retryExecutor.schedule(tracer == null ? this : tracer.currentTraceContext().wrap(this),
+                                delay, TimeUnit.MILLISECONDS);
                     } else {
                         // If the retry limit is reached, complete the future exceptionally
                         future.completeExceptionally(e);
@@ -392,26 +512,50 @@ public class DeepSeekServiceImp implements DeepSeekService {
      *
      * @param apiUrl      The URL of the API
      * @param apiKey      The API key for authentication
+     * @param modelName   The model name, used as a metrics tag
      * @param requestBody The request body in JSON format
+     * @param diagnostics Receives the attempt's timings and outcome; may be null
      * @return The response string from the API
      * @throws IOException if there is an I/O error during the request
      */
-    private String sendRequest(String apiUrl, String apiKey, String requestBody) throws IOException {
+    private String sendRequest(String apiUrl, String apiKey, String modelName, String requestBody,
+                               ChatDiagnostics diagnostics) throws IOException {
         HttpPost post = new HttpPost(apiUrl);
-        try {
+        String host = ChatMetrics.hostOf(apiUrl);
+        ChatMetrics.Stage total = chatMetrics.start(ChatMetrics.STAGE_UPSTREAM_TOTAL, diagnostics);
+        String outcome = ChatMetrics.OUTCOME_ERROR;
+        try (Tracer.SpanInScope ignored = chatMetrics.inScope(total)) {
             post.setHeader("Content-Type", "application/json; charset=UTF-8");
             post.setHeader("Authorization", "Bearer " + apiKey);
             post.setEntity(new StringEntity(requestBody, StandardCharsets.UTF_8));
 
-            HttpResponse response = httpClient.execute(post);
+            // execute 在收到响应头后返回，此时即首字节时间
+            ChatMetrics.Stage ttfb = chatMetrics.start(ChatMetrics.STAGE_UPSTREAM_TTFB, diagnostics);
+            HttpResponse response;
+            try {
+                response = httpClient.execute(post);
+            } catch (IOException | RuntimeException e) {
+                // 没收到响应头也要结束首字节阶段，否则 span 不会结束，失败的尝试也不计入计时器
+                ttfb.span().error(e);
+                chatMetrics.stop(ttfb, modelName, host, ChatMetrics.NONE, e instanceof SocketTimeoutException ?
+                        ChatMetrics.OUTCOME_TIMEOUT : ChatMetrics.OUTCOME_ERROR);
+                throw e;
+            }
+            outcome = ChatMetrics.outcomeOf(response.getStatusLine().getStatusCode());
+            chatMetrics.stop(ttfb, modelName, host, ChatMetrics.NONE, outcome);
             return parseResponse(response);
         } catch (SocketTimeoutException e) {
+            outcome = ChatMetrics.OUTCOME_TIMEOUT;
             log.error("请求超时: {}", apiUrl, e);
             throw new RuntimeException("API请求超时", e);
         } catch (ConnectException e) {
             log.error("连接拒绝: {}", apiUrl, e);
             throw new RuntimeException("无法连接到API服务", e);
         } finally {
+            chatMetrics.stop(total, modelName, host, ChatMetrics.NONE, outcome);
+            if (diagnostics != null) {
+                diagnostics.recordUpstreamAttempt(outcome);
+            }
             post.releaseConnection();
         }
     }
@@ -488,35 +632,15 @@ public class DeepSeekServiceImp implements DeepSeekService {
     }
 
     /**
-     * Asynchronously save the completion data, including chat completions and usage information.
+     * Hand the completion data, including chat completions and usage information, to the
+     * write-behind buffer, which persists it in batches.
      *
      * @param responseJson The JSON string of the API response
      */
-    @Transactional
-    @Async
     public void saveCompletionDataAsync(String responseJson) {
         try {
             JsonNode root = mapper.readTree(responseJson);
-
-            // Synchronously save the chat completions data
-            ChatCompletions completion = parseChatCompletion(root);
-            chatCompletionsService.insertChatCompletions(completion);
-
-            // Asynchronously save the usage information data
-            CompletableFuture.runAsync(() -> {
-                try {
-                    UsageInfo usage = parseUsageInfo(root);
-                    usageInfoService.insertUsageInfo(usage);
-                } catch (Exception e) {
-                    // Log the exception and throw a runtime exception
-                    log.error("Exception occurred while saving UsageInfo", e);
-                    throw new RuntimeException("Exception occurred while saving UsageInfo", e);
-                }
-            }).exceptionally(ex -> {
-                // Handle exceptions in the asynchronous task
-                log.error("Exception occurred while saving UsageInfo asynchronously", ex);
-                throw new RuntimeException("Exception occurred while saving UsageInfo asynchronously", ex);
-            });
+            completionWriteBuffer.enqueue(parseChatCompletion(root), parseUsageInfo(root));
         } catch (Exception e) {
             // Log the exception and throw a runtime exception
             log.error("Exception occurred while saving CompletionData", e);
@@ -530,7 +654,7 @@ public class DeepSeekServiceImp implements DeepSeekService {
      * @param root The root JsonNode of the response
      * @return A ChatCompletions object containing the parsed data
      */
-    private ChatCompletions parseChatCompletion(JsonNode root) {
+    ChatCompletions parseChatCompletion(JsonNode root) {
         ChatCompletions chatCompletions = new ChatCompletions();
         chatCompletions.setObject(root.path("object").asText());
         chatCompletions.setCreated(root.path("created").asLong());
@@ -547,7 +671,7 @@ public class DeepSeekServiceImp implements DeepSeekService {
      * @param root The root JsonNode of the response
      * @return A UsageInfo object containing the parsed data
      */
-    private UsageInfo parseUsageInfo(JsonNode root) {
+    UsageInfo parseUsageInfo(JsonNode root) {
         JsonNode usageNode = root.path("usage");
         JsonNode promptDetails = usageNode.path("prompt_tokens_details");
         JsonNode completionDetails = usageNode.path("completion_tokens_details");
@@ -560,7 +684,7 @@ public class DeepSeekServiceImp implements DeepSeekService {
         usageInfo.setCompletionReasoningTokens(completionDetails.path("reasoning_tokens").asInt());
         usageInfo.setPromptCacheHitTokens(usageNode.path(" prompt_cache_hit_tokens").asInt());
         usageInfo.setPromptCacheMissTokens(usageNode.path("prompt_cache_miss_tokens").asInt());
-        usageInfo.setCreatedAt(LocalDateTime.now());
+        usageInfo.setCreatedAt(LocalDateTime.now(ZoneOffset.UTC));
         usageInfo.setModelType(root.path("model").asText());
         return usageInfo;
     }
@@ -572,7 +696,7 @@ public class DeepSeekServiceImp implements DeepSeekService {
      * @param root      The root JsonNode of the response
      * @return A UsageInfo object containing the extracted data
      */
-    private UsageInfo extractUsageInfo(JsonNode usageNode, JsonNode root) {
+    UsageInfo extractUsageInfo(JsonNode usageNode, JsonNode root) {
         JsonNode promptDetails = usageNode.path("prompt_tokens_details");
         JsonNode completionDetails = usageNode.path("completion_tokens_details");
         UsageInfo usage = new UsageInfo();
@@ -591,11 +715,31 @@ public class DeepSeekServiceImp implements DeepSeekService {
         usage.setCompletionReasoningTokens(completionDetails.path("reasoning_tokens").asInt());
         usage.setPromptCacheHitTokens(usageNode.path(" prompt_cache_hit_tokens").asInt());
         usage.setPromptCacheMissTokens(usageNode.path("prompt_cache_miss_tokens").asInt());
-        usage.setCreatedAt(LocalDateTime.now());
+        usage.setCreatedAt(LocalDateTime.now(ZoneOffset.UTC));
         usage.setModelType(root.path("model").asText());
         return usage;
     }
 
+    UsageCalculationDTO toCalculationDTO(UsageInfo usage) {
+        UsageCalculationDTO calculationDTO = new UsageCalculationDTO();
+        calculationDTO.setChatCompletionId(usage.getChatCompletionId());
+        calculationDTO.setModelType(usage.getModelType());
+        calculationDTO.setPromptCacheHitTokens(usage.getPromptCacheHitTokens());
+        calculationDTO.setPromptCacheMissTokens(usage.getPromptCacheMissTokens());
+        calculationDTO.setCompletionTokens(usage.getCompletionTokens());
+        // 计费时段与日消费按 UTC 解释该时间，不能用服务器本地时间
+        calculationDTO.setCreatedAt(LocalDateTime.now(ZoneOffset.UTC));
+        return calculationDTO;
+    }
+
+    private BillingOutbox toOutboxEvent(UsageCalculationDTO calculationDTO, String userId) {
+        return new BillingOutbox()
+                .setCompletionId(calculationDTO.getChatCompletionId())
+                .setUserId(userId)
+                .setPayload(billingEventBus.encode(calculationDTO))
+                .setCreatedAt(calculationDTO.getCreatedAt());
+    }
+
     /**
      * Custom thread factory for creating threads with a specific name prefix and daemon flag.
      */
@@ -17,6 +17,7 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -33,53 +34,84 @@ import java.util.concurrent.ThreadLocalRandom;
 @Component
 public class FileProcessor {
     private final FileTypeService fileTypeService;
-    private static final ThreadLocal<Tesseract> TESSERACT_THREAD_LOCAL = ThreadLocal.withInitial(() -> {
-        Tesseract tesseract = new Tesseract();
-        tesseract.setDatapath("/path/to/your/tessdata");
-        tesseract.setLanguage("chi_sim+eng");
-        tesseract.setPageSegMode(1);  // 自动页面分割
-        return tesseract;
-    });
-
-    public FileProcessor(FileTypeService fileTypeService) {
+    private final ChatMetrics chatMetrics;
+    private final ThreadLocal<Tesseract> tesseractThreadLocal;
+
+    public FileProcessor(FileTypeService fileTypeService,
+                         ChatMetrics chatMetrics,
+                         @Value("${ocr.tessdata-path:/path/to/your/tessdata}") String tessdataPath) {
         this.fileTypeService = fileTypeService;
+        this.chatMetrics = chatMetrics;
+        this.tesseractThreadLocal = ThreadLocal.withInitial(() -> {
+            Tesseract tesseract = new Tesseract();
+            tesseract.setDatapath(tessdataPath);
+            tesseract.setLanguage("chi_sim+eng");
+            tesseract.setPageSegMode(1);  // 自动页面分割
+            return tesseract;
+        });
     }
 
     public String processFile(MultipartFile file) throws Exception {
-        String contentType = validateFile(file);
-        File tempFile = createTempFile(file);
+        return processStagedFile(stageFile(file), file.getContentType());
+    }
 
-        try {
-            if (!fileTypeService.validateFileMagic(tempFile, contentType)) {
-                throw new IllegalArgumentException("文件内容与类型不匹配");
-            }
+    /**
+     * 校验上传文件并落盘到临时文件，供异步任务在请求结束后继续解析
+     *
+     * @param file 上传文件
+     * @return 临时文件（由 {@link #processStagedFile(File, String)} 负责删除）
+     */
+    public File stageFile(MultipartFile file) throws Exception {
+        chatMetrics.time(ChatMetrics.STAGE_FILE_VALIDATE, ChatMetrics.NONE,
+                ChatMetrics.fileTypeOf(file.getContentType()), () -> validateFile(file));
+        return createTempFile(file);
+    }
 
-            return switch (contentType.toLowerCase()) {
-                case "image/png", "image/jpeg", "image/tiff", "image/bmp", "image/gif" -> processImage(tempFile);
-                case "application/pdf" -> processPDF(tempFile);
-                case "application/vnd.openxmlformats-officedocument.wordprocessingml.document" -> processDocx(tempFile);
-                case "application/vnd.ms-excel" -> processExcel(tempFile, false);
-                case "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet" -> processExcel(tempFile, true);
-                case "application/vnd.ms-powerpoint" -> processPresentation(tempFile, false);
-                case "application/vnd.openxmlformats-officedocument.presentationml.presentation" -> processPresentation(tempFile, true);
-                case "video/mp4", "video/quicktime" -> processVideo(tempFile);
-                // 新增文本类文件处理
-                case "text/x-python", "application/javascript", "application/typescript", "text/x-ruby", "text/x-perl",
-                     "text/x-sh", "application/powershell", "text/html", "application/xml", "application/xslt+xml",
-                     "text/markdown", "text/x-java-source", "text/x-c", "text/x-c++", "text/x-csharp",
-                     "application/x-php", "text/x-go", "text/x-rust", "text/x-swift", "text/plain",
-                     "application/x-win-registry", "application/json", "text/yaml", "text/x-properties",
-                     "text/css", "application/sql", "text/x-makefile", "text/x-asm", "application/coffeescript",
-                     "application/dart", "text/x-erlang", "text/x-fortran", "text/x-groovy", "text/x-haskell",
-                     "text/x-lua", "text/x-objective-c", "text/x-pascal", "text/x-scala", "text/x-vhdl",
-                     "text/x-verilog" -> processTextFile(tempFile);
-                default -> throw new IllegalArgumentException("不支持的文件类型: " + contentType);
-            };
+    /**
+     * 解析已落盘的上传文件，完成后删除临时文件
+     *
+     * @param tempFile    {@link #stageFile(MultipartFile)} 生成的临时文件
+     * @param contentType 上传时声明的文件类型
+     * @return 提取出的文本内容
+     */
+    public String processStagedFile(File tempFile, String contentType) throws Exception {
+        try {
+            return chatMetrics.time(ChatMetrics.STAGE_FILE_EXTRACT, ChatMetrics.NONE,
+                    ChatMetrics.fileTypeOf(contentType), () -> {
+                        if (!fileTypeService.validateFileMagic(tempFile, contentType)) {
+                            throw new IllegalArgumentException("文件内容与类型不匹配");
+                        }
+                        return extractContent(tempFile, contentType);
+                    });
         } finally {
             Files.deleteIfExists(tempFile.toPath());
         }
     }
 
+    private String extractContent(File file, String contentType) throws Exception {
+        return switch (contentType.toLowerCase()) {
+            case "image/png", "image/jpeg", "image/tiff", "image/bmp", "image/gif" -> processImage(file);
+            case "application/pdf" -> processPDF(file);
+            case "application/vnd.openxmlformats-officedocument.wordprocessingml.document" -> processDocx(file);
+            case "application/vnd.ms-excel" -> processExcel(file, false);
+            case "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet" -> processExcel(file, true);
+            case "application/vnd.ms-powerpoint" -> processPresentation(file, false);
+            case "application/vnd.openxmlformats-officedocument.presentationml.presentation" -> processPresentation(file, true);
+            case "video/mp4", "video/quicktime" -> processVideo(file);
+            // 新增文本类文件处理
+            case "text/x-python", "application/javascript", "application/typescript", "text/x-ruby", "text/x-perl",
+                 "text/x-sh", "application/powershell", "text/html", "application/xml", "application/xslt+xml",
+                 "text/markdown", "text/x-java-source", "text/x-c", "text/x-c++", "text/x-csharp",
+                 "application/x-php", "text/x-go", "text/x-rust", "text/x-swift", "text/plain",
+                 "application/x-win-registry", "application/json", "text/yaml", "text/x-properties",
+                 "text/css", "application/sql", "text/x-makefile", "text/x-asm", "application/coffeescript",
+                 "application/dart", "text/x-erlang", "text/x-fortran", "text/x-groovy", "text/x-haskell",
+                 "text/x-lua", "text/x-objective-c", "text/x-pascal", "text/x-scala", "text/x-vhdl",
+                 "text/x-verilog" -> processTextFile(file);
+            default -> throw new IllegalArgumentException("不支持的文件类型: " + contentType);
+        };
+    }
+
     // 新增文件编码检测方法
     private static String detectCharset(File file) throws IOException {
         try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
@@ -231,7 +263,7 @@ public class FileProcessor {
         return content.toString();
     }
 
-    private static String processImage(File file) throws Exception {
+    private String processImage(File file) throws Exception {
         String metadata = extractImageMetadata(file);
         String ocrText = performOCR(file);
         return formatResult(metadata, ocrText);
@@ -258,11 +290,11 @@ public class FileProcessor {
         }
     }
 
-    private static String performOCR(File file) throws TesseractException, IOException {
+    private String performOCR(File file) throws TesseractException, IOException {
         BufferedImage image = ImageIO.read(file);
         if (image == null) throw new IOException("无法读取图像文件");
         BufferedImage rgbImage = convertToRGB(image);
-        return TESSERACT_THREAD_LOCAL.get().doOCR(rgbImage);
+        return tesseractThreadLocal.get().doOCR(rgbImage);
     }
 
     private static BufferedImage convertToRGB(BufferedImage image) {
@@ -323,29 +355,11 @@ public class FileProcessor {
 
     public String processFile(File file, String contentType) throws Exception {
         // 验证文件类型（新增方法）
-        String validContentType = validateFileType(file, file.getName(), contentType);
-
-        return switch (contentType.toLowerCase()) {
-            case "image/png", "image/jpeg", "image/tiff", "image/bmp", "image/gif" -> processImage(file);
-            case "application/pdf" -> processPDF(file);
-            case "application/vnd.openxmlformats-officedocument.wordprocessingml.document" -> processDocx(file);
-            case "application/vnd.ms-excel" -> processExcel(file, false);
-            case "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet" -> processExcel(file, true);
-            case "application/vnd.ms-powerpoint" -> processPresentation(file, false);
-            case "application/vnd.openxmlformats-officedocument.presentationml.presentation" -> processPresentation(file, true);
-            case "video/mp4", "video/quicktime" -> processVideo(file);
-            // 新增文本类文件处理
-            case "text/x-python", "application/javascript", "application/typescript", "text/x-ruby", "text/x-perl",
-                 "text/x-sh", "application/powershell", "text/html", "application/xml", "application/xslt+xml",
-                 "text/markdown", "text/x-java-source", "text/x-c", "text/x-c++", "text/x-csharp",
-                 "application/x-php", "text/x-go", "text/x-rust", "text/x-swift", "text/plain",
-                 "application/x-win-registry", "application/json", "text/yaml", "text/x-properties",
-                 "text/css", "application/sql", "text/x-makefile", "text/x-asm", "application/coffeescript",
-                 "application/dart", "text/x-erlang", "text/x-fortran", "text/x-groovy", "text/x-haskell",
-                 "text/x-lua", "text/x-objective-c", "text/x-pascal", "text/x-scala", "text/x-vhdl",
-                 "text/x-verilog" -> processTextFile(file);
-            default -> throw new IllegalArgumentException("不支持的文件类型: " + validContentType);
-        };
+        String fileType = ChatMetrics.fileTypeOf(contentType);
+        String validContentType = chatMetrics.time(ChatMetrics.STAGE_FILE_VALIDATE, ChatMetrics.NONE, fileType,
+                () -> validateFileType(file, file.getName(), contentType));
+        return chatMetrics.time(ChatMetrics.STAGE_FILE_EXTRACT, ChatMetrics.NONE, fileType,
+                () -> extractContent(file, validContentType));
     }
 
     private String validateFileType(File file, String filename, String contentType) {
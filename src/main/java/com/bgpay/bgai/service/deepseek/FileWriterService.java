@@ -1,16 +1,24 @@
 package com.bgpay.bgai.service.deepseek;
 
 
+import com.bgpay.bgai.utils.SegmentLogWriter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.UUID;
 
+/**
+ * Persists model responses into an append-only segment log instead of one file per response.
+ * Each response is one length-prefixed UTF-8 record, so the content is stored unmodified.
+ */
 @Slf4j
 @Service
 public class FileWriterService {
@@ -18,24 +26,57 @@ public class FileWriterService {
     @Value("${file.output.path:/var/data/ai_responses}")
     private String outputPath;
 
-    @Async("fileWriteExecutor")
+    @Value("${file.output.queue-capacity:65536}")
+    private int queueCapacity;
+
+    @Value("${file.output.segment-max-bytes:268435456}")
+    private long segmentMaxBytes;
+
+    @Value("${file.output.segment-max-age-ms:3600000}")
+    private long segmentMaxAgeMs;
+
+    @Value("${file.output.compress:true}")
+    private boolean compress;
+
+    private final MeterRegistry meterRegistry;
+
+    private SegmentLogWriter writer;
+
+    public FileWriterService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        writer = new SegmentLogWriter("responses", Paths.get(outputPath),
+                queueCapacity, segmentMaxBytes, segmentMaxAgeMs, compress);
+        writer.start();
+        Gauge.builder("file.output.queue.depth", writer, SegmentLogWriter::pending)
+                .description("Responses waiting to be appended to the segment log")
+                .register(meterRegistry);
+        FunctionCounter.builder("file.output.dropped", writer, SegmentLogWriter::droppedRecords)
+                .description("Responses dropped because the queue was full or a segment write failed")
+                .register(meterRegistry);
+        FunctionCounter.builder("file.output.open.failures", writer, SegmentLogWriter::openFailures)
+                .description("Failed attempts to open a new segment")
+                .register(meterRegistry);
+        log.info("Response segment log started: {}", outputPath);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
     public void writeContentAsync(String rawContent) {
-        // 去除所有换行符
-        String sanitizedContent = rawContent.replaceAll("\\n", "");
-
-        // 生成唯一文件名
-        String fileName = UUID.randomUUID() + ".txt";
-        Path filePath = Paths.get(outputPath, fileName);
-
-        try {
-            // 创建目录（如果不存在）
-            Files.createDirectories(filePath.getParent());
-
-            // 写入文件
-            Files.write(filePath, sanitizedContent.getBytes(StandardCharsets.UTF_8));
-            log.info("Successfully wrote content to: {}", filePath);
-        } catch (Exception e) {
-            log.error("Failed to write content to file. Path: {}", filePath, e);
+        if (rawContent == null) {
+            return;
+        }
+        if (!writer.append(rawContent.getBytes(StandardCharsets.UTF_8))) {
+            // 队列已满时丢弃，避免阻塞请求线程；丢弃数由 SegmentLogWriter 计入 file.output.dropped
+            log.warn("Response segment queue full, record dropped");
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,236 @@
+package com.bgpay.bgai.service.impl;
+
+import com.bgpay.bgai.cache.PartitionedBloomFilter;
+import com.bgpay.bgai.datasource.DataSourceContextHolder;
+import com.bgpay.bgai.service.DedupService;
+import com.bgpay.bgai.service.UsageInfoService;
+import com.bgpay.bgai.service.UsageRecordService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DedupServiceImpl implements DedupService {
+    private static final String FILTER_PREFIX = "DEDUP:";
+    private static final int LOCAL_CACHE_MAX_SIZE = 100_000;
+    private static final int LOCAL_CACHE_EXPIRE_MINUTES = 5;
+    private static final int REDIS_KEY_EXPIRE_HOURS = 24;
+
+    @Value("${billing.dedup.partition-hours:6}")
+    private int partitionHours;
+
+    @Value("${billing.dedup.partitions:5}")
+    private int partitions;
+
+    @Value("${billing.dedup.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${billing.dedup.false-positive-rate:0.001}")
+    private double falsePositiveRate;
+
+    @Value("${billing.dedup.sync-interval-ms:10000}")
+    private long syncIntervalMs;
+
+    private final RedissonClient redissonClient;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final UsageRecordService usageRecordService;
+    private final UsageInfoService usageInfoService;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Scope, PartitionedBloomFilter> filters = new EnumMap<>(Scope.class);
+    private final Map<Scope, Cache<String, Boolean>> localCaches = new EnumMap<>(Scope.class);
+
+    @PostConstruct
+    public void init() {
+        for (Scope scope : Scope.values()) {
+            localCaches.put(scope, Caffeine.newBuilder()
+                    .maximumSize(LOCAL_CACHE_MAX_SIZE)
+                    .expireAfterWrite(LOCAL_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+                    .build());
+            PartitionedBloomFilter filter = new PartitionedBloomFilter(redissonClient,
+                    FILTER_PREFIX + scope.getFilterName(), Duration.ofHours(partitionHours), partitions,
+                    expectedInsertions, falsePositiveRate, Duration.ofMillis(syncIntervalMs * 3));
+            try {
+                filter.start();
+            } catch (Exception e) {
+                // 过滤器不可用时所有查询都走精确检查
+                log.warn("去重过滤器初始化失败 [scope={}]", scope, e);
+            }
+            filters.put(scope, filter);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${billing.dedup.sync-interval-ms:10000}")
+    public void syncFilters() {
+        filters.values().forEach(PartitionedBloomFilter::sync);
+    }
+
+    @Override
+    public boolean isProcessed(Scope scope, String completionId) {
+        Cache<String, Boolean> localCache = localCaches.get(scope);
+        if (localCache.getIfPresent(completionId) != null) {
+            return true;
+        }
+        if (!filters.get(scope).mightContain(completionId)) {
+            meterRegistry.counter("dedup.filter.negative", "scope", scope.getFilterName()).increment();
+            return false;
+        }
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(scope.getKeyPrefix() + completionId))) {
+            localCache.put(completionId, true);
+            return true;
+        }
+        meterRegistry.counter("dedup.exact.check", "scope", scope.getFilterName()).increment();
+        // 副本说不存在时可能只是复制延迟，回主库确认
+        boolean exists = exists(scope, completionId)
+                || onPrimary(scope, () -> exists(scope, completionId));
+        if (exists) {
+            markProcessed(scope, List.of(completionId));
+        }
+        return exists;
+    }
+
+    @Override
+    public boolean isProcessedConfirmed(Scope scope, String completionId) {
+        Cache<String, Boolean> localCache = localCaches.get(scope);
+        if (localCache.getIfPresent(completionId) != null) {
+            return true;
+        }
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(scope.getKeyPrefix() + completionId))) {
+            localCache.put(completionId, true);
+            return true;
+        }
+        boolean exists = onPrimary(scope, () -> exists(scope, completionId));
+        if (exists) {
+            markProcessed(scope, List.of(completionId));
+        }
+        return exists;
+    }
+
+    @Override
+    public Set<String> findProcessed(Scope scope, Collection<String> completionIds) {
+        Cache<String, Boolean> localCache = localCaches.get(scope);
+        PartitionedBloomFilter filter = filters.get(scope);
+        Set<String> processed = new HashSet<>();
+        List<String> probable = new ArrayList<>();
+        for (String completionId : completionIds) {
+            if (localCache.getIfPresent(completionId) != null) {
+                processed.add(completionId);
+            } else if (filter.mightContain(completionId)) {
+                probable.add(completionId);
+            }
+        }
+        meterRegistry.counter("dedup.filter.negative", "scope", scope.getFilterName())
+                .increment(completionIds.size() - processed.size() - probable.size());
+        if (probable.isEmpty()) {
+            return processed;
+        }
+
+        // 可能重复的才查 Redis 标记，一次 MGET
+        List<String> flags = redisTemplate.opsForValue().multiGet(
+                probable.stream().map(id -> scope.getKeyPrefix() + id).toList());
+        List<String> unresolved = new ArrayList<>();
+        for (int i = 0; i < probable.size(); i++) {
+            if (flags != null && flags.get(i) != null) {
+                localCache.put(probable.get(i), true);
+                processed.add(probable.get(i));
+            } else {
+                unresolved.add(probable.get(i));
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return processed;
+        }
+
+        meterRegistry.counter("dedup.exact.check", "scope", scope.getFilterName()).increment(unresolved.size());
+        Set<String> existing = findExisting(scope, unresolved);
+        if (existing.size() < unresolved.size()) {
+            List<String> absent = unresolved.stream().filter(id -> !existing.contains(id)).toList();
+            existing.addAll(onPrimary(scope, () -> findExisting(scope, absent)));
+        }
+        if (!existing.isEmpty()) {
+            markProcessed(scope, existing);
+            processed.addAll(existing);
+        }
+        return processed;
+    }
+
+    private boolean exists(Scope scope, String completionId) {
+        return switch (scope) {
+            case BILLING -> usageRecordService.existsByCompletionId(completionId);
+            case USAGE_INFO -> usageInfoService.existsByCompletionId(completionId);
+        };
+    }
+
+    private Set<String> findExisting(Scope scope, Collection<String> completionIds) {
+        return switch (scope) {
+            case BILLING -> usageRecordService.findExistingCompletionIds(completionIds);
+            case USAGE_INFO -> {
+                Set<String> found = new HashSet<>();
+                completionIds.stream().filter(usageInfoService::existsByCompletionId).forEach(found::add);
+                yield found;
+            }
+        };
+    }
+
+    /**
+     * 存在性检查默认读副本；判定"未处理"会导致重复计费或事务回查回滚，只能以主库为准
+     */
+    private <T> T onPrimary(Scope scope, Callable<T> check) {
+        meterRegistry.counter("dedup.primary.check", "scope", scope.getFilterName()).increment();
+        try {
+            return DataSourceContextHolder.callOnMaster(check);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void markProcessed(Scope scope, Collection<String> completionIds) {
+        if (completionIds.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (String completionId : completionIds) {
+                    operations.opsForValue().set(scope.getKeyPrefix() + completionId, "1",
+                            REDIS_KEY_EXPIRE_HOURS, TimeUnit.HOURS);
+                }
+                return null;
+            }
+        });
+        try {
+            filters.get(scope).addAll(completionIds);
+        } catch (Exception e) {
+            log.warn("去重过滤器写入失败 [scope={}, size={}]", scope, completionIds.size(), e);
+        }
+        Cache<String, Boolean> localCache = localCaches.get(scope);
+        completionIds.forEach(id -> localCache.put(id, true));
+    }
+}
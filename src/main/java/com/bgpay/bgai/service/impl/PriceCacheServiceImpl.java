@@ -1,5 +1,6 @@
 package com.bgpay.bgai.service.impl;
 
+import com.bgpay.bgai.cache.PriceTable;
 import com.bgpay.bgai.entity.PriceConfig;
 import com.bgpay.bgai.entity.PriceQuery;
 import com.bgpay.bgai.exception.BillingException;
@@ -13,18 +14,25 @@ import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
- * This service class is responsible for caching price configurations in Redis.
- * It uses Redisson for distributed locking to ensure thread - safety when accessing the cache.
+ * This service class is responsible for caching price configurations.
+ * Lookups are served from an in-process {@link PriceTable} snapshot; Redis, guarded by a Redisson lock,
+ * is only consulted on a cold miss. The snapshot is rebuilt when a price version is switched on any node
+ * (announced over Redis pub/sub with a monotonically increasing version) and when its validity expires.
  */
 @Service
 @Slf4j
@@ -36,48 +44,131 @@ public class PriceCacheServiceImpl implements PriceCacheService {
     private final RedisTemplate<String, Object> redisTemplate;
     private final PriceConfigService priceConfigService;
     private final RedissonClient redissonClient;
+    private final RedisMessageListenerContainer listenerContainer;
     private static final Duration CACHE_TTL = Duration.ofHours(1);
     private static final String NULL_CACHE_PREFIX = "NULL:";
+    private static final String PRICE_TABLE_VERSION_KEY = "PRICE_TABLE_VERSION";
+    private static final long RELOAD_RETRY_MS = 5_000;
     private static final Random RANDOM = new Random();
 
+    private final Object reloadMonitor = new Object();
+    private volatile PriceTable priceTable = PriceTable.empty();
+    private volatile long nextReloadAttemptAt;
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(
+                (message, pattern) -> onPriceTableRefresh(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(PRICE_TABLE_CHANNEL));
+        try {
+            String published = stringTemplate.opsForValue().get(PRICE_TABLE_VERSION_KEY);
+            reloadPriceTable(published == null ? 0 : Long.parseLong(published));
+        } catch (Exception e) {
+            log.warn("价格表初始化失败，将在首次查询时重试", e);
+        }
+    }
+
     /**
-     * Retrieves a price configuration from the cache. If the configuration is not in the cache,
-     * it tries to fetch it from the database and then caches it.
+     * Retrieves a price configuration. The in-process price table answers without any remote call;
+     * only when it has no entry does the lookup fall through to Redis and the database.
      *
      * @param query The price query object containing conditions for retrieving the price configuration.
      * @return The price configuration if found, otherwise null.
      */
     @Override
     public PriceConfig getPriceConfig(PriceQuery query) {
+        PriceTable table = priceTable;
+        if (!table.isFresh()) {
+            table = reloadStale(table);
+        }
+        if (table.isFresh()) {
+            PriceConfig config = table.find(query);
+            if (config != null) {
+                return config;
+            }
+        }
+        return loadThroughRedis(query);
+    }
+
+    @Override
+    public boolean isInPriceTable(PriceQuery query) {
+        PriceTable table = priceTable;
+        return table.isFresh() && table.find(query) != null;
+    }
+
+    /**
+     * Announces a price change to every node. Each node rebuilds its price table from the database
+     * and swaps it in unless it already holds a newer version.
+     */
+    @Override
+    public void refreshPriceTable() {
+        Long version = stringTemplate.opsForValue().increment(PRICE_TABLE_VERSION_KEY);
+        stringTemplate.convertAndSend(PRICE_TABLE_CHANNEL, String.valueOf(version));
+        log.info("Published price table version {}", version);
+    }
+
+    /**
+     * Periodic rebuild in case a refresh message was missed.
+     */
+    @Scheduled(fixedDelayString = "${price.table.reload-interval-ms:300000}",
+            initialDelayString = "${price.table.reload-interval-ms:300000}")
+    public void scheduledReload() {
+        try {
+            reloadPriceTable(priceTable.getVersion());
+        } catch (Exception e) {
+            log.warn("价格表定时重建失败", e);
+        }
+    }
+
+    private void onPriceTableRefresh(String payload) {
+        try {
+            long version = Long.parseLong(payload);
+            if (version > priceTable.getVersion()) {
+                reloadPriceTable(version);
+            }
+        } catch (Exception e) {
+            log.error("价格表刷新失败 [version={}]", payload, e);
+        }
+    }
+
+    private PriceTable reloadStale(PriceTable stale) {
+        synchronized (reloadMonitor) {
+            if (priceTable != stale || System.currentTimeMillis() < nextReloadAttemptAt) {
+                return priceTable;
+            }
+            try {
+                reloadPriceTable(Math.max(stale.getVersion(), 0));
+            } catch (Exception e) {
+                nextReloadAttemptAt = System.currentTimeMillis() + RELOAD_RETRY_MS;
+                log.warn("价格表重建失败，回退到Redis缓存", e);
+            }
+            return priceTable;
+        }
+    }
+
+    private void reloadPriceTable(long version) {
+        PriceTable table = PriceTable.build(version, priceConfigService.list(), LocalDateTime.now());
+        synchronized (reloadMonitor) {
+            // 版本化替换：乱序到达的旧版本不会覆盖新版本
+            if (version < priceTable.getVersion()) {
+                log.debug("忽略过期的价格表版本 {} (当前 {})", version, priceTable.getVersion());
+                return;
+            }
+            priceTable = table;
+        }
+        log.info("Price table loaded [version={}, entries={}]", version, table.size());
+    }
+
+    private PriceConfig loadThroughRedis(PriceQuery query) {
         String cacheKey = generateCacheKey(query);
-        String nullKey = NULL_CACHE_PREFIX + cacheKey;
         RLock lock = redissonClient.getLock(cacheKey + ":lock");
 
         try {
             if (lock.tryLock(100, 30000, TimeUnit.MILLISECONDS)) {
-                // 增加异常捕获逻辑
-                try {
-                    PriceConfig config = priceConfigTemplate.opsForValue().get(cacheKey);
-                    if (config != null) return config;
-                } catch (Exception e) {
-                    log.warn("反序列化失败，删除无效缓存: {}", cacheKey, e);
-                    priceConfigTemplate.delete(cacheKey); // 清理无效缓存
-                }
-
-                if (Boolean.TRUE.equals(stringTemplate.hasKey(nullKey))) {
-                    return null;
-                }
-
-                PriceConfig config = priceConfigService.findValidPriceConfig(query);
-                if (config == null) {
-                    stringTemplate.opsForValue().set(nullKey, "empty", Duration.ofMinutes(5 + RANDOM.nextInt(10)));
-                    return null;
-                }
-
-                priceConfigTemplate.opsForValue().set(cacheKey, config, CACHE_TTL.plusSeconds(RANDOM.nextInt(300)));
-                return config;
+                return loadFromRedisOrDb(query, cacheKey, true);
             }
-            return null;
+            // 未抢到锁时不再返回null，直接读取（不回填缓存）
+            return loadFromRedisOrDb(query, cacheKey, false);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new BillingException("Interrupted while getting price configuration", e);
@@ -87,6 +178,35 @@ public class PriceCacheServiceImpl implements PriceCacheService {
             }
         }
     }
+
+    private PriceConfig loadFromRedisOrDb(PriceQuery query, String cacheKey, boolean populate) {
+        String nullKey = NULL_CACHE_PREFIX + cacheKey;
+        // 增加异常捕获逻辑
+        try {
+            PriceConfig config = priceConfigTemplate.opsForValue().get(cacheKey);
+            if (config != null) return config;
+        } catch (Exception e) {
+            log.warn("反序列化失败，删除无效缓存: {}", cacheKey, e);
+            priceConfigTemplate.delete(cacheKey); // 清理无效缓存
+        }
+
+        if (Boolean.TRUE.equals(stringTemplate.hasKey(nullKey))) {
+            return null;
+        }
+
+        PriceConfig config = priceConfigService.findValidPriceConfig(query);
+        if (!populate) {
+            return config;
+        }
+        if (config == null) {
+            stringTemplate.opsForValue().set(nullKey, "empty", Duration.ofMinutes(5 + RANDOM.nextInt(10)));
+            return null;
+        }
+
+        priceConfigTemplate.opsForValue().set(cacheKey, config, CACHE_TTL.plusSeconds(RANDOM.nextInt(300)));
+        return config;
+    }
+
     /**
      * Generates a cache key based on the given price query.
      *
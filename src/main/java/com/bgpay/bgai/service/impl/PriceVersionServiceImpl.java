@@ -47,6 +47,8 @@ public class PriceVersionServiceImpl extends ServiceImpl<PriceVersionMapper, Pri
                     public void afterCommit() {
                         // 按模型刷新缓存，提升性能
                         priceCacheService.refreshCacheByModel(newVersion.getModelType());
+                        // 通知所有节点重建本地价格表
+                        priceCacheService.refreshPriceTable();
                     }
                 }
         );
@@ -1,24 +1,28 @@
 package com.bgpay.bgai.service.impl;
 
-import com.alibaba.fastjson2.JSON;
+import com.bgpay.bgai.cache.TimePeriodResolver;
 import com.bgpay.bgai.entity.PriceConfig;
 import com.bgpay.bgai.entity.PriceQuery;
 import com.bgpay.bgai.entity.UsageCalculationDTO;
 import com.bgpay.bgai.entity.UsageRecord;
 import com.bgpay.bgai.exception.BillingException;
+import com.bgpay.bgai.response.ChatDiagnostics;
 import com.bgpay.bgai.service.BillingService;
+import com.bgpay.bgai.service.DedupService;
 import com.bgpay.bgai.service.PriceCacheService;
 import com.bgpay.bgai.service.UsageRecordService;
-import com.bgpay.bgai.service.mq.MQConsumerService;
-import com.bgpay.bgai.service.mq.RocketMQProducerService;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
+import com.bgpay.bgai.service.UserSpendService;
+import com.bgpay.bgai.service.deepseek.ChatMetrics;
+import com.bgpay.bgai.service.mq.BillingEventBus;
+import com.bgpay.bgai.service.mq.BillingMessageCodec;
+import com.bgpay.bgai.service.mq.MessageTracing;
+import com.bgpay.bgai.utils.CostEngine;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.tracing.Tracer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.common.message.MessageExt;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.retry.annotation.Backoff;
@@ -29,12 +33,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static com.bgpay.bgai.entity.PriceConstants.*;
 import static com.bgpay.bgai.entity.PriceConstants.INPUT_TYPE;
@@ -44,30 +47,17 @@ import static com.bgpay.bgai.entity.PriceConstants.INPUT_TYPE;
 @RequiredArgsConstructor
 @Slf4j
 public class RocketMQBillingServiceImpl implements BillingService {
-    private static final String BILLING_TOPIC = "BILLING_TOPIC";
-    private static final String BILLING_TAG = "USER_BILLING";
     private static final String LOCK_KEY_PREFIX = "BILLING_LOCK:";
-    private static final ZoneId BEIJING_ZONE = ZoneId.of("Asia/Shanghai");
-    private static final LocalTime DISCOUNT_START = LocalTime.of(0, 30);
-    private static final LocalTime DISCOUNT_END = LocalTime.of(8, 30);
-    @Value("${rocketmq.consumer.group:billing-consumer-group}")
-    private String consumerGroup;
-
-    @Value("${rocketmq.name-server:}")
-    private String nameServer;
     private final RedisTemplate<String, String> redisTemplate;
     private final PriceCacheService priceCache;
+    private final TimePeriodResolver timePeriodResolver;
     private final UsageRecordService usageRecordService;
+    private final DedupService dedupService;
+    private final UserSpendService userSpendService;
     private final MeterRegistry meterRegistry;
-    private final RocketMQProducerService mqProducer;
-
-    private final MQConsumerService mqConsumerService;
-
-    // 本地缓存防止重复检查
-    private final Cache<String, Boolean> localCache = Caffeine.newBuilder()
-            .maximumSize(100_000)
-            .expireAfterWrite(5, TimeUnit.MINUTES)
-            .build();
+    private final BillingEventBus billingEventBus;
+    private final ChatMetrics chatMetrics;
+    private final MessageTracing messageTracing;
 
     // 新增消费成功回调接口
     public interface ConsumeCallback {
@@ -75,7 +65,7 @@ public class RocketMQBillingServiceImpl implements BillingService {
     }
 
     private ConsumeCallback consumeCallback = message ->
-            log.info("Message consumed successfully: {}", message.getMsgId());
+            log.debug("Message consumed successfully: {}", message.getMsgId());
 
     @Override
     @Async("billingExecutor")
@@ -87,24 +77,25 @@ public class RocketMQBillingServiceImpl implements BillingService {
 
     @Override
     public void processSingleRecord(UsageCalculationDTO dto, String userId) {
-        mqProducer.sendBillingMessage(dto, userId);
+        billingEventBus.publish(dto, userId);
     }
 
     @PostConstruct
     public void initConsumer() throws MQClientException {
-        mqConsumerService.initConsumer(
-                nameServer,
-                consumerGroup,
-                BILLING_TOPIC,
-                BILLING_TAG,
-                this::processMessage,  // 方法引用处理逻辑
-                msg -> log.info("Billing message consumed: {}", msg.getMsgId())
-        );
+        // 消费方式由事件总线决定：broker 上的并发、批量或顺序消费，或进程内消费
+        billingEventBus.subscribe(this);
     }
 
     @Transactional(rollbackFor = Exception.class)
     public void processMessage(MessageExt messageExt) {
-        try {
+        // 接续生产端写入消息属性的链路上下文
+        messageTracing.consume("billing.consume", List.of(messageExt), () -> billMessage(messageExt));
+    }
+
+    private void billMessage(MessageExt messageExt) {
+        ChatMetrics.Stage stage = chatMetrics.start(ChatMetrics.STAGE_BILLING_CONSUME);
+        String outcome = ChatMetrics.OUTCOME_ERROR;
+        try (Tracer.SpanInScope ignored = chatMetrics.inScope(stage)) {
             String userId = Optional.ofNullable(messageExt.getUserProperty("USER_ID"))
                     .orElseThrow(() -> new BillingException("缺失USER_ID"));
 
@@ -112,36 +103,111 @@ public class RocketMQBillingServiceImpl implements BillingService {
             UsageCalculationDTO dto = deserializeMessageBody(messageExt);
             String completionId = dto.getChatCompletionId();
 
-            if (checkProcessed(completionId)) {
+            if (dedupService.isProcessed(DedupService.Scope.BILLING, completionId)) {
                 log.debug("消息已处理 [CompletionId={}]", completionId);
                 return;
             }
 
             processWithDistributedLock(userId, completionId, () -> {
-                ZonedDateTime beijingTime = convertToBeijingTime(dto.getCreatedAt());
-                String timePeriod = determineTimePeriod(beijingTime);
-
-                BigDecimal inputCost = calculateInputCost(dto, timePeriod);
-                BigDecimal outputCost = calculateOutputCost(dto, timePeriod);
-
-                UsageRecord record = convertToEntity(dto, inputCost, outputCost, userId, timePeriod);
+                UsageRecord record = buildUsageRecord(dto, userId, priceCache::getPriceConfig);
                 usageRecordService.insertUsageRecord(record);
+                userSpendService.recordSpend(List.of(record));
 
-                updateProcessedCache(completionId);
+                dedupService.markProcessed(DedupService.Scope.BILLING, List.of(completionId));
                 return null;
             });
+            outcome = ChatMetrics.OUTCOME_SUCCESS;
         } catch (DuplicateKeyException e) {
             log.warn("重复记录 [CompletionId={}]", messageExt.getKeys());
-            updateProcessedCache(messageExt.getKeys());
+            dedupService.markProcessed(DedupService.Scope.BILLING, List.of(messageExt.getKeys()));
+            outcome = ChatMetrics.OUTCOME_SUCCESS;
         } catch (Exception e) {
             throw new BillingException("消息处理失败", e);
+        } finally {
+            chatMetrics.stop(stage, ChatMetrics.NONE, outcome);
+        }
+    }
+
+    /**
+     * 批量处理计费消息：批内去重，经去重服务过滤已处理消息（过滤器判定为新的消息不查 Redis 和数据库），
+     * 价格在内存中复用，整批多行插入后统一标记已处理
+     */
+    @Override
+    public void processMessages(List<MessageExt> messages) {
+        messageTracing.consume("billing.consume", messages, () -> timedBillMessages(messages));
+    }
+
+    private void timedBillMessages(List<MessageExt> messages) {
+        ChatMetrics.Stage stage = chatMetrics.start(ChatMetrics.STAGE_BILLING_CONSUME_BATCH);
+        String outcome = ChatMetrics.OUTCOME_ERROR;
+        try (Tracer.SpanInScope ignored = chatMetrics.inScope(stage)) {
+            billMessages(messages);
+            outcome = ChatMetrics.OUTCOME_SUCCESS;
+        } finally {
+            // 按批计时，与逐条消费的 billing.consume 分开，避免两种样本混在同一分布里
+            chatMetrics.stop(stage, ChatMetrics.NONE, outcome);
+        }
+    }
+
+    private void billMessages(List<MessageExt> messages) {
+        // 1. 解析并按 completionId 批内去重
+        Map<String, PendingBilling> pending = new LinkedHashMap<>();
+        for (MessageExt messageExt : messages) {
+            String userId = Optional.ofNullable(messageExt.getUserProperty("USER_ID"))
+                    .orElseThrow(() -> new BillingException("缺失USER_ID [MsgId=" + messageExt.getMsgId() + "]"));
+            UsageCalculationDTO dto = deserializeMessageBody(messageExt);
+            pending.putIfAbsent(dto.getChatCompletionId(), new PendingBilling(dto, userId));
+        }
+
+        // 2. 过滤已处理的消息，只有疑似重复的才查 Redis 与数据库
+        Set<String> processed = dedupService.findProcessed(DedupService.Scope.BILLING, pending.keySet());
+        processed.forEach(pending::remove);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // 3. 内存中计价，同一批次内相同价格条件只查询一次
+        Map<PriceQuery, PriceConfig> prices = new HashMap<>();
+        Function<PriceQuery, PriceConfig> priceLookup =
+                query -> prices.computeIfAbsent(query, priceCache::getPriceConfig);
+        List<UsageRecord> records = new ArrayList<>(pending.size());
+        for (PendingBilling billing : pending.values()) {
+            records.add(buildUsageRecord(billing.dto(), billing.userId(), priceLookup));
         }
+
+        // 4. 多行插入，并发重复时退化为逐条插入
+        List<UsageRecord> inserted = records;
+        try {
+            usageRecordService.insertUsageRecords(records);
+        } catch (DuplicateKeyException e) {
+            log.warn("批量插入存在重复记录，逐条重试 [size={}]", records.size());
+            inserted = new ArrayList<>(records.size());
+            for (UsageRecord record : records) {
+                try {
+                    usageRecordService.insertUsageRecord(record);
+                    inserted.add(record);
+                } catch (DuplicateKeyException duplicate) {
+                    log.warn("重复记录 [CompletionId={}]", record.getChatCompletionId());
+                }
+            }
+        }
+
+        // 5. 累加用户消费计数，只计入本次实际写入的记录
+        userSpendService.recordSpend(inserted);
+
+        // 6. 整批标记已处理
+        dedupService.markProcessed(DedupService.Scope.BILLING, pending.keySet());
+    }
+
+    @Override
+    public UsageRecord quote(UsageCalculationDTO dto, String userId, ChatDiagnostics diagnostics) {
+        return buildUsageRecord(dto, userId, query -> {
+            diagnostics.recordPriceLookup(priceCache.isInPriceTable(query));
+            return priceCache.getPriceConfig(query);
+        });
     }
 
-    private void updateProcessedCache(String completionId) {
-        String redisKey = "PROCESSED:" + completionId;
-        redisTemplate.opsForValue().set(redisKey, "1", 24, TimeUnit.HOURS);
-        localCache.put(completionId, true);
+    private record PendingBilling(UsageCalculationDTO dto, String userId) {
     }
 
     private <T> T processWithDistributedLock(String userId, String completionId, Callable<T> callback) {
@@ -165,131 +231,46 @@ public class RocketMQBillingServiceImpl implements BillingService {
 
 
     private UsageCalculationDTO deserializeMessageBody(MessageExt messageExt) {
-        return JSON.parseObject(messageExt.getBody(), UsageCalculationDTO.class);
+        try {
+            return BillingMessageCodec.decode(messageExt.getBody());
+        } catch (BillingMessageCodec.MalformedBillingMessageException e) {
+            throw new BillingException("消息体无法解析 [MsgId=" + messageExt.getMsgId() + "]", e);
+        }
     }
 
 
-    private boolean checkProcessed(String completionId) {
-        // 第一层：本地缓存检查
-        if (localCache.getIfPresent(completionId) != null) return true;
+    private UsageRecord buildUsageRecord(UsageCalculationDTO dto,
+                                         String userId,
+                                         Function<PriceQuery, PriceConfig> priceLookup) {
+        String timePeriod = timePeriodResolver.resolve(dto.getModelType(), dto.getCreatedAt());
 
-        // 第二层：Redis检查
-        String redisKey = "PROCESSED:" + completionId;
-        if (Boolean.TRUE.equals(redisTemplate.hasKey(redisKey))) {
-            localCache.put(completionId, true);
-            return false;
-        }
+        // Determine the cache status based on the number of cached tokens
+        String cacheStatus = dto.getPromptCacheHitTokens() > 0 ? CACHE_HIT : CACHE_MISS;
+        PriceConfig inputPrice = requirePriceConfig(priceLookup,
+                new PriceQuery(dto.getModelType(), timePeriod, cacheStatus, INPUT_TYPE));
+        PriceConfig outputPrice = requirePriceConfig(priceLookup,
+                new PriceQuery(dto.getModelType(), timePeriod, null, OUTPUT_TYPE));
 
-        // 第三层：数据库检查
-        boolean exists = usageRecordService.existsByCompletionId(completionId);
-        if (exists) {
-            redisTemplate.opsForValue().set(redisKey, "1", 24, TimeUnit.HOURS);
-        }
-        return exists;
-    }
+        int inputTokens = dto.getPromptCacheHitTokens() + dto.getPromptCacheMissTokens();
 
-    private UsageRecord convertToEntity(UsageCalculationDTO dto, BigDecimal inputCost, BigDecimal outputCost, String userId, String timePeriod) {
         UsageRecord record = new UsageRecord();
         record.setModelType(dto.getModelType());
         record.setChatCompletionId(dto.getChatCompletionId());
         record.setUserId(userId);
-        record.setInputCost(inputCost);
-        record.setOutputCost(outputCost);
-        Integer priceVersion = getPriceVersion(dto, timePeriod);
-        record.setPriceVersion(priceVersion);
+        record.setInputCost(CostEngine.cost(inputTokens, inputPrice.getPrice()));
+        record.setOutputCost(CostEngine.cost(dto.getCompletionTokens(), outputPrice.getPrice()));
+        // 价格版本以输出价格配置为准
+        record.setPriceVersion(outputPrice.getVersion());
         record.setCalculatedAt(LocalDateTime.now());
+        record.setUsageAt(dto.getCreatedAt());
         return record;
     }
 
-    private Integer getPriceVersion(UsageCalculationDTO dto, String timePeriod) {
-        // Create a price query object for output
-        PriceQuery query = new PriceQuery(
-                dto.getModelType(),
-                timePeriod,
-                null,
-                OUTPUT_TYPE
-        );
-
-        PriceConfig config = priceCache.getPriceConfig(query);
-
-        if (config == null) {
-            throw new BillingException("Price config not found");
-        } else if (!(config instanceof PriceConfig)) {
-            log.error("refresh Cache config by ModelType: {}", dto.getModelType());
-            priceCache.refreshCacheByModel(dto.getModelType());
-        }
-        Integer cachedVersion = config.getVersion();
-        log.info("Output price config priceVersion: {}", cachedVersion);
-        return cachedVersion;
-    }
-
-    private ZonedDateTime convertToBeijingTime(LocalDateTime utcTime) {
-        return utcTime.atZone(ZoneOffset.UTC)
-                .withZoneSameInstant(BEIJING_ZONE);
-    }
-
-    private String determineTimePeriod(ZonedDateTime beijingTime) {
-        LocalDate date = beijingTime.toLocalDate();
-
-        ZonedDateTime discountStart = ZonedDateTime.of(date, DISCOUNT_START, BEIJING_ZONE);
-        ZonedDateTime discountEnd = ZonedDateTime.of(date, DISCOUNT_END, BEIJING_ZONE);
-
-        if (discountEnd.isBefore(discountStart)) {
-            discountEnd = discountEnd.plusDays(1);
-        }
-
-        return (beijingTime.isAfter(discountStart) && beijingTime.isBefore(discountEnd))
-                ? "discount" : "standard";
-    }
-
-    private BigDecimal calculateInputCost(UsageCalculationDTO dto, String timePeriod) {
-        // Determine the cache status based on the number of cached tokens
-        String cacheStatus = dto.getPromptCacheHitTokens() > 0 ? CACHE_HIT : CACHE_MISS;
-        // Create a price query object for input
-        PriceQuery query = new PriceQuery(dto.getModelType(), timePeriod,
-                cacheStatus, INPUT_TYPE);
-
-        // Get the price configuration from the cache
-        PriceConfig config = priceCache.getPriceConfig(query);
-
-        // Calculate the total number of tokens
-        int totalTokens = dto.getPromptCacheHitTokens() +
-                dto.getPromptCacheMissTokens();
-        // Calculate the cost based on the total number of tokens and the price
-        return calculateTokenCost(totalTokens, config.getPrice());
-    }
-
-    private BigDecimal calculateTokenCost(int tokens, BigDecimal price) {
-        return BigDecimal.valueOf(tokens)
-                .divide(ONE_MILLION, 6, RoundingMode.HALF_UP)
-                .multiply(price)
-                .setScale(4, RoundingMode.HALF_UP);
-    }
-
-    private BigDecimal calculateOutputCost(UsageCalculationDTO usage, String timePeriod) {
-        // Create a price query object for output
-        PriceQuery query = new PriceQuery(
-                usage.getModelType(),
-                timePeriod,
-                null,
-                OUTPUT_TYPE
-        );
-
-        PriceConfig config = priceCache.getPriceConfig(query);
+    private PriceConfig requirePriceConfig(Function<PriceQuery, PriceConfig> priceLookup, PriceQuery query) {
+        PriceConfig config = priceLookup.apply(query);
         if (config == null) {
-            throw new BillingException("Price config not found");
-        } else if (!(config instanceof PriceConfig)) { // 冗余检查，实际由 RedisTemplate 保证类型
-            log.error("Invalid cache data type: {}", config.getClass());
-            priceCache.refreshCacheByModel(usage.getModelType()); // 触发缓存刷新
-            return calculateOutputCost(usage, timePeriod); // 重试
+            throw new BillingException("Price config not found: " + query);
         }
-        return calculateCost(usage.getCompletionTokens(), config.getPrice());
-    }
-
-    private BigDecimal calculateCost(int tokens, BigDecimal pricePerMillion) {
-        return BigDecimal.valueOf(tokens)
-                .divide(ONE_MILLION, 6, RoundingMode.HALF_UP)
-                .multiply(pricePerMillion)
-                .setScale(4, RoundingMode.HALF_UP);
+        return config;
     }
 }
\ No newline at end of file
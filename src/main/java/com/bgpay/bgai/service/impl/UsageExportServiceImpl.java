@@ -0,0 +1,100 @@
+package com.bgpay.bgai.service.impl;
+
+import com.bgpay.bgai.entity.UsageQuery;
+import com.bgpay.bgai.entity.UsageRecord;
+import com.bgpay.bgai.mapper.UsageRecordMapper;
+import com.bgpay.bgai.service.UsageExportService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UsageExportServiceImpl implements UsageExportService {
+    private static final String CSV_HEADER =
+            "id,model_type,chat_completion_id,user_id,input_cost,output_cost,price_version,calculated_at\n";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final UsageRecordMapper usageRecordMapper;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 只读事务走只读副本；游标依赖事务内的会话，导出期间保持打开
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public long export(UsageQuery query, Format format, OutputStream out) throws IOException {
+        long rows = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        try (Cursor<UsageRecord> cursor = usageRecordMapper.exportCursor(query)) {
+            if (format == Format.CSV) {
+                writer.write(CSV_HEADER);
+            }
+            for (UsageRecord record : cursor) {
+                if (format == Format.CSV) {
+                    writeCsv(writer, record);
+                } else {
+                    writer.write(objectMapper.writeValueAsString(record));
+                    writer.write('\n');
+                }
+                rows++;
+            }
+            writer.flush();
+        } catch (IOException | RuntimeException e) {
+            // 响应头已发出，客户端仍会收到 200，只能靠日志和中断计数发现文件不完整
+            meterRegistry.counter("usage.export.aborted", "format", format.getExtension()).increment();
+            log.warn("计费记录导出中断，已写出 {} 行 [format={}, query={}]", rows, format, query, e);
+            throw e;
+        } finally {
+            meterRegistry.counter("usage.export.rows", "format", format.getExtension()).increment(rows);
+        }
+        log.info("计费记录导出完成 [format={}, rows={}]", format, rows);
+        return rows;
+    }
+
+    private static void writeCsv(Writer writer, UsageRecord record) throws IOException {
+        writer.write(String.valueOf(record.getId()));
+        writer.write(',');
+        writeCsvField(writer, record.getModelType());
+        writer.write(',');
+        writeCsvField(writer, record.getChatCompletionId());
+        writer.write(',');
+        writeCsvField(writer, record.getUserId());
+        writer.write(',');
+        writeCsvField(writer, record.getInputCost() == null ? null : record.getInputCost().toPlainString());
+        writer.write(',');
+        writeCsvField(writer, record.getOutputCost() == null ? null : record.getOutputCost().toPlainString());
+        writer.write(',');
+        writeCsvField(writer, record.getPriceVersion() == null ? null : record.getPriceVersion().toString());
+        writer.write(',');
+        writeCsvField(writer, record.getCalculatedAt() == null ? null : record.getCalculatedAt().toString());
+        writer.write('\n');
+    }
+
+    // RFC 4180：含逗号、引号或换行的字段加引号，引号双写
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -1,5 +1,7 @@
 package com.bgpay.bgai.service.impl;
 
+import com.bgpay.bgai.datasource.DS;
+import com.bgpay.bgai.datasource.DataSourceContextHolder;
 import com.bgpay.bgai.entity.UsageInfo;
 import com.bgpay.bgai.entity.UsageRecord;
 import com.bgpay.bgai.mapper.UsageInfoMapper;
@@ -38,6 +40,7 @@ public class UsageInfoServiceImpl extends ServiceImpl<UsageInfoMapper, UsageInfo
     }
 
     @Override
+    @DS(DataSourceContextHolder.SLAVE)
     public boolean existsByCompletionId(String chatCompletionId) {
         // 使用 MyBatis-Plus 的 QueryWrapper 构建查询条件
         com.baomidou.mybatisplus.core.conditions.query.QueryWrapper<UsageInfo> queryWrapper = new com.baomidou.mybatisplus.core.conditions.query.QueryWrapper<>();
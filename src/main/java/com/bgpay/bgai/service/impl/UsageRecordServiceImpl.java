@@ -1,12 +1,23 @@
 package com.bgpay.bgai.service.impl;
 
+import com.bgpay.bgai.datasource.DS;
+import com.bgpay.bgai.datasource.DataSourceContextHolder;
+import com.bgpay.bgai.entity.UsageQuery;
 import com.bgpay.bgai.entity.UsageRecord;
 import com.bgpay.bgai.mapper.UsageRecordMapper;
+import com.bgpay.bgai.response.CursorPageResponse;
 import com.bgpay.bgai.service.UsageRecordService;
+import com.bgpay.bgai.utils.KeysetCursor;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * <p>
  *  服务实现类
@@ -21,6 +32,9 @@ public class UsageRecordServiceImpl extends ServiceImpl<UsageRecordMapper, Usage
     @Autowired
     private UsageRecordMapper usageRecordMapper;
 
+    @Value("${usage.query.count-cap:10000}")
+    private int countCap;
+
     @Override
     public void insertUsageRecord(UsageRecord usageRecord) {
         this.save(usageRecord);
@@ -32,6 +46,7 @@ public class UsageRecordServiceImpl extends ServiceImpl<UsageRecordMapper, Usage
     }
 
     @Override
+    @DS(DataSourceContextHolder.SLAVE)
     public boolean existsByCompletionId(String chatCompletionId) {
         // 使用 MyBatis-Plus 的 QueryWrapper 构建查询条件
         com.baomidou.mybatisplus.core.conditions.query.QueryWrapper<UsageRecord> queryWrapper = new com.baomidou.mybatisplus.core.conditions.query.QueryWrapper<>();
@@ -41,4 +56,47 @@ public class UsageRecordServiceImpl extends ServiceImpl<UsageRecordMapper, Usage
         // 如果记录数量大于 0，则表示存在该记录
         return count >0;
     }
+
+    @Override
+    @DS(DataSourceContextHolder.SLAVE)
+    public Set<String> findExistingCompletionIds(Collection<String> completionIds) {
+        if (completionIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        // 一次 IN 查询完成整批存在性检查
+        return new HashSet<>(usageRecordMapper.findExistingCompletionIds(completionIds));
+    }
+
+    @Override
+    public void insertUsageRecords(List<UsageRecord> usageRecords) {
+        if (!usageRecords.isEmpty()) {
+            usageRecordMapper.insertBatch(usageRecords);
+        }
+    }
+
+    @Override
+    @DS(DataSourceContextHolder.SLAVE)
+    public CursorPageResponse<UsageRecord> queryPage(UsageQuery query, String cursor, int size, boolean withCount) {
+        KeysetCursor after = cursor == null || cursor.isEmpty() ? null : KeysetCursor.decode(cursor);
+        // 多取一行判断是否还有下一页，省去 COUNT
+        List<UsageRecord> records = usageRecordMapper.findPage(query, after, size + 1);
+        boolean hasMore = records.size() > size;
+        if (hasMore) {
+            records = records.subList(0, size);
+        }
+        String nextCursor = null;
+        if (hasMore) {
+            UsageRecord last = records.get(records.size() - 1);
+            nextCursor = new KeysetCursor(last.getCalculatedAt(), last.getId()).encode();
+        }
+
+        Long total = null;
+        Boolean totalCapped = null;
+        if (withCount) {
+            long counted = usageRecordMapper.countCapped(query, countCap + 1);
+            totalCapped = counted > countCap;
+            total = Math.min(counted, countCap);
+        }
+        return new CursorPageResponse<>(records, nextCursor, hasMore, total, totalCapped);
+    }
 }
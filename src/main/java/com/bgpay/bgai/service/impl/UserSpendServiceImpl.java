@@ -0,0 +1,215 @@
+package com.bgpay.bgai.service.impl;
+
+import com.bgpay.bgai.entity.UsageRecord;
+import com.bgpay.bgai.entity.UserSpendDaily;
+import com.bgpay.bgai.mapper.UserSpendDailyMapper;
+import com.bgpay.bgai.service.UserSpendService;
+import com.bgpay.bgai.utils.CostEngine;
+import com.bgpay.bgai.utils.TimeZoneUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spend counters live in one Redis hash per user and day ({@code SPEND:{userId}:yyyyMMdd}) with a field
+ * per model plus a running total, all in units of 10^-4. Users touched on a day are tracked in sharded
+ * dirty sets, which the rollup drains with SPOP and writes to user_spend_daily. Days follow Beijing time
+ * and are taken from when the usage happened, not when it was billed. The rollup covers the days whose
+ * counters are still alive ({@code COUNTER_TTL}); usage that arrives later than that is not rolled up.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserSpendServiceImpl implements UserSpendService {
+    private static final String SPEND_KEY_PREFIX = "SPEND:";
+    private static final String DIRTY_KEY_PREFIX = "SPEND:DIRTY:";
+    private static final String QUOTA_KEY = "SPEND:QUOTA";
+    private static final String TOTAL_FIELD = "_total";
+    private static final Duration COUNTER_TTL = Duration.ofDays(3);
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final int ROLLUP_POP_SIZE = 500;
+
+    @Value("${billing.spend.dirty-shards:16}")
+    private int dirtyShards;
+
+    @Value("${billing.quota.daily-limit:0}")
+    private BigDecimal defaultDailyLimit;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final UserSpendDailyMapper userSpendDailyMapper;
+
+    @Override
+    public void recordSpend(Collection<UsageRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (UsageRecord record : records) {
+                    String day = spendDay(record).format(DAY_FORMAT);
+                    long units = toUnits(record.getInputCost()) + toUnits(record.getOutputCost());
+                    String key = spendKey(record.getUserId(), day);
+                    operations.opsForHash().increment(key, record.getModelType(), units);
+                    operations.opsForHash().increment(key, TOTAL_FIELD, units);
+                    operations.expire(key, COUNTER_TTL);
+
+                    String dirtyKey = dirtyKey(day, record.getUserId());
+                    operations.opsForSet().add(dirtyKey, record.getUserId());
+                    operations.expire(dirtyKey, COUNTER_TTL);
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public boolean hasRemainingQuota(String userId) {
+        String day = today().format(DAY_FORMAT);
+        // 一次往返读取当日总额与个人额度
+        List<Object> values = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                operations.opsForHash().get(spendKey(userId, day), TOTAL_FIELD);
+                operations.opsForHash().get(QUOTA_KEY, userId);
+                return null;
+            }
+        });
+        long limit = values.get(1) != null
+                ? Long.parseLong(values.get(1).toString())
+                : toUnits(defaultDailyLimit);
+        if (limit <= 0) {
+            return true;
+        }
+        long spent = values.get(0) != null ? Long.parseLong(values.get(0).toString()) : 0;
+        return spent < limit;
+    }
+
+    @Override
+    public BigDecimal getDailySpend(String userId, LocalDate date) {
+        Object total = redisTemplate.opsForHash().get(spendKey(userId, date.format(DAY_FORMAT)), TOTAL_FIELD);
+        if (total != null) {
+            return CostEngine.toDecimal(Long.parseLong(total.toString()));
+        }
+        // 计数已过期时读汇总表
+        return userSpendDailyMapper.sumByUserAndDate(userId, date);
+    }
+
+    @Override
+    public void setDailyQuota(String userId, BigDecimal dailyLimit) {
+        if (dailyLimit == null) {
+            redisTemplate.opsForHash().delete(QUOTA_KEY, userId);
+        } else {
+            redisTemplate.opsForHash().put(QUOTA_KEY, userId, String.valueOf(toUnits(dailyLimit)));
+        }
+    }
+
+    /**
+     * 汇总计数仍在有效期内的几天，跨零点或重投递的旧用量增量也能落库
+     */
+    @Scheduled(fixedDelayString = "${billing.spend.rollup-interval-ms:60000}")
+    public void rollup() {
+        LocalDate today = today();
+        for (long daysAgo = COUNTER_TTL.toDays() - 1; daysAgo >= 0; daysAgo--) {
+            LocalDate date = today.minusDays(daysAgo);
+            String day = date.format(DAY_FORMAT);
+            for (int shard = 0; shard < dirtyShards; shard++) {
+                try {
+                    rollupShard(date, day, DIRTY_KEY_PREFIX + day + ":" + shard);
+                } catch (Exception e) {
+                    log.error("消费汇总失败 [day={}, shard={}]", day, shard, e);
+                }
+            }
+        }
+    }
+
+    private void rollupShard(LocalDate date, String day, String dirtyKey) {
+        List<String> userIds;
+        while (!(userIds = popDirty(dirtyKey)).isEmpty()) {
+            List<String> users = userIds;
+            List<Object> counters = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) {
+                    users.forEach(userId -> operations.opsForHash().entries(spendKey(userId, day)));
+                    return null;
+                }
+            });
+
+            LocalDateTime now = LocalDateTime.now();
+            List<UserSpendDaily> rows = new ArrayList<>();
+            for (int i = 0; i < users.size(); i++) {
+                Map<?, ?> fields = (Map<?, ?>) counters.get(i);
+                for (Map.Entry<?, ?> field : fields.entrySet()) {
+                    if (TOTAL_FIELD.equals(field.getKey())) {
+                        continue;
+                    }
+                    rows.add(new UserSpendDaily()
+                            .setUserId(users.get(i))
+                            .setModelType(field.getKey().toString())
+                            .setSpendDate(date)
+                            .setCost(CostEngine.toDecimal(Long.parseLong(field.getValue().toString())))
+                            .setUpdatedAt(now));
+                }
+            }
+            if (!rows.isEmpty()) {
+                try {
+                    userSpendDailyMapper.upsertBatch(rows);
+                } catch (RuntimeException e) {
+                    // 写库失败时放回脏集合，下一轮重试
+                    redisTemplate.opsForSet().add(dirtyKey, users.toArray(new String[0]));
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private List<String> popDirty(String dirtyKey) {
+        List<String> popped = redisTemplate.opsForSet().pop(dirtyKey, ROLLUP_POP_SIZE);
+        return popped == null ? List.of() : popped;
+    }
+
+    private String spendKey(String userId, String day) {
+        return SPEND_KEY_PREFIX + "{" + userId + "}:" + day;
+    }
+
+    private String dirtyKey(String day, String userId) {
+        return DIRTY_KEY_PREFIX + day + ":" + Math.floorMod(userId.hashCode(), dirtyShards);
+    }
+
+    private static long toUnits(BigDecimal amount) {
+        return amount == null ? 0 : amount.setScale(CostEngine.COST_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * 按用量发生时间归日，重放、重投递或跨零点批量处理的用量不会记到处理当天
+     */
+    private static LocalDate spendDay(UsageRecord record) {
+        if (record.getUsageAt() != null) {
+            return TimeZoneUtils.toBeijingTime(record.getUsageAt()).toLocalDate();
+        }
+        return today();
+    }
+
+    private static LocalDate today() {
+        return LocalDate.now(TimeZoneUtils.BEIJING_ZONE);
+    }
+}
@@ -0,0 +1,49 @@
+package com.bgpay.bgai.service.mq;
+
+import com.bgpay.bgai.entity.BillingOutbox;
+import com.bgpay.bgai.entity.UsageCalculationDTO;
+import com.bgpay.bgai.service.BillingService;
+import org.apache.rocketmq.client.exception.MQClientException;
+
+import java.util.List;
+
+/**
+ * Transport of billing events from the chat path to the billing consumer.
+ * <p>
+ * Selected with {@code billing.bus}: {@code rocketmq} (default) goes through the broker,
+ * {@code local} keeps everything in this JVM backed by a file journal. Both deliver the events to
+ * {@link BillingService} as {@code MessageExt}s with the same body, keys and {@code USER_ID} property,
+ * so the billing code does not know which one it runs on.
+ */
+public interface BillingEventBus {
+
+    /**
+     * Publishes one billing event.
+     *
+     * @param dto    The usage to bill
+     * @param userId The user to bill
+     */
+    void publish(UsageCalculationDTO dto, String userId);
+
+    /**
+     * Encodes an event for the outbox, in the form {@link #publishAll} sends.
+     *
+     * @param dto The usage to bill
+     * @return The message body
+     */
+    byte[] encode(UsageCalculationDTO dto);
+
+    /**
+     * Publishes already encoded events, in order.
+     *
+     * @param events Events drained from the outbox
+     */
+    void publishAll(List<BillingOutbox> events);
+
+    /**
+     * Starts delivering events to the billing service.
+     *
+     * @param billingService The consumer
+     */
+    void subscribe(BillingService billingService) throws MQClientException;
+}
@@ -0,0 +1,238 @@
+package com.bgpay.bgai.service.mq;
+
+import com.alibaba.fastjson2.JSON;
+import com.bgpay.bgai.entity.UsageCalculationDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of billing messages.
+ * <p>
+ * Layout: a magic byte, a format version, the varint length of the field section, then tagged fields in
+ * the Protobuf wire style ({@code varint(fieldNumber << 3 | wireType)} followed by a varint or a
+ * length-prefixed UTF-8 string). Decoders skip unknown fields and leave missing ones at their defaults,
+ * so fields can be added without a version bump; field numbers are never reused. Bodies that do not
+ * start with the magic byte are decoded as JSON, which keeps messages produced before the switch readable.
+ * <p>
+ * Because every field is optional, a body cut on a field boundary would otherwise decode to a message
+ * with fewer tokens; the declared length catches that. A truncated or corrupt binary body, or one written
+ * by a newer format version, fails with {@link MalformedBillingMessageException}. Version 1 bodies, which
+ * have no length, are still decoded but cannot be checked for truncation. Consumers reject versions they
+ * do not know, so upgrade every consumer before producers.
+ */
+public final class BillingMessageCodec {
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final byte VERSION = 2;
+    // 无长度字段的旧版本，仍可解码
+    private static final byte VERSION_UNCHECKED = 1;
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_BYTES = 2;
+
+    private static final int FIELD_COMPLETION_ID = 1;
+    private static final int FIELD_MODEL_TYPE = 2;
+    private static final int FIELD_CACHE_HIT_TOKENS = 3;
+    private static final int FIELD_CACHE_MISS_TOKENS = 4;
+    private static final int FIELD_COMPLETION_TOKENS = 5;
+    private static final int FIELD_CREATED_SECONDS = 6;
+    private static final int FIELD_CREATED_NANOS = 7;
+
+    private BillingMessageCodec() {
+    }
+
+    public static byte[] encode(UsageCalculationDTO dto) {
+        Writer writer = new Writer();
+        writer.writeString(FIELD_COMPLETION_ID, dto.getChatCompletionId());
+        writer.writeString(FIELD_MODEL_TYPE, dto.getModelType());
+        writer.writeVarintField(FIELD_CACHE_HIT_TOKENS, dto.getPromptCacheHitTokens());
+        writer.writeVarintField(FIELD_CACHE_MISS_TOKENS, dto.getPromptCacheMissTokens());
+        writer.writeVarintField(FIELD_COMPLETION_TOKENS, dto.getCompletionTokens());
+        if (dto.getCreatedAt() != null) {
+            // LocalDateTime 按 UTC 展开，仅用于无损还原，不做时区换算
+            writer.writeVarintField(FIELD_CREATED_SECONDS, zigZag(dto.getCreatedAt().toEpochSecond(ZoneOffset.UTC)));
+            writer.writeVarintField(FIELD_CREATED_NANOS, dto.getCreatedAt().getNano());
+        }
+
+        Writer header = new Writer();
+        header.bytes[header.position++] = MAGIC;
+        header.bytes[header.position++] = VERSION;
+        header.writeVarint(writer.position);
+        byte[] body = Arrays.copyOf(header.bytes, header.position + writer.position);
+        System.arraycopy(writer.bytes, 0, body, header.position, writer.position);
+        return body;
+    }
+
+    /**
+     * Decodes a binary body, or a JSON body written by older producers.
+     *
+     * @throws MalformedBillingMessageException if a binary body is truncated, corrupt or of an unsupported version
+     */
+    public static UsageCalculationDTO decode(byte[] body) {
+        if (body.length == 0 || body[0] != MAGIC) {
+            return JSON.parseObject(body, UsageCalculationDTO.class);
+        }
+        if (body.length < 2) {
+            throw new MalformedBillingMessageException("missing format version", body.length, 1);
+        }
+        if (body[1] != VERSION && body[1] != VERSION_UNCHECKED) {
+            // 新版本生产者可能改变了字段语义，不能按当前版本解码
+            throw new MalformedBillingMessageException("unsupported format version " + body[1], body.length, 1);
+        }
+        Reader reader = new Reader(body, 2);
+        if (body[1] == VERSION) {
+            // 字段都是可选的，截在字段边界上的消息只能靠声明长度发现
+            int start = reader.position;
+            long length = reader.readVarint();
+            if (length != body.length - reader.position) {
+                throw new MalformedBillingMessageException("declared length " + length + " but "
+                        + (body.length - reader.position) + " bytes follow", body.length, start);
+            }
+        }
+        UsageCalculationDTO dto = new UsageCalculationDTO();
+        long createdSeconds = 0;
+        int createdNanos = 0;
+        boolean hasCreatedAt = false;
+        while (reader.position < body.length) {
+            int tag = (int) reader.readVarint();
+            int field = tag >>> 3;
+            int wireType = tag & 7;
+            switch (field) {
+                case FIELD_COMPLETION_ID -> dto.setChatCompletionId(reader.readString());
+                case FIELD_MODEL_TYPE -> dto.setModelType(reader.readString());
+                case FIELD_CACHE_HIT_TOKENS -> dto.setPromptCacheHitTokens((int) reader.readVarint());
+                case FIELD_CACHE_MISS_TOKENS -> dto.setPromptCacheMissTokens((int) reader.readVarint());
+                case FIELD_COMPLETION_TOKENS -> dto.setCompletionTokens((int) reader.readVarint());
+                case FIELD_CREATED_SECONDS -> {
+                    createdSeconds = unZigZag(reader.readVarint());
+                    hasCreatedAt = true;
+                }
+                case FIELD_CREATED_NANOS -> createdNanos = (int) reader.readVarint();
+                default -> reader.skip(wireType);
+            }
+        }
+        if (hasCreatedAt) {
+            dto.setCreatedAt(LocalDateTime.ofEpochSecond(createdSeconds, createdNanos, ZoneOffset.UTC));
+        }
+        return dto;
+    }
+
+    public static boolean isBinary(byte[] body) {
+        return body.length > 0 && body[0] == MAGIC;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private byte[] bytes = new byte[64];
+        private int position;
+
+        private void writeString(int field, String value) {
+            if (value == null) {
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint((long) field << 3 | WIRE_BYTES);
+            writeVarint(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, position, utf8.length);
+            position += utf8.length;
+        }
+
+        private void writeVarintField(int field, long value) {
+            if (value == 0) {
+                // 默认值不写，解码时保持为 0
+                return;
+            }
+            writeVarint((long) field << 3 | WIRE_VARINT);
+            writeVarint(value);
+        }
+
+        private void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        private Reader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        private long readVarint() {
+            int start = position;
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new MalformedBillingMessageException("truncated varint", bytes.length, start);
+                }
+                byte b = bytes[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new MalformedBillingMessageException("varint longer than 10 bytes", bytes.length, start);
+        }
+
+        private String readString() {
+            int length = readLength();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private void skip(int wireType) {
+            switch (wireType) {
+                case WIRE_VARINT -> readVarint();
+                case WIRE_BYTES -> position += readLength();
+                default -> throw new MalformedBillingMessageException("unsupported wire type " + wireType,
+                        bytes.length, position);
+            }
+        }
+
+        /**
+         * 读取长度前缀，并确认后面还剩这么多字节
+         */
+        private int readLength() {
+            int start = position;
+            long length = readVarint();
+            if (length < 0 || length > bytes.length - position) {
+                throw new MalformedBillingMessageException("length " + length + " exceeds remaining "
+                        + (bytes.length - position) + " bytes", bytes.length, start);
+            }
+            return (int) length;
+        }
+    }
+
+    /**
+     * Thrown when a binary billing message cannot be decoded.
+     */
+    public static final class MalformedBillingMessageException extends IllegalArgumentException {
+        private MalformedBillingMessageException(String reason, int bodyLength, int offset) {
+            super("Malformed billing message: " + reason + " at offset " + offset + " of " + bodyLength + " bytes");
+        }
+    }
+}
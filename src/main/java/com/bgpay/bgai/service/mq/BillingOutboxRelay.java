@@ -0,0 +1,99 @@
+package com.bgpay.bgai.service.mq;
+
+import com.bgpay.bgai.entity.BillingOutbox;
+import com.bgpay.bgai.mapper.BillingOutboxMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Drains billing_outbox to the billing event bus in outbox mode.
+ * <p>
+ * Each round locks the oldest events with {@code FOR UPDATE SKIP LOCKED}, sends them as one batch and
+ * deletes them in the same transaction, so several nodes can relay concurrently without sharing rows.
+ * A failed send rolls back and leaves the events for the next round. Delivery is at least once: a crash
+ * between the broker ack and the commit resends the batch, which the consumers' dedup absorbs.
+ */
+@Slf4j
+@Component
+public class BillingOutboxRelay {
+
+    @Value("${billing.outbox.enabled:false}")
+    private boolean enabled;
+
+    @Value("${billing.outbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${billing.outbox.max-rounds:50}")
+    private int maxRounds;
+
+    private final BillingOutboxMapper billingOutboxMapper;
+    private final BillingEventBus billingEventBus;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Timer relayLag;
+
+    public BillingOutboxRelay(BillingOutboxMapper billingOutboxMapper,
+                              BillingEventBus billingEventBus,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry) {
+        this.billingOutboxMapper = billingOutboxMapper;
+        this.billingEventBus = billingEventBus;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.relayLag = Timer.builder("billing.outbox.lag")
+                .description("Time from outbox write to broker ack")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 每轮最多投递 maxRounds 批，积压时连续投递，空闲时等待下一次调度
+     */
+    @Scheduled(fixedDelayString = "${billing.outbox.relay-interval-ms:200}")
+    public void relay() {
+        if (!enabled) {
+            return;
+        }
+        for (int round = 0; round < maxRounds; round++) {
+            int relayed;
+            try {
+                relayed = relayOnce();
+            } catch (Exception e) {
+                meterRegistry.counter("billing.outbox.failures").increment();
+                log.error("计费发件箱投递失败，下一轮重试", e);
+                return;
+            }
+            if (relayed < batchSize) {
+                return;
+            }
+        }
+    }
+
+    private int relayOnce() {
+        Integer relayed = transactionTemplate.execute(status -> {
+            List<BillingOutbox> events = billingOutboxMapper.lockOldest(batchSize);
+            if (events.isEmpty()) {
+                return 0;
+            }
+            billingEventBus.publishAll(events);
+            billingOutboxMapper.deleteByIdList(events.stream().map(BillingOutbox::getId).toList());
+            LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+            events.forEach(event -> relayLag.record(Duration.between(event.getCreatedAt(), now)));
+            return events.size();
+        });
+        if (relayed != null && relayed > 0) {
+            meterRegistry.counter("billing.outbox.relayed").increment(relayed);
+        }
+        return relayed == null ? 0 : relayed;
+    }
+}
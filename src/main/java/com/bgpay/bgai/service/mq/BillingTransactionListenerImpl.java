@@ -1,40 +1,28 @@
 package com.bgpay.bgai.service.mq;
 
-import com.alibaba.fastjson2.JSON;
 import com.bgpay.bgai.entity.UsageCalculationDTO;
-import com.bgpay.bgai.service.UsageInfoService;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
+import com.bgpay.bgai.service.DedupService;
+import com.bgpay.bgai.service.deepseek.CompletionWriteBuffer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.spring.annotation.RocketMQTransactionListener;
 import org.apache.rocketmq.spring.core.RocketMQLocalTransactionListener;
 import org.apache.rocketmq.spring.core.RocketMQLocalTransactionState;
 import org.apache.rocketmq.spring.support.RocketMQHeaders;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.messaging.Message;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.TimeUnit;
-
 @Component
+@ConditionalOnProperty(name = "billing.bus", havingValue = "rocketmq", matchIfMissing = true)
 @RocketMQTransactionListener()
 @Slf4j
 public class BillingTransactionListenerImpl implements RocketMQLocalTransactionListener {
-    private static final String PROCESSED_KEY_PREFIX = "PROCESSED:";
-    private static final int LOCAL_CACHE_MAX_SIZE = 100_000;
-    private static final int LOCAL_CACHE_EXPIRE_MINUTES = 5;
-    private static final int REDIS_CACHE_EXPIRE_HOURS = 24;
-
-    private final Cache<String, Boolean> localCache = Caffeine.newBuilder()
-            .maximumSize(LOCAL_CACHE_MAX_SIZE)
-            .expireAfterWrite(LOCAL_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
-            .build();
-    private final RedisTemplate<String, String> redisTemplate;
-    private final UsageInfoService usageInfoService;
+    private final DedupService dedupService;
+    private final CompletionWriteBuffer completionWriteBuffer;
 
-    public BillingTransactionListenerImpl(RedisTemplate<String, String> redisTemplate, UsageInfoService usageInfoService) {
-        this.redisTemplate = redisTemplate;
-        this.usageInfoService = usageInfoService;
+    public BillingTransactionListenerImpl(DedupService dedupService, CompletionWriteBuffer completionWriteBuffer) {
+        this.dedupService = dedupService;
+        this.completionWriteBuffer = completionWriteBuffer;
     }
 
     @Override
@@ -49,12 +37,28 @@ public class BillingTransactionListenerImpl implements RocketMQLocalTransactionL
     }
 
 
+    /**
+     * 回查结果为 ROLLBACK 会丢弃半消息，因此不看布隆过滤器，以 Redis 标记和主库为准；
+     * usage_info 仍在写缓冲队列或落盘文件中（数据库故障期间）、或检查失败时返回 UNKNOWN，等待下次回查
+     */
     @Override
     public RocketMQLocalTransactionState checkLocalTransaction(Message msg) {
         String completionId = extractCompletionId(msg, null);
-        return checkProcessed(completionId) ?
-                RocketMQLocalTransactionState.COMMIT :
-                RocketMQLocalTransactionState.ROLLBACK;
+        if (completionId == null) {
+            return RocketMQLocalTransactionState.ROLLBACK;
+        }
+        try {
+            // 先看是否待写入：写入成功后才移出待写入集合，避免两次检查之间落库而误判回滚
+            if (completionWriteBuffer.isPending(completionId)) {
+                return RocketMQLocalTransactionState.UNKNOWN;
+            }
+            return dedupService.isProcessedConfirmed(DedupService.Scope.USAGE_INFO, completionId) ?
+                    RocketMQLocalTransactionState.COMMIT :
+                    RocketMQLocalTransactionState.ROLLBACK;
+        } catch (Exception e) {
+            log.error("事务回查失败，completionId: {}", completionId, e);
+            return RocketMQLocalTransactionState.UNKNOWN;
+        }
     }
 
 
@@ -72,7 +76,7 @@ public class BillingTransactionListenerImpl implements RocketMQLocalTransactionL
 
         // 最后尝试解析消息体
         try {
-            UsageCalculationDTO dto = JSON.parseObject((byte[]) msg.getPayload(), UsageCalculationDTO.class);
+            UsageCalculationDTO dto = BillingMessageCodec.decode((byte[]) msg.getPayload());
             return dto.getChatCompletionId();
         } catch (Exception e) {
             log.error("消息体解析失败", e);
@@ -82,21 +86,8 @@ public class BillingTransactionListenerImpl implements RocketMQLocalTransactionL
 
 
     public boolean checkProcessed(String completionId) {
-        if (localCache.getIfPresent(completionId) != null) {
-            return true;
-        }
-        String redisKey = PROCESSED_KEY_PREFIX + completionId;
-        if (Boolean.TRUE.equals(redisTemplate.hasKey(redisKey))) {
-            localCache.put(completionId, true);
-            return true;
-        }
         try {
-            boolean dbExists = usageInfoService.existsByCompletionId(completionId);
-            if (dbExists) {
-                redisTemplate.opsForValue().set(redisKey, "1", REDIS_CACHE_EXPIRE_HOURS, TimeUnit.HOURS);
-                localCache.put(completionId, true);
-            }
-            return dbExists;
+            return dedupService.isProcessed(DedupService.Scope.USAGE_INFO, completionId);
         } catch (Exception e) {
             log.error("数据库检查失败，completionId: {}", completionId, e);
             return false;
@@ -0,0 +1,266 @@
+package com.bgpay.bgai.service.mq;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates chat-log messages per message queue and sends each queue's messages as one batch once it
+ * reaches {@code maxBatchBytes} or its oldest message has waited {@code lingerMs}. A batch never grows
+ * past {@code maxBatchBytes} in encoded size; a message that alone reaches it is sent by itself.
+ * <p>
+ * Batching leaves every message as it is on the wire. With {@code compress} set, bodies are additionally
+ * LZ4 (frame format) compressed on the caller's thread and tagged with the {@value #ENCODING_PROPERTY}
+ * user property, which consumers must understand before it is turned on. Buffered plus in-flight bytes are capped by a semaphore:
+ * once the cap is reached {@link #append} waits up to {@code offerTimeoutMs} and then refuses the message.
+ * A single sender thread owns the buffers and sends synchronously, so batches of one queue never overlap.
+ */
+@Slf4j
+public class ChatLogBatcher {
+    public static final String ENCODING_PROPERTY = "CONTENT_ENCODING";
+    public static final String LZ4_ENCODING = "lz4-frame";
+    private static final long QUEUE_REFRESH_MS = 30_000;
+    // 批量编码中每条消息的固定头：总长、魔数、CRC、flag、body 长度、属性长度
+    private static final int MESSAGE_OVERHEAD_BYTES = 4 + 4 + 4 + 4 + 4 + 2;
+
+    private final DefaultMQProducer producer;
+    private final String topic;
+    private final String tag;
+
+    private final int maxBatchBytes;
+    private final long lingerMs;
+    private final int maxInFlightBytes;
+    private final long offerTimeoutMs;
+    private final boolean compress;
+    private final MessageTracing messageTracing;
+
+    private final Semaphore inFlightBytes;
+    private final LinkedBlockingQueue<Pending> incoming = new LinkedBlockingQueue<>();
+    private final Map<MessageQueue, Batch> batches = new HashMap<>();
+    private List<MessageQueue> queues = List.of();
+    private long queuesFetchedAt;
+    private volatile boolean running;
+    private Thread sender;
+
+    public ChatLogBatcher(DefaultMQProducer producer, String topic, String tag, int maxBatchBytes,
+                          long lingerMs, int maxInFlightBytes, long offerTimeoutMs, boolean compress,
+                          MessageTracing messageTracing) {
+        this.producer = producer;
+        this.topic = topic;
+        this.tag = tag;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMs = lingerMs;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.compress = compress;
+        this.messageTracing = messageTracing;
+        this.inFlightBytes = new Semaphore(maxInFlightBytes);
+    }
+
+    public void start() {
+        running = true;
+        sender = new Thread(this::runLoop, "ChatLog-batcher");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Queues one chat log.
+     *
+     * @param key      The message key, also used to pick the message queue
+     * @param body     The uncompressed body
+     * @param callback Notified once the batch containing the message has been sent or has failed
+     * @return false if the in-flight cap was not released within the offer timeout
+     */
+    public boolean append(String key, byte[] body, MQCallback callback) throws InterruptedException {
+        byte[] payload = compress ? lz4(body) : body;
+        int permits = Math.min(payload.length, maxInFlightBytes);
+        if (!inFlightBytes.tryAcquire(permits, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        Message message = new Message(topic, tag, key, payload);
+        if (compress) {
+            message.putUserProperty(ENCODING_PROPERTY, LZ4_ENCODING);
+        }
+        // 在调用方线程注入链路上下文，发送线程上已没有请求的 span
+        messageTracing.inject(message);
+        incoming.add(new Pending(message, permits, callback));
+        return true;
+    }
+
+    public long inFlightBytes() {
+        return maxInFlightBytes - inFlightBytes.availablePermits();
+    }
+
+    /**
+     * Stops accepting and sends whatever is buffered.
+     */
+    public void close() {
+        running = false;
+        if (sender == null) {
+            return;
+        }
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLoop() {
+        while (running || !incoming.isEmpty() || !batches.isEmpty()) {
+            try {
+                Pending pending = incoming.poll(Math.max(1, lingerMs / 2), TimeUnit.MILLISECONDS);
+                while (pending != null) {
+                    add(pending);
+                    pending = incoming.poll();
+                }
+                flushDue(!running);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Exception e) {
+                log.error("Chat log batcher loop failed", e);
+            }
+        }
+    }
+
+    private void add(Pending pending) {
+        MessageQueue queue = selectQueue(pending.message().getKeys());
+        int size = encodedSize(pending.message());
+        // 先发出已攒的批次，保证批次不超过 maxBatchBytes（Broker 拒收超限的整批）
+        Batch current = batches.get(queue);
+        if (current != null && current.bytes + size > maxBatchBytes) {
+            batches.remove(queue);
+            send(queue, current);
+        }
+        if (size >= maxBatchBytes) {
+            // 单条就达到上限，单独发送
+            Batch single = new Batch(System.currentTimeMillis());
+            single.add(pending, size);
+            send(queue, single);
+            return;
+        }
+        Batch batch = batches.computeIfAbsent(queue, q -> new Batch(System.currentTimeMillis()));
+        batch.add(pending, size);
+        if (batch.bytes >= maxBatchBytes) {
+            batches.remove(queue);
+            send(queue, batch);
+        }
+    }
+
+    /**
+     * Bytes the message takes in an encoded batch: body, properties and the fixed per-message header.
+     */
+    private static int encodedSize(Message message) {
+        int size = MESSAGE_OVERHEAD_BYTES + message.getBody().length;
+        Map<String, String> properties = message.getProperties();
+        if (properties != null) {
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                // 键值之间、属性之间各一个分隔符
+                size += property.getKey().length() + property.getValue().length() + 2;
+            }
+        }
+        return size;
+    }
+
+    private void flushDue(boolean all) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<MessageQueue, Batch>> it = batches.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<MessageQueue, Batch> entry = it.next();
+            if (all || now - entry.getValue().createdAt >= lingerMs) {
+                it.remove();
+                send(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void send(MessageQueue queue, Batch batch) {
+        List<Message> messages = new ArrayList<>(batch.items.size());
+        batch.items.forEach(item -> messages.add(item.message()));
+        try {
+            SendResult result = queue == null ? producer.send(messages) : producer.send(messages, queue);
+            if (result.getSendStatus() != SendStatus.SEND_OK) {
+                log.warn("Chat log batch stored with status {} [size={}]", result.getSendStatus(), messages.size());
+            }
+            batch.items.forEach(ChatLogBatcher::notifySuccess);
+        } catch (Exception e) {
+            log.error("Chat log batch send failed [queue={}, size={}]", queue, messages.size(), e);
+            batch.items.forEach(item -> notifyFailure(item, e));
+        } finally {
+            inFlightBytes.release(batch.permits);
+        }
+    }
+
+    private MessageQueue selectQueue(String key) {
+        long now = System.currentTimeMillis();
+        if (queues.isEmpty() || now - queuesFetchedAt > QUEUE_REFRESH_MS) {
+            queuesFetchedAt = now;
+            try {
+                queues = producer.fetchPublishMessageQueues(topic);
+            } catch (Exception e) {
+                log.warn("Failed to fetch queues of {}, batching without a fixed queue", topic, e);
+            }
+        }
+        // 队列信息暂不可用时交给 producer 自行选择
+        return queues.isEmpty() ? null : queues.get(Math.floorMod(key.hashCode(), queues.size()));
+    }
+
+    private static void notifySuccess(Pending item) {
+        if (item.callback() != null) {
+            item.callback().onSuccess(item.message().getKeys());
+        }
+    }
+
+    private static void notifyFailure(Pending item, Exception e) {
+        if (item.callback() != null) {
+            item.callback().onFailure(item.message().getKeys(), e);
+        }
+    }
+
+    private static byte[] lz4(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 3));
+        try (FramedLZ4CompressorOutputStream lz4 = new FramedLZ4CompressorOutputStream(out)) {
+            lz4.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException("LZ4 compression failed", e);
+        }
+        return out.toByteArray();
+    }
+
+    private record Pending(Message message, int permits, MQCallback callback) {
+    }
+
+    private static final class Batch {
+        private final long createdAt;
+        private final List<Pending> items = new ArrayList<>();
+        private int bytes;
+        private int permits;
+
+        private Batch(long createdAt) {
+            this.createdAt = createdAt;
+        }
+
+        private void add(Pending pending, int size) {
+            items.add(pending);
+            bytes += size;
+            permits += pending.permits();
+        }
+    }
+}
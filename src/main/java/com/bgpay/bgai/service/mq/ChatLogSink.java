@@ -0,0 +1,19 @@
+package com.bgpay.bgai.service.mq;
+
+import com.bgpay.bgai.response.ChatResponse;
+
+/**
+ * Destination of the per-request chat logs. The broker in the default mode; a no-op when
+ * {@code billing.bus=local} runs without one.
+ */
+public interface ChatLogSink {
+
+    /**
+     * Sends one chat log without blocking the request.
+     *
+     * @param messageId Idempotency key of the log
+     * @param callback  Told the outcome once the log is sent or dropped
+     */
+    void sendChatLogAsync(String messageId, String requestBody, ChatResponse response, String userId,
+                          MQCallback callback);
+}
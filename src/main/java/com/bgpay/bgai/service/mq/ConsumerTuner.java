@@ -0,0 +1,111 @@
+package com.bgpay.bgai.service.mq;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Adjusts one push consumer's consume threads, listener batch size and pull batch size.
+ * <p>
+ * Listeners report how many messages they processed and how long it took; every {@link #adjust()}
+ * compares the mean per-message latency of the window with the target and reads the database pool
+ * saturation (0..1). Either one above its limit shrinks everything multiplicatively, so a slow database
+ * is relieved within one or two periods; a window with work that is comfortably below both limits grows
+ * threads and batches additively. Windows without work and without pressure change nothing.
+ */
+@Slf4j
+public class ConsumerTuner {
+    private static final int MAX_PULL_BATCH = 32;
+
+    private final DefaultMQPushConsumer consumer;
+    private final String topic;
+    private final DoubleSupplier poolSaturation;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int maxBatch;
+    private final long targetLatencyNanos;
+    private final double poolHighWater;
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder elapsedNanos = new LongAdder();
+
+    private volatile int threads;
+    private volatile int batch;
+    private volatile int pullBatch;
+
+    public ConsumerTuner(DefaultMQPushConsumer consumer, String topic, DoubleSupplier poolSaturation,
+                         int minThreads, int maxThreads, int maxBatch,
+                         long targetLatencyMs, double poolHighWater) {
+        this.consumer = consumer;
+        this.topic = topic;
+        this.poolSaturation = poolSaturation;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.maxBatch = maxBatch;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.poolHighWater = poolHighWater;
+        this.threads = minThreads;
+        this.batch = maxBatch;
+        this.pullBatch = MAX_PULL_BATCH;
+    }
+
+    /**
+     * @param count   Messages handed to the listener
+     * @param nanos   Time the listener spent on them
+     */
+    public void record(int count, long nanos) {
+        messages.add(count);
+        elapsedNanos.add(nanos);
+    }
+
+    public synchronized void adjust() {
+        long count = messages.sumThenReset();
+        long nanos = elapsedNanos.sumThenReset();
+        long latency = count == 0 ? 0 : nanos / count;
+        double saturation = poolSaturation.getAsDouble();
+
+        int newThreads;
+        int newBatch;
+        int newPullBatch;
+        if (saturation >= poolHighWater || latency > targetLatencyNanos) {
+            newThreads = Math.max(minThreads, threads * 3 / 4);
+            newBatch = Math.max(1, batch / 2);
+            newPullBatch = Math.max(1, pullBatch / 2);
+        } else if (count > 0 && saturation < poolHighWater * 0.7 && latency < targetLatencyNanos / 2) {
+            newThreads = Math.min(maxThreads, threads + 2);
+            newBatch = Math.min(maxBatch, batch + 5);
+            newPullBatch = Math.min(MAX_PULL_BATCH, pullBatch + 4);
+        } else {
+            return;
+        }
+        if (newThreads == threads && newBatch == batch && newPullBatch == pullBatch) {
+            return;
+        }
+
+        log.info("调整消费参数 [topic={}, latencyMs={}, poolSaturation={}, threads={}->{}, batch={}->{}, pullBatch={}->{}]",
+                topic, TimeUnit.NANOSECONDS.toMillis(latency), String.format("%.2f", saturation),
+                threads, newThreads, batch, newBatch, pullBatch, newPullBatch);
+        try {
+            consumer.updateCorePoolSize(newThreads);
+            // 批大小在每次拉取、每次提交消费任务时读取，修改后即时生效
+            consumer.setConsumeMessageBatchMaxSize(newBatch);
+            consumer.setPullBatchSize(newPullBatch);
+            threads = newThreads;
+            batch = newBatch;
+            pullBatch = newPullBatch;
+        } catch (Exception e) {
+            log.warn("调整消费参数失败 [topic={}]", topic, e);
+        }
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public int batch() {
+        return batch;
+    }
+}
@@ -0,0 +1,519 @@
+package com.bgpay.bgai.service.mq;
+
+import com.bgpay.bgai.entity.BillingOutbox;
+import com.bgpay.bgai.entity.UsageCalculationDTO;
+import com.bgpay.bgai.exception.BillingException;
+import com.bgpay.bgai.service.BillingService;
+import com.bgpay.bgai.utils.EventJournal;
+import com.bgpay.bgai.utils.SegmentLogWriter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-JVM billing events for single-node deployments and load tests.
+ * <p>
+ * Events go through a bounded ring of preallocated slots in the style of a disruptor: producers claim
+ * a sequence with a CAS on the cursor, fill the slot and mark it published. Two threads follow the
+ * ring in sequence order. The journaller appends published events to an {@link EventJournal} and
+ * forces each batch to disk; the billing stage only reads journalled events and hands them to
+ * {@link BillingService#processMessages} in batches. A slot is reused once the billing stage has
+ * passed it, so a full ring makes {@link #publish} wait for up to the publish timeout.
+ * <p>
+ * The billing stage checkpoints the journal periodically. On restart the events after the last
+ * checkpoint are published again, so an event is billed at least once; billing is idempotent per
+ * completion id.
+ * <p>
+ * When a batch fails its events are billed one by one. An event without a user id or with a body that
+ * cannot be decoded goes to the dead-letter log; any other failure is taken as transient (database or
+ * Redis unavailable) and the event is retried with exponential backoff until it succeeds. The billing
+ * stage stalls meanwhile and, once the ring is full, {@link #publish} applies backpressure, as a broker
+ * consumer would fall behind. {@link #replayDeadLetters()} publishes the dead-letter log again, at
+ * startup if {@code billing.local.dead-letter.replay-on-start} is set.
+ * <p>
+ * In this mode the RocketMQ producer, consumers and transaction listener are not created and chat logs
+ * go to {@link NoopChatLogSink}. Leave {@code rocketmq.name-server} unset so that the rocketmq-spring
+ * auto-configuration does not start a producer either; Redis is still required.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "billing.bus", havingValue = "local")
+public class LocalBillingEventBus implements BillingEventBus {
+    private static final String TOPIC = "BILLING_TOPIC";
+    private static final String TAG = "USER_BILLING";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long RETRY_BACKOFF_MS = 200;
+    private static final long PAUSE_SLICE_MS = 100;
+    private static final String DEAD_LETTER_NAME = "billing-dead-letter";
+    private static final long NO_TIMEOUT = -1;
+
+    @Value("${billing.local.ring-size:8192}")
+    private int ringSize;
+
+    @Value("${billing.local.batch-size:256}")
+    private int batchSize;
+
+    @Value("${billing.local.publish-timeout-ms:1000}")
+    private long publishTimeoutMs;
+
+    @Value("${billing.local.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${billing.local.dead-letter.replay-on-start:false}")
+    private boolean replayDeadLettersOnStart;
+
+    @Value("${billing.local.checkpoint-interval-ms:1000}")
+    private long checkpointIntervalMs;
+
+    @Value("${billing.local.journal-path:/var/data/bgai/billing-journal}")
+    private String journalPath;
+
+    @Value("${billing.local.segment-bytes:67108864}")
+    private long segmentBytes;
+
+    private final MeterRegistry meterRegistry;
+
+    private Slot[] slots;
+    private int mask;
+    private AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private volatile long journalled = -1;
+    private volatile long consumed = -1;
+
+    private EventJournal journal;
+    private Path deadLetterDirectory;
+    // 重放死信时整体替换，替换与写入在 deadLetterLock 下互斥
+    private volatile SegmentLogWriter deadLetters;
+    private final Object deadLetterLock = new Object();
+    private BillingService billingService;
+    private volatile boolean journalling;
+    private volatile boolean consuming;
+    private Thread journaller;
+    private Thread consumer;
+
+    public LocalBillingEventBus(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+
+        Path directory = Paths.get(journalPath);
+        journal = new EventJournal("billing", directory, segmentBytes);
+        journal.open();
+        deadLetterDirectory = directory.resolve("dead-letter");
+        deadLetters = newDeadLetterWriter();
+
+        Gauge.builder("billing.local.backlog", this, bus -> bus.claimed.get() - bus.consumed)
+                .description("Billing events published but not yet billed")
+                .register(meterRegistry);
+
+        journalling = true;
+        journaller = new Thread(this::journalLoop, "LocalBilling-journal");
+        journaller.start();
+        log.info("本地计费总线已启动 [ringSize={}, journal={}]", capacity, directory);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 先把已发布的事件全部落盘，未计费的部分在下次启动时重放
+        journalling = false;
+        join(journaller);
+        consuming = false;
+        join(consumer);
+        journal.close();
+        deadLetters.close();
+    }
+
+    @Override
+    public void publish(UsageCalculationDTO dto, String userId) {
+        publish(userId, dto.getChatCompletionId(), BillingMessageCodec.encode(dto), publishTimeoutMs);
+    }
+
+    @Override
+    public byte[] encode(UsageCalculationDTO dto) {
+        return BillingMessageCodec.encode(dto);
+    }
+
+    @Override
+    public void publishAll(List<BillingOutbox> events) {
+        for (BillingOutbox event : events) {
+            publish(event.getUserId(), event.getCompletionId(), event.getPayload(), publishTimeoutMs);
+        }
+    }
+
+    @Override
+    public synchronized void subscribe(BillingService billingService) {
+        if (this.billingService != null) {
+            throw new IllegalStateException("Local billing bus already has a subscriber");
+        }
+        this.billingService = billingService;
+        consuming = true;
+        consumer = new Thread(this::consumeLoop, "LocalBilling-consumer");
+        consumer.start();
+
+        // 消费线程先启动，重放量超过环大小时不会卡住
+        Thread replay = new Thread(this::replay, "LocalBilling-replay");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    /**
+     * Publishes the events of the dead-letter log again, for instance after the data or code that made
+     * them fail has been fixed. Events that fail again go to a new dead-letter segment.
+     *
+     * @return The number of events published
+     */
+    public synchronized int replayDeadLetters() throws IOException {
+        if (billingService == null) {
+            throw new IllegalStateException("Local billing bus has no subscriber yet");
+        }
+        // 换用新的死信分段后，旧分段不再写入，可以安全读取
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(deadLetterDirectory,
+                DEAD_LETTER_NAME + "-*" + SegmentLogWriter.SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        SegmentLogWriter previous;
+        synchronized (deadLetterLock) {
+            previous = deadLetters;
+            deadLetters = newDeadLetterWriter();
+        }
+        previous.close();
+
+        int count = 0;
+        for (Path segment : segments) {
+            if (!Files.exists(segment)) {
+                // 旧写入器关闭时删除的空分段
+                continue;
+            }
+            long[] last = {-1};
+            count += SegmentLogWriter.readSegment(segment, record -> last[0] = publishRecord(record, NO_TIMEOUT));
+            // 重新落盘后才删除，中途停机时死信仍在
+            while (journalled < last[0]) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            Files.delete(segment);
+        }
+        log.info("已重新发布死信事件 {} 条", count);
+        return count;
+    }
+
+    private SegmentLogWriter newDeadLetterWriter() throws IOException {
+        SegmentLogWriter writer = new SegmentLogWriter(DEAD_LETTER_NAME, deadLetterDirectory,
+                10_000, segmentBytes, TimeUnit.HOURS.toMillis(1), false);
+        writer.start();
+        return writer;
+    }
+
+    private long publishRecord(byte[] record, long timeoutMs) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        String userId = readString(buffer);
+        String key = readString(buffer);
+        byte[] body = new byte[buffer.remaining()];
+        buffer.get(body);
+        return publish(userId, key, body, timeoutMs);
+    }
+
+    private long publish(String userId, String key, byte[] body, long timeoutMs) {
+        byte[] record = encode(userId, key, body);
+        long seq = claim(timeoutMs);
+        Slot slot = slots[(int) (seq & mask)];
+        slot.userId = userId;
+        slot.key = key;
+        slot.body = body;
+        slot.record = record;
+        // volatile 写，之后读到该序号的线程能看到上面的字段
+        published.set((int) (seq & mask), seq);
+        return seq;
+    }
+
+    private long claim(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            // 目标槽位仍未被计费线程越过时等待
+            if (next - slots.length > consumed) {
+                if (timeoutMs != NO_TIMEOUT && System.nanoTime() - deadline > 0) {
+                    meterRegistry.counter("billing.local.rejected").increment();
+                    throw new BillingException("本地计费队列已满");
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private void journalLoop() {
+        long next = journalled + 1;
+        List<byte[]> records = new ArrayList<>(batchSize);
+        while (journalling || next <= claimed.get()) {
+            long end = next;
+            while (end - next < batchSize && published.get((int) (end & mask)) == end) {
+                end++;
+            }
+            if (end == next) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            records.clear();
+            for (long seq = next; seq < end; seq++) {
+                records.add(slots[(int) (seq & mask)].record);
+            }
+            try {
+                long[] positions = journal.append(records);
+                for (int i = 0; i < positions.length; i++) {
+                    slots[(int) ((next + i) & mask)].position = positions[i];
+                }
+                journalled = end - 1;
+                next = end;
+            } catch (IOException e) {
+                meterRegistry.counter("billing.local.journal.failures").increment();
+                if (!journalling) {
+                    log.error("关闭时计费日志写入失败，{} 条事件未落盘", claimed.get() - next + 1, e);
+                    return;
+                }
+                log.error("计费日志写入失败，稍后重试", e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_BACKOFF_MS));
+            }
+        }
+    }
+
+    private void consumeLoop() {
+        long next = consumed + 1;
+        long lastCheckpointAt = System.currentTimeMillis();
+        long position = -1;
+        while (consuming) {
+            long available = journalled;
+            if (available < next) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            long end = Math.min(available, next + batchSize - 1);
+            List<MessageExt> batch = new ArrayList<>((int) (end - next + 1));
+            for (long seq = next; seq <= end; seq++) {
+                batch.add(toMessage(slots[(int) (seq & mask)], seq));
+            }
+            if (!deliver(batch)) {
+                // 停机时本批仍在重试，不确认，下次启动从检查点重放
+                break;
+            }
+            // 先取位置再释放槽位，之后槽位可能被生产者覆盖
+            position = slots[(int) (end & mask)].position;
+            consumed = end;
+            next = end + 1;
+
+            if (System.currentTimeMillis() - lastCheckpointAt >= checkpointIntervalMs) {
+                checkpoint(position);
+                lastCheckpointAt = System.currentTimeMillis();
+            }
+        }
+        if (position >= 0) {
+            checkpoint(position);
+        }
+    }
+
+    /**
+     * 整批失败时逐条处理：缺少 USER_ID 或消息体无法解析的写入死信日志，其余失败视为暂时性故障，
+     * 退避后重试同一事件直到成功。重试期间计费线程停顿，环满后由发布方承受反压
+     *
+     * @return false 表示停机时仍有事件未处理完
+     */
+    private boolean deliver(List<MessageExt> batch) {
+        try {
+            billingService.processMessages(batch);
+            meterRegistry.counter("message.consumed", "topic", TOPIC).increment(batch.size());
+            return true;
+        } catch (Exception e) {
+            log.warn("本地计费批处理失败，逐条处理 [size={}]", batch.size(), e);
+        }
+        for (MessageExt msg : batch) {
+            if (!deliverUntilDone(msg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean deliverUntilDone(MessageExt msg) {
+        String rejection = rejectionOf(msg);
+        if (rejection != null) {
+            deadLetter(msg, rejection, null);
+            return true;
+        }
+        for (int attempt = 1; consuming; attempt++) {
+            try {
+                billingService.processMessages(List.of(msg));
+                meterRegistry.counter("message.consumed", "topic", TOPIC).increment();
+                return true;
+            } catch (Exception e) {
+                meterRegistry.counter("billing.local.retries").increment();
+                long backoff = Math.min(RETRY_BACKOFF_MS << Math.min(attempt - 1, 20), maxBackoffMs);
+                if (attempt == 1 || attempt % 10 == 0) {
+                    log.warn("计费事件处理失败，{} ms 后第 {} 次重试 [completionId={}]",
+                            backoff, attempt + 1, msg.getKeys(), e);
+                }
+                pause(backoff);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 重试也无法成功的原因；可以重试时返回 null
+     */
+    private static String rejectionOf(MessageExt msg) {
+        String userId = msg.getUserProperty("USER_ID");
+        if (userId == null || userId.isBlank()) {
+            return "缺失USER_ID";
+        }
+        try {
+            BillingMessageCodec.decode(msg.getBody());
+        } catch (RuntimeException e) {
+            return "消息体无法解析: " + e.getMessage();
+        }
+        return null;
+    }
+
+    /**
+     * 分段休眠，停机时尽快退出重试
+     */
+    private void pause(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining;
+        while (consuming && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(PAUSE_SLICE_MS)));
+        }
+    }
+
+    private void deadLetter(MessageExt msg, String reason, Exception e) {
+        meterRegistry.counter("message.consume.failed", "topic", TOPIC).increment();
+        boolean written;
+        synchronized (deadLetterLock) {
+            String userId = msg.getUserProperty("USER_ID");
+            written = deadLetters.append(encode(userId == null ? "" : userId, msg.getKeys(), msg.getBody()));
+        }
+        log.error("计费事件无法处理（{}）{} [completionId={}]", reason,
+                written ? "，已写入死信日志" : "，死信日志已满，事件丢弃", msg.getKeys(), e);
+    }
+
+    private void checkpoint(long position) {
+        try {
+            journal.checkpoint(position);
+        } catch (IOException e) {
+            log.warn("计费日志检查点写入失败", e);
+        }
+    }
+
+    /**
+     * 重新发布上次运行未计费的事件，全部重新落盘后删除旧分段
+     */
+    private void replay() {
+        try {
+            long[] last = {-1};
+            int count = journal.replayPrevious(record -> last[0] = publishRecord(record, NO_TIMEOUT));
+            while (journalled < last[0]) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            journal.completeRecovery();
+            if (count > 0) {
+                log.info("已重放上次运行未计费的事件 {} 条", count);
+            }
+        } catch (Exception e) {
+            log.error("计费日志重放失败，旧分段保留到下次启动", e);
+            return;
+        }
+        if (replayDeadLettersOnStart) {
+            try {
+                replayDeadLetters();
+            } catch (Exception e) {
+                log.error("死信事件重放失败，未重放的分段保留", e);
+            }
+        }
+    }
+
+    private static MessageExt toMessage(Slot slot, long seq) {
+        MessageExt msg = new MessageExt();
+        msg.setTopic(TOPIC);
+        msg.setTags(TAG);
+        msg.setKeys(slot.key);
+        msg.setBody(slot.body);
+        msg.putUserProperty("USER_ID", slot.userId);
+        msg.setMsgId("local-" + seq);
+        msg.setQueueOffset(seq);
+        return msg;
+    }
+
+    private static byte[] encode(String userId, String key, byte[] body) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] keys = key.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 * Short.BYTES + user.length + keys.length + body.length)
+                .putShort((short) user.length).put(user)
+                .putShort((short) keys.length).put(keys)
+                .put(body)
+                .array();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void join(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 环中的槽位。字段由发布方写入，经 published 的 volatile 写对读取方可见
+     */
+    private static final class Slot {
+        private String userId;
+        private String key;
+        private byte[] body;
+        private byte[] record;
+        // 由日志线程写入，经 journalled 的 volatile 写对计费线程可见
+        private long position;
+    }
+}
@@ -1,32 +1,85 @@
 package com.bgpay.bgai.service.mq;
 
 
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.fastjson2.JSONException;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
 import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerOrderly;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageQueue;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Component
+@ConditionalOnProperty(name = "billing.bus", havingValue = "rocketmq", matchIfMissing = true)
 @Slf4j
 public class MQConsumerService {
+    // broker 延迟级别：3 为 10s，之后依次为 30s、1m、2m...，18 为 2h
+    private static final int FIRST_RETRY_DELAY_LEVEL = 3;
+    private static final int MAX_DELAY_LEVEL = 18;
+
+    @Value("${rocketmq.consumer.threads.min:20}")
+    private int minThreads;
+
+    @Value("${rocketmq.consumer.threads.max:50}")
+    private int maxThreads;
+
+    @Value("${rocketmq.consumer.batch.max:50}")
+    private int maxBatch;
+
+    @Value("${rocketmq.consumer.adaptive.enabled:true}")
+    private boolean adaptive;
+
+    @Value("${rocketmq.consumer.adaptive.interval-ms:10000}")
+    private long tuneIntervalMs;
+
+    @Value("${rocketmq.consumer.adaptive.target-latency-ms:50}")
+    private long targetLatencyMs;
+
+    @Value("${rocketmq.consumer.adaptive.pool-high-water:0.85}")
+    private double poolHighWater;
+
     private final MeterRegistry meterRegistry;
     private final RedisTemplate<String, String> redisTemplate;
+    private final DataSource dataSource;
+    private final List<ConsumerTuner> tuners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService tuneExecutor;
 
-    public MQConsumerService(MeterRegistry meterRegistry, RedisTemplate<String, String> redisTemplate) {
+    public MQConsumerService(MeterRegistry meterRegistry,
+                             RedisTemplate<String, String> redisTemplate,
+                             @Qualifier("masterDataSource") DataSource dataSource) {
         this.meterRegistry = meterRegistry;
         this.redisTemplate = redisTemplate;
+        this.dataSource = dataSource;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (tuneExecutor != null) {
+            tuneExecutor.shutdownNow();
+        }
     }
 
     /**
@@ -46,45 +99,23 @@ public class MQConsumerService {
             MessageProcessor messageProcessor,
             ConsumeCallback consumeCallback) throws MQClientException {
 
-        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(consumerGroup);
-        consumer.setNamesrvAddr(namesrvAddr);
-        consumer.setConsumeThreadMin(20);
-        consumer.setConsumeThreadMax(50);
-        consumer.setConsumeMessageBatchMaxSize(50);
-        consumer.setMaxReconsumeTimes(5);
-        consumer.subscribe(topic, tag);
-        consumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_FIRST_OFFSET);
+        DefaultMQPushConsumer consumer = createConsumer(namesrvAddr, consumerGroup, topic, tag);
+        ConsumerTuner tuner = registerTuner(consumer, topic);
 
         consumer.registerMessageListener((MessageListenerConcurrently) (msgs, context) -> {
-            Map<MessageQueue, Long> offsetMap = new ConcurrentHashMap<>();
-            List<MessageExt> successMessages = new ArrayList<>();
-            boolean hasFailure = false;
-
-            for (MessageExt msg : msgs) {
-                try {
-                    // 处理消息（包含业务逻辑）
-                    messageProcessor.process(msg);
-
-                    // 记录成功消息
-                    successMessages.add(msg);
-
-                    // 更新最大offset
-                    MessageQueue mq = new MessageQueue(msg.getTopic(),
-                            msg.getBrokerName(), msg.getQueueId());
-                    offsetMap.merge(mq, msg.getQueueOffset(), Math::max);
+            long start = System.nanoTime();
+            List<MessageExt> failed = consumeIndividually(msgs, messageProcessor, topic);
+            tuner.record(msgs.size(), System.nanoTime() - start);
 
-                } catch (Exception e) {
-                    log.error("消息消费失败 [MsgId={}]", msg.getMsgId(), e);
-                    hasFailure = true;
-                }
-            }
-
-            if (hasFailure) {
+            // 失败的消息逐条退回重投，已成功的不再重复消费
+            if (!sendBack(consumer, failed, context.getMessageQueue().getBrokerName(), topic)) {
                 return ConsumeConcurrentlyStatus.RECONSUME_LATER;
             }
+            List<MessageExt> successMessages = new ArrayList<>(msgs);
+            successMessages.removeAll(failed);
 
             // 批量提交offset
-            commitOffsets(consumer, offsetMap);
+            commitOffsets(consumer, maxOffsets(msgs));
 
             // 执行回调
             successMessages.forEach(msg -> {
@@ -100,6 +131,262 @@ public class MQConsumerService {
         return consumer;
     }
 
+    /**
+     * 初始化批量消费者：整批消息一次交给处理器，处理器负责批内去重与批量落库
+     * @param namesrvAddr      nameserver地址
+     * @param consumerGroup    消费者组
+     * @param topic            主题
+     * @param tag              标签
+     * @param batchProcessor   批量消息处理器
+     * @param consumeCallback  消费成功回调
+     */
+    public DefaultMQPushConsumer initBatchConsumer(
+            String namesrvAddr,
+            String consumerGroup,
+            String topic,
+            String tag,
+            BatchMessageProcessor batchProcessor,
+            ConsumeCallback consumeCallback) throws MQClientException {
+
+        DefaultMQPushConsumer consumer = createConsumer(namesrvAddr, consumerGroup, topic, tag);
+        ConsumerTuner tuner = registerTuner(consumer, topic);
+
+        consumer.registerMessageListener((MessageListenerConcurrently) (msgs, context) -> {
+            long start = System.nanoTime();
+            List<MessageExt> failed = List.of();
+            try {
+                batchProcessor.process(msgs);
+            } catch (Exception e) {
+                // 整批失败时逐条重试，找出真正失败的消息；处理器按 completionId 幂等，重复处理无副作用
+                log.warn("批量消费失败，逐条重试 [size={}, firstMsgId={}]", msgs.size(), msgs.get(0).getMsgId(), e);
+                failed = consumeIndividually(msgs, msg -> batchProcessor.process(List.of(msg)), topic);
+            }
+            tuner.record(msgs.size(), System.nanoTime() - start);
+
+            if (!sendBack(consumer, failed, context.getMessageQueue().getBrokerName(), topic)) {
+                return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+            }
+            commitOffsets(consumer, maxOffsets(msgs));
+
+            for (MessageExt msg : msgs) {
+                if (!failed.contains(msg)) {
+                    consumeCallback.onSuccess(msg);
+                }
+            }
+            meterRegistry.counter("message.consumed", "topic", topic).increment(msgs.size() - failed.size());
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        });
+
+        consumer.start();
+        log.info("MQ批量消费者启动成功 [group={}, topic={}, tag={}]", consumerGroup, topic, tag);
+        return consumer;
+    }
+
+    /**
+     * 初始化顺序消费者：每个队列由单线程串行消费，配合按用户选择队列的生产者实现同一用户消息有序、无需分布式锁。
+     * 整批失败时按序逐条处理：无法处理的消息单独转入死信队列，暂时性失败挂起当前队列稍后重试，不影响其他队列；
+     * 暂时性失败不设重试上限，以免故障期间整批正常消息被客户端转入死信队列
+     * @param namesrvAddr      nameserver地址
+     * @param consumerGroup    消费者组
+     * @param topic            主题
+     * @param tag              标签
+     * @param batchProcessor   批量消息处理器，收到的消息来自同一队列
+     * @param consumeCallback  消费成功回调
+     */
+    public DefaultMQPushConsumer initOrderlyConsumer(
+            String namesrvAddr,
+            String consumerGroup,
+            String topic,
+            String tag,
+            BatchMessageProcessor batchProcessor,
+            ConsumeCallback consumeCallback) throws MQClientException {
+
+        DefaultMQPushConsumer consumer = createConsumer(namesrvAddr, consumerGroup, topic, tag);
+        consumer.setSuspendCurrentQueueTimeMillis(1000);
+        // 顺序消费下 -1 即不限重试次数；无法处理的消息由 consumeInOrder 单独转入死信队列
+        consumer.setMaxReconsumeTimes(-1);
+        ConsumerTuner tuner = registerTuner(consumer, topic);
+
+        consumer.registerMessageListener((MessageListenerOrderly) (msgs, context) -> {
+            long start = System.nanoTime();
+            List<MessageExt> deadLettered = List.of();
+            try {
+                batchProcessor.process(msgs);
+            } catch (Exception e) {
+                log.warn("顺序批量消费失败，按序逐条处理 [queue={}, size={}, firstMsgId={}]",
+                        context.getMessageQueue(), msgs.size(), msgs.get(0).getMsgId(), e);
+                deadLettered = consumeInOrder(consumer, msgs, batchProcessor, context.getMessageQueue(), topic);
+                if (deadLettered == null) {
+                    meterRegistry.counter("message.consume.suspended", "topic", topic).increment();
+                    return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+                }
+            } finally {
+                tuner.record(msgs.size(), System.nanoTime() - start);
+            }
+
+            // 顺序消费由客户端在成功后自动提交offset
+            for (MessageExt msg : msgs) {
+                if (!deadLettered.contains(msg)) {
+                    consumeCallback.onSuccess(msg);
+                }
+            }
+            meterRegistry.counter("message.consumed", "topic", topic).increment(msgs.size() - deadLettered.size());
+            return ConsumeOrderlyStatus.SUCCESS;
+        });
+
+        consumer.start();
+        log.info("MQ顺序消费者启动成功 [group={}, topic={}, tag={}]", consumerGroup, topic, tag);
+        return consumer;
+    }
+
+    private DefaultMQPushConsumer createConsumer(String namesrvAddr,
+                                                 String consumerGroup,
+                                                 String topic,
+                                                 String tag) throws MQClientException {
+        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(consumerGroup);
+        consumer.setNamesrvAddr(namesrvAddr);
+        consumer.setConsumeThreadMin(minThreads);
+        // updateCorePoolSize 只接受小于 consumeThreadMax 的值，留出一个余量使上限本身可达
+        consumer.setConsumeThreadMax(maxThreads + 1);
+        consumer.setConsumeMessageBatchMaxSize(maxBatch);
+        consumer.setMaxReconsumeTimes(5);
+        consumer.subscribe(topic, tag);
+        consumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_FIRST_OFFSET);
+        return consumer;
+    }
+
+    /**
+     * 注册自适应调参。调参关闭时仍返回实例，只记录不调整
+     */
+    private ConsumerTuner registerTuner(DefaultMQPushConsumer consumer, String topic) {
+        ConsumerTuner tuner = new ConsumerTuner(consumer, topic, this::poolSaturation,
+                minThreads, maxThreads, maxBatch, targetLatencyMs, poolHighWater);
+        Gauge.builder("mq.consumer.threads", tuner, ConsumerTuner::threads)
+                .tag("topic", topic)
+                .register(meterRegistry);
+        Gauge.builder("mq.consumer.batch.size", tuner, ConsumerTuner::batch)
+                .tag("topic", topic)
+                .register(meterRegistry);
+        if (adaptive) {
+            tuners.add(tuner);
+            startTuning();
+        }
+        return tuner;
+    }
+
+    private synchronized void startTuning() {
+        if (tuneExecutor != null) {
+            return;
+        }
+        tuneExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MQConsumer-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tuneExecutor.scheduleWithFixedDelay(() -> tuners.forEach(ConsumerTuner::adjust),
+                tuneIntervalMs, tuneIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 主库连接池饱和度：有线程在等待连接时视为 1
+     */
+    private double poolSaturation() {
+        if (dataSource instanceof DruidDataSource druid && druid.getMaxActive() > 0) {
+            return druid.getWaitThreadCount() > 0 ? 1.0 : (double) druid.getActiveCount() / druid.getMaxActive();
+        }
+        return 0;
+    }
+
+    /**
+     * 逐条处理消息
+     * @return 处理失败的消息
+     */
+    private List<MessageExt> consumeIndividually(List<MessageExt> msgs, MessageProcessor processor, String topic) {
+        List<MessageExt> failed = new ArrayList<>();
+        for (MessageExt msg : msgs) {
+            try {
+                processor.process(msg);
+            } catch (Exception e) {
+                log.error("消息消费失败 [MsgId={}, reconsumeTimes={}]", msg.getMsgId(), msg.getReconsumeTimes(), e);
+                meterRegistry.counter("message.consume.failed", "topic", topic).increment();
+                failed.add(msg);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * 按序逐条处理顺序消息。缺失 USER_ID 或消息体无法解析的消息重试也不会成功，直接转入死信队列；
+     * 遇到其他失败即停止并返回 null，由调用方挂起队列后整批重投，此前已处理的消息依赖消费幂等
+     * @return 转入死信队列的消息；需要挂起队列时为 null
+     */
+    private List<MessageExt> consumeInOrder(DefaultMQPushConsumer consumer, List<MessageExt> msgs,
+                                            BatchMessageProcessor processor, MessageQueue queue, String topic) {
+        List<MessageExt> deadLettered = new ArrayList<>();
+        for (MessageExt msg : msgs) {
+            try {
+                processor.process(List.of(msg));
+            } catch (Exception e) {
+                if (!isNonRetryable(msg, e)) {
+                    log.error("顺序消费失败，挂起队列稍后重试 [queue={}, MsgId={}, reconsumeTimes={}]",
+                            queue, msg.getMsgId(), msg.getReconsumeTimes(), e);
+                    return null;
+                }
+                log.error("消息无法处理，转入死信队列 [MsgId={}]", msg.getMsgId(), e);
+                meterRegistry.counter("message.consume.failed", "topic", topic).increment();
+                try {
+                    // 延迟级别为负时 broker 直接转入死信队列
+                    consumer.sendMessageBack(msg, -1, queue.getBrokerName());
+                } catch (Exception sendBackError) {
+                    log.error("消息转入死信队列失败 [MsgId={}]", msg.getMsgId(), sendBackError);
+                    return null;
+                }
+                deadLettered.add(msg);
+            }
+        }
+        return deadLettered;
+    }
+
+    private static boolean isNonRetryable(MessageExt msg, Exception e) {
+        if (msg.getUserProperty("USER_ID") == null) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BillingMessageCodec.MalformedBillingMessageException
+                    || cause instanceof JSONException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 逐条退回失败消息，broker 按重试次数递增延迟后重投，超过最大重试次数转入死信队列。
+     * 任一条退回失败时返回 false，由调用方整批重试，此前已退回的消息会再投递一次，依赖消费幂等
+     */
+    private boolean sendBack(DefaultMQPushConsumer consumer, List<MessageExt> failed, String brokerName, String topic) {
+        for (MessageExt msg : failed) {
+            int delayLevel = Math.min(FIRST_RETRY_DELAY_LEVEL + msg.getReconsumeTimes(), MAX_DELAY_LEVEL);
+            try {
+                consumer.sendMessageBack(msg, delayLevel, brokerName);
+                meterRegistry.counter("message.consume.sent-back", "topic", topic).increment();
+            } catch (Exception e) {
+                log.error("失败消息退回broker失败 [MsgId={}]", msg.getMsgId(), e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<MessageQueue, Long> maxOffsets(List<MessageExt> msgs) {
+        Map<MessageQueue, Long> offsetMap = new ConcurrentHashMap<>();
+        for (MessageExt msg : msgs) {
+            MessageQueue mq = new MessageQueue(msg.getTopic(), msg.getBrokerName(), msg.getQueueId());
+            offsetMap.merge(mq, msg.getQueueOffset(), Math::max);
+        }
+        return offsetMap;
+    }
+
     /**
      * 手动提交offset
      */
@@ -122,6 +409,14 @@ public class MQConsumerService {
         void process(MessageExt message) throws Exception;
     }
 
+    /**
+     * 批量消息处理接口
+     */
+    @FunctionalInterface
+    public interface BatchMessageProcessor {
+        void process(List<MessageExt> messages) throws Exception;
+    }
+
     /**
      * 消费成功回调接口
      */
@@ -0,0 +1,75 @@
+package com.bgpay.bgai.service.mq;
+
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.TraceContext;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.propagation.Propagator;
+import org.apache.rocketmq.common.message.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Carries the trace context over RocketMQ: the producer side writes the propagation headers
+ * ({@code traceparent}, {@code tracestate}) of the current span into the message's user properties,
+ * the consumer side continues the trace from them in a consumer span.
+ * <p>
+ * A batch is consumed in one span whose parent is the context of its first message; the other
+ * messages' traces are not linked. Without a tracer every method is a no-op.
+ */
+@Component
+public class MessageTracing {
+    private Tracer tracer = Tracer.NOOP;
+    private Propagator propagator = Propagator.NOOP;
+
+    @Autowired(required = false)
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Autowired(required = false)
+    public void setPropagator(Propagator propagator) {
+        this.propagator = propagator;
+    }
+
+    public void inject(Message message) {
+        TraceContext context = tracer.currentTraceContext().context();
+        if (context != null) {
+            propagator.inject(context, message, Message::putUserProperty);
+        }
+    }
+
+    /**
+     * For messages sent through {@code RocketMQTemplate}, which copies headers into user properties.
+     */
+    public void inject(MessageBuilder<?> builder) {
+        TraceContext context = tracer.currentTraceContext().context();
+        if (context != null) {
+            propagator.inject(context, builder, MessageBuilder::setHeader);
+        }
+    }
+
+    /**
+     * Runs the handler in a consumer span continuing the trace of the first message.
+     */
+    public void consume(String name, List<? extends Message> messages, Runnable handler) {
+        Span.Builder builder = messages.isEmpty()
+                ? tracer.spanBuilder()
+                : propagator.extract(messages.get(0), Message::getUserProperty);
+        Span span = builder.name(name)
+                .kind(Span.Kind.CONSUMER)
+                .tag("messaging.system", "rocketmq")
+                .tag("messaging.batch.message_count", String.valueOf(messages.size()))
+                .start();
+        try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+            handler.run();
+        } catch (RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+}
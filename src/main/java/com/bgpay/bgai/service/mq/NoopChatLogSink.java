@@ -0,0 +1,25 @@
+package com.bgpay.bgai.service.mq;
+
+import com.bgpay.bgai.response.ChatResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Chat logs in single-node mode: there is no broker to send them to, so they are dropped. The
+ * completion itself is still persisted by the write-behind buffer.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "billing.bus", havingValue = "local")
+public class NoopChatLogSink implements ChatLogSink {
+
+    @Override
+    public void sendChatLogAsync(String messageId, String requestBody, ChatResponse response, String userId,
+                                 MQCallback callback) {
+        log.debug("本地模式不发送对话日志 [messageId={}]", messageId);
+        if (callback != null) {
+            callback.onSuccess(messageId);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.bgpay.bgai.service.mq;
+
+import com.bgpay.bgai.entity.BillingOutbox;
+import com.bgpay.bgai.entity.UsageCalculationDTO;
+import com.bgpay.bgai.service.BillingService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Billing events through BILLING_TOPIC on the broker.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "billing.bus", havingValue = "rocketmq", matchIfMissing = true)
+public class RocketMQBillingEventBus implements BillingEventBus {
+    private static final String BILLING_TOPIC = "BILLING_TOPIC";
+    private static final String BILLING_TAG = "USER_BILLING";
+
+    @Value("${rocketmq.consumer.group:billing-consumer-group}")
+    private String consumerGroup;
+
+    @Value("${rocketmq.name-server:}")
+    private String nameServer;
+
+    @Value("${billing.consumer.batch-mode:true}")
+    private boolean batchMode;
+
+    @Value("${billing.ordered.enabled:false}")
+    private boolean orderedMode;
+
+    private final RocketMQProducerService producerService;
+    private final MQConsumerService mqConsumerService;
+
+    public RocketMQBillingEventBus(RocketMQProducerService producerService, MQConsumerService mqConsumerService) {
+        this.producerService = producerService;
+        this.mqConsumerService = mqConsumerService;
+    }
+
+    @Override
+    public void publish(UsageCalculationDTO dto, String userId) {
+        producerService.sendBillingMessage(dto, userId);
+    }
+
+    @Override
+    public byte[] encode(UsageCalculationDTO dto) {
+        return producerService.encodeBilling(dto);
+    }
+
+    @Override
+    public void publishAll(List<BillingOutbox> events) {
+        producerService.sendOutboxBatch(events);
+    }
+
+    @Override
+    public void subscribe(BillingService billingService) throws MQClientException {
+        if (orderedMode) {
+            // 同一用户的消息由生产者路由到同一队列并串行消费，批量路径本身不加分布式锁
+            mqConsumerService.initOrderlyConsumer(
+                    nameServer,
+                    consumerGroup,
+                    BILLING_TOPIC,
+                    BILLING_TAG,
+                    billingService::processMessages,
+                    msg -> log.debug("Billing message consumed: {}", msg.getMsgId())
+            );
+            return;
+        }
+        if (batchMode) {
+            mqConsumerService.initBatchConsumer(
+                    nameServer,
+                    consumerGroup,
+                    BILLING_TOPIC,
+                    BILLING_TAG,
+                    billingService::processMessages,
+                    msg -> log.debug("Billing message consumed: {}", msg.getMsgId())
+            );
+            return;
+        }
+        mqConsumerService.initConsumer(
+                nameServer,
+                consumerGroup,
+                BILLING_TOPIC,
+                BILLING_TAG,
+                billingService::processMessage,
+                msg -> log.debug("Billing message consumed: {}", msg.getMsgId())
+        );
+    }
+}
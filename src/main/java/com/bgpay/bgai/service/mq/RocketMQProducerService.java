@@ -1,8 +1,11 @@
 package com.bgpay.bgai.service.mq;
 
 
+import com.alibaba.fastjson2.JSON;
+import com.bgpay.bgai.entity.BillingOutbox;
 import com.bgpay.bgai.entity.UsageCalculationDTO;
 import com.bgpay.bgai.exception.BillingException;
+import com.bgpay.bgai.exception.MQException;
 import com.bgpay.bgai.response.ChatResponse;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -12,6 +15,7 @@ import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.apache.rocketmq.spring.support.RocketMQHeaders;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
@@ -20,11 +24,14 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
-public class RocketMQProducerService {
+@ConditionalOnProperty(name = "billing.bus", havingValue = "rocketmq", matchIfMissing = true)
+public class RocketMQProducerService implements ChatLogSink {
     private static final String BILLING_TOPIC = "BILLING_TOPIC";
     private static final String BILLING_TAG = "USER_BILLING";
 
@@ -37,17 +44,55 @@ public class RocketMQProducerService {
     @Value("${rocketmq.topic.chat-log}")
     private String chatLogTopic;
 
+    @Value("${billing.ordered.enabled:false}")
+    private boolean orderedBilling;
+
+    /**
+     * 计费消息编码：json 或 binary。消费端两种都能解码，先全量升级消费端再切换为 binary
+     */
+    @Value("${billing.message.codec:json}")
+    private String billingCodec;
+
+    @Value("${rocketmq.chat-log.batch.enabled:true}")
+    private boolean chatLogBatching;
+
+    @Value("${rocketmq.chat-log.batch.max-bytes:1048576}")
+    private int chatLogMaxBatchBytes;
+
+    @Value("${rocketmq.chat-log.batch.linger-ms:50}")
+    private long chatLogLingerMs;
+
+    @Value("${rocketmq.chat-log.batch.max-in-flight-bytes:67108864}")
+    private int chatLogMaxInFlightBytes;
+
+    @Value("${rocketmq.chat-log.batch.offer-timeout-ms:20}")
+    private long chatLogOfferTimeoutMs;
+
+    /**
+     * chat-log 消息体 LZ4 压缩并带 CONTENT_ENCODING=lz4-frame 属性。先全量升级下游消费端（按该属性解压）再开启
+     */
+    @Value("${rocketmq.chat-log.compress:false}")
+    private boolean chatLogCompress;
+
+    private ChatLogBatcher chatLogBatcher;
+
+    private final MessageQueueSelector userQueueSelector = new UserQueueSelector();
+
     private DefaultMQProducer producer;
 
     private final RocketMQTemplate rocketMQTemplate;
 
+    private final MessageTracing messageTracing;
+
     private static final String BILLING_DESTINATION = "BILLING_TOPIC:USER_BILLING";
 
     public RocketMQProducerService(
             @Value("${rocketmq.name-server}") String namesrvAddr,
             @Value("${rocketmq.producer.group}") String producerGroup,
-            RocketMQTemplate rocketMQTemplate) {
+            RocketMQTemplate rocketMQTemplate,
+            MessageTracing messageTracing) {
         this.rocketMQTemplate = rocketMQTemplate;
+        this.messageTracing = messageTracing;
     }
 
     @PostConstruct
@@ -56,10 +101,19 @@ public class RocketMQProducerService {
         producer.setNamesrvAddr(namesrvAddr);
         producer.setRetryTimesWhenSendAsyncFailed(3);
         producer.start();
+        if (chatLogBatching) {
+            chatLogBatcher = new ChatLogBatcher(producer, chatLogTopic, "chatLog", chatLogMaxBatchBytes,
+                    chatLogLingerMs, chatLogMaxInFlightBytes, chatLogOfferTimeoutMs, chatLogCompress, messageTracing);
+            chatLogBatcher.start();
+        }
     }
 
     @PreDestroy
     public void destroy() {
+        if (chatLogBatcher != null) {
+            // 先发完缓冲中的日志再关闭 producer
+            chatLogBatcher.close();
+        }
         if (producer != null) {
             producer.shutdown();
         }
@@ -72,7 +126,11 @@ public class RocketMQProducerService {
 
     @Retryable(maxAttempts = 3, backoff = @Backoff(delay = 1000))
     public void sendBillingMessage(UsageCalculationDTO dto, String userId) {
-        org.springframework.messaging.Message<UsageCalculationDTO> message = buildMessage(dto, userId);
+        if (orderedBilling) {
+            sendOrderedBillingMessage(dto, userId);
+            return;
+        }
+        org.springframework.messaging.Message<?> message = buildMessage(dto, userId);
         TransactionSendResult result = rocketMQTemplate.sendMessageInTransaction(
                 BILLING_DESTINATION,
                 message,
@@ -85,13 +143,76 @@ public class RocketMQProducerService {
         log.debug("Billing message sent successfully: {}", dto.getChatCompletionId());
     }
 
-    private org.springframework.messaging.Message<UsageCalculationDTO> buildMessage(UsageCalculationDTO dto, String userId) {
-        return MessageBuilder.withPayload(dto)
+    /**
+     * 顺序模式：按 USER_ID 选择队列，同一用户的计费消息进入同一队列，由顺序消费者串行处理
+     */
+    private void sendOrderedBillingMessage(UsageCalculationDTO dto, String userId) {
+        Message msg = new Message(BILLING_TOPIC, BILLING_TAG, dto.getChatCompletionId(), encodeBilling(dto));
+        msg.putUserProperty("USER_ID", userId);
+        messageTracing.inject(msg);
+        try {
+            SendResult result = producer.send(msg, userQueueSelector, userId);
+            if (result.getSendStatus() != SendStatus.SEND_OK) {
+                throw new BillingException("消息发送失败，状态: " + result.getSendStatus());
+            }
+            log.debug("Ordered billing message sent [completionId={}, queue={}]",
+                    dto.getChatCompletionId(), result.getMessageQueue().getQueueId());
+        } catch (BillingException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BillingException("消息发送失败", e);
+        }
+    }
+
+    /**
+     * 发件箱中继的批量投递。本地事务已提交，无需半消息；同一 completionId 重复投递由消费端去重
+     *
+     * @param events 按 id 升序的发件箱事件
+     */
+    public void sendOutboxBatch(List<BillingOutbox> events) {
+        List<Message> messages = new ArrayList<>(events.size());
+        for (BillingOutbox event : events) {
+            Message msg = new Message(BILLING_TOPIC, BILLING_TAG, event.getCompletionId(), event.getPayload());
+            msg.putUserProperty("USER_ID", event.getUserId());
+            // 中继在调度线程上投递，携带的是中继本身的链路上下文，而非原请求
+            messageTracing.inject(msg);
+            messages.add(msg);
+        }
+        try {
+            if (orderedBilling) {
+                // 顺序模式逐条按用户选队列，保持同一用户的先后顺序
+                for (int i = 0; i < messages.size(); i++) {
+                    checkSent(producer.send(messages.get(i), userQueueSelector, events.get(i).getUserId()));
+                }
+                return;
+            }
+            checkSent(producer.send(messages));
+        } catch (BillingException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BillingException("消息发送失败", e);
+        }
+    }
+
+    private static void checkSent(SendResult result) {
+        if (result.getSendStatus() != SendStatus.SEND_OK) {
+            throw new BillingException("消息发送失败，状态: " + result.getSendStatus());
+        }
+    }
+
+    public byte[] encodeBilling(UsageCalculationDTO dto) {
+        return "binary".equalsIgnoreCase(billingCodec) ? BillingMessageCodec.encode(dto) : JSON.toJSONBytes(dto);
+    }
+
+    private org.springframework.messaging.Message<byte[]> buildMessage(UsageCalculationDTO dto, String userId) {
+        MessageBuilder<byte[]> builder = MessageBuilder.withPayload(encodeBilling(dto))
                 .setHeader(RocketMQHeaders.KEYS, dto.getChatCompletionId())
-                .setHeader("USER_ID", userId)
-                .build();
+                .setHeader("USER_ID", userId);
+        messageTracing.inject(builder);
+        return builder.build();
     }
 
+    @Override
     public void sendChatLogAsync(String messageId,
                                  String requestBody,
                                  ChatResponse response,
@@ -103,13 +224,38 @@ public class RocketMQProducerService {
         }
 
         try {
-            String logData = buildLogMessage(requestBody, response, userId);
+            byte[] logData = buildLogMessage(requestBody, response, userId);
+            if (chatLogBatcher != null) {
+                MQCallback batchCallback = new MQCallback() {
+                    @Override
+                    public void onSuccess(String msgId) {
+                        idempotentCache.put(msgId, true);
+                        if (callback != null) {
+                            callback.onSuccess(msgId);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(String msgId, Throwable e) {
+                        idempotentCache.invalidate(msgId);
+                        if (callback != null) {
+                            callback.onFailure(msgId, e);
+                        }
+                    }
+                };
+                if (!chatLogBatcher.append(messageId, logData, batchCallback)) {
+                    // 在途字节超过上限，丢弃并通知调用方，避免拖慢请求线程
+                    batchCallback.onFailure(messageId, new MQException("chat log backlog full"));
+                }
+                return;
+            }
             Message msg = new Message(
                     chatLogTopic,
                     "chatLog",
                     messageId, // 关键：设置唯一ID为消息Key
-                    logData.getBytes(StandardCharsets.UTF_8)
+                    logData
             );
+            messageTracing.inject(msg);
 
             producer.send(msg, new SendCallback() {
                 @Override
@@ -136,14 +282,20 @@ public class RocketMQProducerService {
         }
     }
 
-    private String buildLogMessage(String requestBody, ChatResponse response, String userId) {
-        return String.format("""
-            {
-                "timestamp": "%s",
-                "userId": "%s",
-                "request": %s,
-                "response": %s
-            }""", LocalDateTime.now(), userId, requestBody, response.getContent());
+    /**
+     * 请求体本身是 JSON，原样嵌入；响应内容按 JSON 字符串转义
+     */
+    private byte[] buildLogMessage(String requestBody, ChatResponse response, String userId) {
+        String request = requestBody == null || requestBody.isBlank() ? "null" : requestBody;
+        int capacity = request.length() + (response.getContent() == null ? 0 : response.getContent().length()) + 128;
+        return new StringBuilder(capacity)
+                .append("{\"timestamp\":").append(JSON.toJSONString(LocalDateTime.now().toString()))
+                .append(",\"userId\":").append(JSON.toJSONString(userId))
+                .append(",\"request\":").append(request)
+                .append(",\"response\":").append(JSON.toJSONString(response.getContent()))
+                .append('}')
+                .toString()
+                .getBytes(StandardCharsets.UTF_8);
     }
 
 }
\ No newline at end of file
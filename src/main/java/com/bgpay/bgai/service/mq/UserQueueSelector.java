@@ -0,0 +1,22 @@
+package com.bgpay.bgai.service.mq;
+
+import org.apache.rocketmq.client.producer.MessageQueueSelector;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import java.util.List;
+
+/**
+ * Routes all messages of one user to the same message queue, so that an orderly consumer sees them
+ * in send order. The argument passed to {@code send} is the user id.
+ * <p>
+ * The mapping only holds while the topic's queue count is unchanged; resizing the topic reshuffles users.
+ */
+public class UserQueueSelector implements MessageQueueSelector {
+
+    @Override
+    public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
+        // String.hashCode 在各节点间稳定，可用于分区
+        return mqs.get(Math.floorMod(String.valueOf(arg).hashCode(), mqs.size()));
+    }
+}
@@ -0,0 +1,115 @@
+package com.bgpay.bgai.utils;
+
+import com.bgpay.bgai.entity.PriceConstants;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fixed-point token cost calculation shared by every billing path.
+ * <p>
+ * Prices are configured per million tokens. Each distinct price is converted once into a long in
+ * micro-units per token (the price scaled by 10^6), and costs are computed with exact long arithmetic
+ * as a long in units of 10^-4, rounded HALF_UP. That is exactly
+ * {@code tokens / 1_000_000 * price} rounded HALF_UP to 4 decimals. {@link BigDecimal} is only
+ * produced at persistence via {@link #toDecimal(long)}.
+ * <p>
+ * Prices with more than 6 decimals, or products that overflow a long, fall back to exact
+ * {@link BigDecimal} arithmetic with the same rounding.
+ */
+public final class CostEngine {
+    public static final int COST_SCALE = 4;
+
+    private static final int PRICE_SCALE = 6;
+    // tokens * price(10^-6) / 10^8 = cost(10^-4)
+    private static final long COST_DIVISOR = 100_000_000L;
+    private static final long UNREPRESENTABLE = Long.MIN_VALUE;
+    private static final int MAX_CACHED_PRICES = 1024;
+    private static final Map<BigDecimal, Long> FIXED_PRICES = new ConcurrentHashMap<>();
+
+    private CostEngine() {
+    }
+
+    /**
+     * Computes the cost of the given tokens.
+     *
+     * @param tokens          Number of tokens
+     * @param pricePerMillion Price per million tokens
+     * @return The cost in units of 10^-4
+     */
+    public static long costUnits(long tokens, BigDecimal pricePerMillion) {
+        long fixedPrice = fixedPrice(pricePerMillion);
+        if (fixedPrice != UNREPRESENTABLE) {
+            try {
+                return divideHalfUp(Math.multiplyExact(tokens, fixedPrice), COST_DIVISOR);
+            } catch (ArithmeticException overflow) {
+                // 超出 long 范围时退回精确的 BigDecimal 计算
+            }
+        }
+        return BigDecimal.valueOf(tokens)
+                .multiply(pricePerMillion)
+                .divide(PriceConstants.ONE_MILLION, COST_SCALE, RoundingMode.HALF_UP)
+                .unscaledValue()
+                .longValueExact();
+    }
+
+    /**
+     * Computes the cost of the given tokens as a decimal with scale 4.
+     *
+     * @param tokens          Number of tokens
+     * @param pricePerMillion Price per million tokens
+     * @return The cost
+     */
+    public static BigDecimal cost(long tokens, BigDecimal pricePerMillion) {
+        return toDecimal(costUnits(tokens, pricePerMillion));
+    }
+
+    /**
+     * Converts a cost in units of 10^-4 to the decimal value persisted in usage_record.
+     *
+     * @param costUnits The cost in units of 10^-4
+     * @return The cost with scale 4
+     */
+    public static BigDecimal toDecimal(long costUnits) {
+        return BigDecimal.valueOf(costUnits, COST_SCALE);
+    }
+
+    /**
+     * @param pricePerMillion Price per million tokens
+     * @return The price in micro-units per token, or {@link Long#MIN_VALUE} if it cannot be represented exactly
+     */
+    static long fixedPrice(BigDecimal pricePerMillion) {
+        Long cached = FIXED_PRICES.get(pricePerMillion);
+        if (cached != null) {
+            return cached;
+        }
+        long fixed = toFixedPrice(pricePerMillion);
+        // 价格种类很少，上限只用于防止异常数据撑爆缓存
+        if (FIXED_PRICES.size() < MAX_CACHED_PRICES) {
+            FIXED_PRICES.put(pricePerMillion, fixed);
+        }
+        return fixed;
+    }
+
+    private static long toFixedPrice(BigDecimal pricePerMillion) {
+        try {
+            return pricePerMillion.setScale(PRICE_SCALE, RoundingMode.UNNECESSARY)
+                    .unscaledValue()
+                    .longValueExact();
+        } catch (ArithmeticException e) {
+            return UNREPRESENTABLE;
+        }
+    }
+
+    private static long divideHalfUp(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        // |remainder| * 2 >= divisor 时远离零进位，与 RoundingMode.HALF_UP 一致
+        if (Math.abs(remainder) >= divisor - Math.abs(remainder)) {
+            quotient += Long.signum(dividend);
+        }
+        return quotient;
+    }
+}
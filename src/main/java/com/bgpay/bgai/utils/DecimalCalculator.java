@@ -3,15 +3,22 @@ package com.bgpay.bgai.utils;
 import com.bgpay.bgai.entity.PriceConstants;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 import java.math.RoundingMode;
 
 public class DecimalCalculator {
-    private static final MathContext MC = new MathContext(10, RoundingMode.HALF_UP);
 
+    /**
+     * Delegates to {@link CostEngine} so that every path rounds the same way.
+     */
     public static BigDecimal calculate(BigDecimal tokens, BigDecimal price) {
-        return tokens.divide(PriceConstants.ONE_MILLION, MC)
-                .multiply(price, MC)
-                .setScale(4, RoundingMode.HALF_UP);
+        if (tokens.signum() == 0 || tokens.stripTrailingZeros().scale() <= 0) {
+            try {
+                return CostEngine.cost(tokens.longValueExact(), price);
+            } catch (ArithmeticException e) {
+                // 超出 long 范围，按精确小数计算
+            }
+        }
+        return tokens.multiply(price)
+                .divide(PriceConstants.ONE_MILLION, CostEngine.COST_SCALE, RoundingMode.HALF_UP);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,221 @@
+package com.bgpay.bgai.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Segmented write-ahead journal whose records are kept until a consumer checkpoints past them.
+ * <p>
+ * A single writer appends records in batches and forces each batch to disk once. Every run writes to
+ * new segments ({@code <name>-<seq>.journal}, seq growing across runs) and never reopens an old one.
+ * Positions are {@code segment << 40 | endOffset}. {@link #replayPrevious} hands back the records of
+ * earlier runs after the last checkpoint; the caller re-appends them to this run and then calls
+ * {@link #completeRecovery()}, which deletes the old segments and enables checkpoints. Until then
+ * checkpoints are ignored, so a failed recovery keeps everything for the next start.
+ * <p>
+ * Record layout: {@code [int length][length bytes]}, big-endian, as in {@link SegmentLogWriter}.
+ * A torn record at the end of a segment is ignored.
+ */
+@Slf4j
+public class EventJournal implements Closeable {
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final String name;
+    private final Path directory;
+    private final long maxSegmentBytes;
+
+    private long firstSegmentOfRun;
+    private volatile boolean recovered;
+
+    // 以下字段仅由写线程访问
+    private FileChannel channel;
+    private long segment;
+    private long segmentBytes;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    /**
+     * @param name            Segment file name prefix
+     * @param directory       Directory holding the segments and the checkpoint
+     * @param maxSegmentBytes Start a new segment once the current one reaches this size
+     */
+    public EventJournal(String name, Path directory, long maxSegmentBytes) {
+        this.name = name;
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        long last = -1;
+        for (long seq : segmentSeqs()) {
+            last = Math.max(last, seq);
+        }
+        firstSegmentOfRun = last + 1;
+        openSegment(firstSegmentOfRun);
+    }
+
+    /**
+     * Appends records and forces them to disk.
+     *
+     * @param records The records, in order
+     * @return The position after each record
+     */
+    public long[] append(List<byte[]> records) throws IOException {
+        if (segmentBytes >= maxSegmentBytes) {
+            channel.close();
+            openSegment(segment + 1);
+        }
+        int total = 0;
+        for (byte[] record : records) {
+            total += Integer.BYTES + record.length;
+        }
+        if (buffer.capacity() < total) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(total - 1) << 1);
+        }
+
+        long[] positions = new long[records.size()];
+        long offset = segmentBytes;
+        buffer.clear();
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            buffer.putInt(record.length).put(record);
+            offset += Integer.BYTES + record.length;
+            positions[i] = segment << OFFSET_BITS | offset;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        segmentBytes = offset;
+        return positions;
+    }
+
+    /**
+     * Records that everything up to the position has been consumed and deletes this run's segments
+     * before it. Ignored until {@link #completeRecovery()}.
+     *
+     * @param position A position returned by {@link #append}
+     */
+    public void checkpoint(long position) throws IOException {
+        if (!recovered) {
+            return;
+        }
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(tmp, Long.toString(position), StandardCharsets.US_ASCII);
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE);
+
+        long checkpointSegment = position >>> OFFSET_BITS;
+        for (long seq : segmentSeqs()) {
+            if (seq >= firstSegmentOfRun && seq < checkpointSegment) {
+                Files.deleteIfExists(segmentPath(seq));
+            }
+        }
+    }
+
+    /**
+     * Reads the records that earlier runs appended after their last checkpoint.
+     *
+     * @param handler Receives each record, in order
+     * @return The number of records read
+     */
+    public int replayPrevious(Consumer<byte[]> handler) throws IOException {
+        long checkpoint = readCheckpoint();
+        long checkpointSegment = checkpoint >>> OFFSET_BITS;
+        long checkpointOffset = checkpoint & OFFSET_MASK;
+        int count = 0;
+        for (long seq : segmentSeqs()) {
+            if (seq >= firstSegmentOfRun || seq < checkpointSegment) {
+                continue;
+            }
+            long skipUntil = seq == checkpointSegment ? checkpointOffset : 0;
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segmentPath(seq)));
+            while (data.remaining() >= Integer.BYTES) {
+                int length = data.getInt();
+                if (length < 0 || data.remaining() < length) {
+                    log.warn("日志分段尾部记录不完整，忽略 [segment={}, offset={}]", seq, data.position() - Integer.BYTES);
+                    break;
+                }
+                byte[] record = new byte[length];
+                data.get(record);
+                if (data.position() > skipUntil) {
+                    handler.accept(record);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the segments of earlier runs, whose pending records must have been re-appended by now,
+     * and enables checkpoints.
+     */
+    public void completeRecovery() throws IOException {
+        for (long seq : segmentSeqs()) {
+            if (seq < firstSegmentOfRun) {
+                Files.deleteIfExists(segmentPath(seq));
+            }
+        }
+        recovered = true;
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("日志分段关闭失败 [segment={}]", segmentPath(segment), e);
+        }
+        channel = null;
+    }
+
+    private void openSegment(long seq) throws IOException {
+        segment = seq;
+        channel = FileChannel.open(segmentPath(seq), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentBytes = 0;
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(file, StandardCharsets.US_ASCII).trim());
+    }
+
+    private List<Long> segmentSeqs() throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                seqs.add(Long.parseLong(fileName.substring(name.length() + 1, fileName.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        seqs.sort(null);
+        return seqs;
+    }
+
+    private Path segmentPath(long seq) {
+        return directory.resolve(String.format("%s-%012d%s", name, seq, SEGMENT_SUFFIX));
+    }
+}
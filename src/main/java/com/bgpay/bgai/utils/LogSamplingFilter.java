@@ -0,0 +1,65 @@
+package com.bgpay.bgai.utils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logback turbo filter that keeps one in {@code keepOneIn} events at or below {@code maxLevel} from
+ * the configured logger prefixes and drops the rest before the event is built. Events above
+ * {@code maxLevel} and other loggers are left to the normal level checks.
+ * <p>
+ * Events carrying a throwable are always kept, including parameterized calls whose last argument is the
+ * throwable, which Logback has not yet split off the arguments at this point. Sampling is random per event, so the logging threads
+ * share no counter.
+ */
+public class LogSamplingFilter extends TurboFilter {
+    private String[] prefixes = new String[0];
+    private Level maxLevel = Level.INFO;
+    private int keepOneIn = 100;
+
+    /**
+     * @param loggers Comma-separated logger name prefixes
+     */
+    public void setLoggers(String loggers) {
+        this.prefixes = loggers.trim().split("\\s*,\\s*");
+    }
+
+    public void setMaxLevel(String maxLevel) {
+        this.maxLevel = Level.toLevel(maxLevel, Level.INFO);
+    }
+
+    public void setKeepOneIn(int keepOneIn) {
+        this.keepOneIn = Math.max(1, keepOneIn);
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        // 带异常的事件不采样
+        if (level == null || level.toInt() > maxLevel.toInt() || hasThrowable(params, t)
+                || !matches(logger.getName())) {
+            return FilterReply.NEUTRAL;
+        }
+        return ThreadLocalRandom.current().nextInt(keepOneIn) == 0 ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    /**
+     * 参数化调用 log.info("... {}", x, e) 在 turbo filter 阶段 t 仍为 null，异常是参数的最后一个元素
+     */
+    private static boolean hasThrowable(Object[] params, Throwable t) {
+        return t != null || (params != null && params.length > 0 && params[params.length - 1] instanceof Throwable);
+    }
+
+    private boolean matches(String name) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,339 @@
+package com.bgpay.bgai.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Append-only segment log with a single writer thread.
+ * <p>
+ * Producers enqueue records on a bounded queue; the writer thread drains whatever is queued,
+ * writes it as length-prefixed records through one {@link FileChannel} and forces it to disk
+ * once per batch (group commit). Segments are rolled by size or age, and closed segments are
+ * gzip-compressed in the background.
+ * <p>
+ * A failed write rolls to a new segment and retries the batch once there; if no segment can be opened
+ * the batch is dropped and the open is retried on the next write. Dropped records (including those
+ * refused by a full queue) and failed opens are counted, see {@link #droppedRecords()} and {@link #openFailures()}.
+ * <p>
+ * Record layout: {@code [int length][length bytes]}, big-endian.
+ */
+@Slf4j
+public class SegmentLogWriter implements Closeable {
+    public static final String SEGMENT_SUFFIX = ".seg";
+    public static final String COMPRESSED_SUFFIX = ".seg.gz";
+
+    private static final int MAX_BATCH = 1024;
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private final String name;
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMs;
+    private final boolean compressClosed;
+    private final BlockingQueue<byte[]> queue;
+    private final ExecutorService compressor;
+    private final AtomicInteger segmentSeq = new AtomicInteger(0);
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong openFailures = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    // 以下字段仅由写线程访问
+    private FileChannel channel;
+    private Path currentSegment;
+    private long segmentBytes;
+    private long segmentOpenedAt;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    /**
+     * @param name            Segment file name prefix, also used as the writer thread name
+     * @param directory       Directory holding the segments
+     * @param queueCapacity   Maximum number of records waiting to be written
+     * @param maxSegmentBytes Roll the segment once it reaches this size
+     * @param maxSegmentAgeMs Roll the segment once it has been open this long
+     * @param compressClosed  Whether closed segments are gzip-compressed
+     */
+    public SegmentLogWriter(String name,
+                            Path directory,
+                            int queueCapacity,
+                            long maxSegmentBytes,
+                            long maxSegmentAgeMs,
+                            boolean compressClosed) {
+        this.name = name;
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+        this.compressClosed = compressClosed;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.compressor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name + "-compress");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        Files.createDirectories(directory);
+        // 上次运行遗留的未压缩分段已不再写入，直接压缩
+        if (compressClosed) {
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, name + "-*" + SEGMENT_SUFFIX)) {
+                for (Path segment : leftovers) {
+                    compressAsync(segment);
+                }
+            }
+        }
+        openSegment();
+        running = true;
+        writerThread = new Thread(this::runLoop, name + "-writer");
+        writerThread.start();
+    }
+
+    /**
+     * Enqueues a record without blocking. A record refused because the queue is full counts as dropped.
+     *
+     * @param record The record payload
+     * @return false if the writer is not running or the queue is full and the record was not accepted
+     */
+    public boolean append(byte[] record) {
+        if (!running) {
+            return false;
+        }
+        if (!queue.offer(record)) {
+            droppedRecords.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of records waiting for the writer thread
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    /**
+     * @return Records refused by {@link #append} because the queue was full, plus records lost to write failures
+     */
+    public long droppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * @return Failed attempts to open a new segment
+     */
+    public long openFailures() {
+        return openFailures.get();
+    }
+
+    /**
+     * Reads the records of a closed, uncompressed segment. An incomplete record at the end, left by a
+     * crash during a write, is skipped.
+     *
+     * @param segment The segment file
+     * @param handler Receives each record, in order
+     * @return The number of records read
+     */
+    public static int readSegment(Path segment, Consumer<byte[]> handler) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int count = 0;
+        while (data.remaining() >= Integer.BYTES) {
+            int length = data.getInt();
+            if (length < 0 || data.remaining() < length) {
+                log.warn("分段尾部记录不完整，忽略 [segment={}, offset={}]", segment, data.position() - Integer.BYTES);
+                break;
+            }
+            byte[] record = new byte[length];
+            data.get(record);
+            handler.accept(record);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeSegment();
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLoop() {
+        List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                byte[] first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+                if (segmentBytes > 0 && System.currentTimeMillis() - segmentOpenedAt >= maxSegmentAgeMs) {
+                    rollSegment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                retryOnNewSegment(batch, e);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入失败的分段可能已损坏，换一个新分段重写一次；仍失败时丢弃该批
+     */
+    private void retryOnNewSegment(List<byte[]> batch, IOException cause) {
+        log.warn("分段写入失败，切换新分段重试 [segment={}]", currentSegment, cause);
+        rollSegment();
+        try {
+            if (channel != null) {
+                writeBatch(batch);
+                return;
+            }
+        } catch (IOException e) {
+            cause = e;
+        }
+        droppedRecords.addAndGet(batch.size());
+        log.error("分段写入失败，丢弃 {} 条记录 [dir={}]", batch.size(), directory, cause);
+    }
+
+    private void writeBatch(List<byte[]> batch) throws IOException {
+        if (channel == null) {
+            // 上次切换分段失败，写入前重新打开
+            try {
+                openSegment();
+            } catch (IOException e) {
+                openFailures.incrementAndGet();
+                throw e;
+            }
+        }
+        int total = 0;
+        for (byte[] record : batch) {
+            total += Integer.BYTES + record.length;
+        }
+        if (buffer.capacity() < total) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(total - 1) << 1);
+        }
+
+        buffer.clear();
+        for (byte[] record : batch) {
+            buffer.putInt(record.length).put(record);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        // 一批记录只刷一次盘
+        channel.force(false);
+
+        segmentBytes += total;
+        if (segmentBytes >= maxSegmentBytes) {
+            rollSegment();
+        }
+    }
+
+    private void rollSegment() {
+        closeSegment();
+        try {
+            openSegment();
+        } catch (IOException e) {
+            openFailures.incrementAndGet();
+            log.error("无法创建新分段，下次写入时重试 [dir={}]", directory, e);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        currentSegment = directory.resolve(String.format("%s-%d-%04d%s",
+                name, System.currentTimeMillis(), segmentSeq.getAndIncrement(), SEGMENT_SUFFIX));
+        channel = FileChannel.open(currentSegment,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentBytes = 0;
+        segmentOpenedAt = System.currentTimeMillis();
+    }
+
+    private void closeSegment() {
+        if (channel == null) {
+            return;
+        }
+        Path closed = currentSegment;
+        boolean empty = segmentBytes == 0;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("分段关闭失败 [segment={}]", closed, e);
+        }
+        channel = null;
+        segmentBytes = 0;
+
+        if (empty) {
+            try {
+                Files.deleteIfExists(closed);
+            } catch (IOException e) {
+                log.warn("空分段删除失败 [segment={}]", closed, e);
+            }
+        } else if (compressClosed) {
+            compressAsync(closed);
+        }
+    }
+
+    private void compressAsync(Path segment) {
+        compressor.execute(() -> {
+            String fileName = segment.getFileName().toString();
+            Path target = segment.resolveSibling(
+                    fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()) + COMPRESSED_SUFFIX);
+            try (InputStream in = Files.newInputStream(segment);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(target), 64 * 1024)) {
+                in.transferTo(out);
+            } catch (IOException e) {
+                log.error("分段压缩失败 [segment={}]", segment, e);
+                return;
+            }
+            try {
+                Files.delete(segment);
+            } catch (IOException e) {
+                log.warn("已压缩分段删除失败 [segment={}]", segment, e);
+            }
+        });
+    }
+}
@@ -3,7 +3,9 @@ package com.bgpay.bgai.utils;
 import java.time.*;
 
 public class TimeZoneUtils {
-    private static final ZoneId BEIJING_ZONE = ZoneId.of("Asia/Shanghai");
+    public static final ZoneId BEIJING_ZONE = ZoneId.of("Asia/Shanghai");
+    public static final LocalTime DEFAULT_DISCOUNT_START = LocalTime.of(0, 30);
+    public static final LocalTime DEFAULT_DISCOUNT_END = LocalTime.of(8, 30);
 
     public static ZonedDateTime toBeijingTime(LocalDateTime utcTime) {
         return utcTime.atZone(ZoneOffset.UTC)
@@ -11,11 +13,22 @@ public class TimeZoneUtils {
     }
 
     public static boolean isInDiscountPeriod(LocalDateTime utcTime) {
-        ZonedDateTime beijingTime = toBeijingTime(utcTime);
-        LocalTime time = beijingTime.toLocalTime();
+        return isInDiscountWindow(utcTime.toInstant(ZoneOffset.UTC),
+                DEFAULT_DISCOUNT_START, DEFAULT_DISCOUNT_END, BEIJING_ZONE);
+    }
 
-        return (time.isAfter(LocalTime.of(0, 30)) &&
-                time.isBefore(LocalTime.of(8, 30))) ||
-                (time.equals(LocalTime.of(0, 30)));
+    /**
+     * The single boundary rule for discount windows: the start is inclusive and the end exclusive.
+     * A window whose end is before its start wraps past midnight; an empty window never matches.
+     */
+    public static boolean isInDiscountWindow(Instant instant, LocalTime start, LocalTime end, ZoneId zone) {
+        LocalTime time = instant.atZone(zone).toLocalTime();
+        if (start.isBefore(end)) {
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+        if (start.equals(end)) {
+            return false;
+        }
+        return !time.isBefore(start) || time.isBefore(end);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+-- 计费消息发件箱（outbox 模式下与 usage_info 同事务写入，中继投递成功后删除）
+-- BillingOutboxMapper.lockOldest 按 id 顺序 LIMIT ... FOR UPDATE SKIP LOCKED 领取，
+-- 依赖主键索引只锁住领取到的行；不要在该表上去掉自增主键或改为无序主键
+CREATE TABLE IF NOT EXISTS billing_outbox (
+    id             BIGINT         NOT NULL AUTO_INCREMENT,
+    completion_id  VARCHAR(128)   NOT NULL,
+    user_id        VARCHAR(64)    NOT NULL,
+    payload        VARBINARY(4096) NOT NULL COMMENT 'BillingEventBus.encode 编码后的消息体',
+    created_at     DATETIME(3)    NOT NULL COMMENT '用量时间（UTC）',
+    PRIMARY KEY (id),
+    KEY idx_outbox_completion (completion_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
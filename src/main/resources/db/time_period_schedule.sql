@@ -0,0 +1,14 @@
+-- 优惠时段配置（TimePeriodResolver 启动及定时重建时全量读取）
+-- model_type 为空的行是默认配置；同一模型按 effective_time、version 依次生效
+-- 优惠区间为 [discount_start, discount_end)，结束早于开始表示跨零点，开始等于结束表示无优惠
+CREATE TABLE IF NOT EXISTS time_period_schedule (
+    id              BIGINT      NOT NULL AUTO_INCREMENT,
+    model_type      VARCHAR(64) NULL COMMENT '模型类型，为空表示默认配置',
+    discount_start  TIME        NOT NULL COMMENT '优惠开始时间（含）',
+    discount_end    TIME        NOT NULL COMMENT '优惠结束时间（不含）',
+    zone_id         VARCHAR(64) NOT NULL DEFAULT 'Asia/Shanghai' COMMENT '时区',
+    version         INT         NOT NULL DEFAULT 1 COMMENT '版本号',
+    effective_time  DATETIME    NOT NULL COMMENT '生效时间（应用服务器时区）',
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_schedule_model_version (model_type, effective_time, version)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
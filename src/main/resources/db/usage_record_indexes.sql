@@ -0,0 +1,10 @@
+-- usage_record 游标分页 / 导出所需的复合索引
+-- 查询统一按 (calculated_at DESC, id DESC) 排序，游标条件落在索引的后两列上，
+-- 任意深度的翻页都是一次索引范围扫描 + LIMIT，不再随 OFFSET 线性变慢
+
+-- 按用户查询（可再叠加模型过滤）
+ALTER TABLE usage_record ADD INDEX idx_usage_user_time (user_id, calculated_at, id);
+-- 按模型查询
+ALTER TABLE usage_record ADD INDEX idx_usage_model_time (model_type, calculated_at, id);
+-- 仅按时间范围查询 / 全量导出
+ALTER TABLE usage_record ADD INDEX idx_usage_time (calculated_at, id);
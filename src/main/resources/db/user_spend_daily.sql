@@ -0,0 +1,13 @@
+-- 用户每日消费汇总（UserSpendServiceImpl.rollup 写入）
+-- upsertBatch 依赖 uk_spend_user_model_date 做 ON DUPLICATE KEY UPDATE，缺少该唯一键会插入重复行
+CREATE TABLE IF NOT EXISTS user_spend_daily (
+    id          BIGINT         NOT NULL AUTO_INCREMENT,
+    user_id     VARCHAR(64)    NOT NULL,
+    model_type  VARCHAR(64)    NOT NULL,
+    spend_date  DATE           NOT NULL COMMENT '消费日期（北京时间）',
+    cost        DECIMAL(20, 4) NOT NULL DEFAULT 0,
+    updated_at  DATETIME       NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_spend_user_model_date (user_id, model_type, spend_date),
+    KEY idx_spend_user_date (user_id, spend_date)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
@@ -0,0 +1,98 @@
+package com.bgpay.bgai.cache;
+
+import com.bgpay.bgai.entity.TimePeriodSchedule;
+import com.bgpay.bgai.mapper.TimePeriodScheduleMapper;
+import com.bgpay.bgai.utils.TimeZoneUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static com.bgpay.bgai.entity.PriceConstants.DISCOUNT_PERIOD;
+import static com.bgpay.bgai.entity.PriceConstants.STANDARD_PERIOD;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TimePeriodResolverTest {
+    private static final String MODEL = "deepseek-chat";
+
+    private TimePeriodScheduleMapper mapper;
+    private TimePeriodResolver resolver;
+
+    @BeforeEach
+    void setUp() {
+        mapper = mock(TimePeriodScheduleMapper.class);
+        resolver = new TimePeriodResolver(mapper, mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(resolver, "lookbackDays", 2);
+        ReflectionTestUtils.setField(resolver, "windowDays", 9);
+        ReflectionTestUtils.setField(resolver, "defaultStart", "00:30");
+        ReflectionTestUtils.setField(resolver, "defaultEnd", "08:30");
+        ReflectionTestUtils.setField(resolver, "defaultZone", "Asia/Shanghai");
+    }
+
+    private static long beijing(LocalDate day, int hour) {
+        return ZonedDateTime.of(day, LocalTime.of(hour, 0), TimeZoneUtils.BEIJING_ZONE).toInstant().toEpochMilli();
+    }
+
+    @Test
+    void futureModelScheduleDoesNotApplyBeforeItsEffectiveTime() {
+        LocalDate today = LocalDate.now(TimeZoneUtils.BEIJING_ZONE);
+        LocalDate effectiveDay = today.plusDays(3);
+        // effective_time 按应用服务器时区保存
+        ZonedDateTime effective = ZonedDateTime.of(effectiveDay, LocalTime.MIDNIGHT, TimeZoneUtils.BEIJING_ZONE)
+                .withZoneSameInstant(ZoneId.systemDefault());
+        when(mapper.selectAllOrderByEffectiveTime()).thenReturn(List.of(new TimePeriodSchedule()
+                .setModelType(MODEL)
+                .setDiscountStart(LocalTime.of(10, 0))
+                .setDiscountEnd(LocalTime.of(12, 0))
+                .setVersion(1)
+                .setEffectiveTime(effective.toLocalDateTime())));
+        resolver.rebuild();
+
+        // 生效前：沿用默认时段，包括过去的时间
+        for (LocalDate day : List.of(today.minusDays(1), today, effectiveDay.minusDays(1))) {
+            assertEquals(DISCOUNT_PERIOD, resolver.resolve(MODEL, beijing(day, 1)), day::toString);
+            assertEquals(STANDARD_PERIOD, resolver.resolve(MODEL, beijing(day, 11)), day::toString);
+        }
+        // 生效后：只用模型自己的时段
+        assertEquals(STANDARD_PERIOD, resolver.resolve(MODEL, beijing(effectiveDay, 1)));
+        assertEquals(DISCOUNT_PERIOD, resolver.resolve(MODEL, beijing(effectiveDay, 11)));
+        // 其他模型不受影响
+        assertEquals(DISCOUNT_PERIOD, resolver.resolve("deepseek-reasoner", beijing(effectiveDay, 1)));
+        assertEquals(STANDARD_PERIOD, resolver.resolve("deepseek-reasoner", beijing(effectiveDay, 11)));
+    }
+
+    @Test
+    void futureDefaultScheduleBeforeModelScheduleStillApplies() {
+        LocalDate today = LocalDate.now(TimeZoneUtils.BEIJING_ZONE);
+        ZoneId serverZone = ZoneId.systemDefault();
+        when(mapper.selectAllOrderByEffectiveTime()).thenReturn(List.of(
+                new TimePeriodSchedule()
+                        .setDiscountStart(LocalTime.of(2, 0))
+                        .setDiscountEnd(LocalTime.of(4, 0))
+                        .setVersion(1)
+                        .setEffectiveTime(ZonedDateTime.of(today.plusDays(1), LocalTime.MIDNIGHT,
+                                TimeZoneUtils.BEIJING_ZONE).withZoneSameInstant(serverZone).toLocalDateTime()),
+                new TimePeriodSchedule()
+                        .setModelType(MODEL)
+                        .setDiscountStart(LocalTime.of(10, 0))
+                        .setDiscountEnd(LocalTime.of(12, 0))
+                        .setVersion(1)
+                        .setEffectiveTime(ZonedDateTime.of(today.plusDays(3), LocalTime.MIDNIGHT,
+                                TimeZoneUtils.BEIJING_ZONE).withZoneSameInstant(serverZone).toLocalDateTime())));
+        resolver.rebuild();
+
+        assertEquals(DISCOUNT_PERIOD, resolver.resolve(MODEL, beijing(today, 1)));
+        assertEquals(STANDARD_PERIOD, resolver.resolve(MODEL, beijing(today.plusDays(1), 1)));
+        assertEquals(DISCOUNT_PERIOD, resolver.resolve(MODEL, beijing(today.plusDays(1), 3)));
+        assertEquals(DISCOUNT_PERIOD, resolver.resolve(MODEL, beijing(today.plusDays(3), 11)));
+        assertEquals(STANDARD_PERIOD, resolver.resolve(MODEL, beijing(today.plusDays(3), 3)));
+    }
+}
@@ -0,0 +1,111 @@
+package com.bgpay.bgai.service.mq;
+
+import com.bgpay.bgai.entity.UsageCalculationDTO;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BillingMessageCodecTest {
+
+    private static UsageCalculationDTO sample() {
+        UsageCalculationDTO dto = new UsageCalculationDTO();
+        dto.setChatCompletionId("chatcmpl-测试-0001");
+        dto.setModelType("reasoner");
+        dto.setPromptCacheHitTokens(128);
+        dto.setPromptCacheMissTokens(70_000);
+        dto.setCompletionTokens(3);
+        dto.setCreatedAt(LocalDateTime.of(2024, 6, 1, 0, 30, 15, 123_456_789));
+        return dto;
+    }
+
+    @Test
+    void roundTripsAllFields() {
+        UsageCalculationDTO dto = sample();
+        byte[] body = BillingMessageCodec.encode(dto);
+
+        assertTrue(BillingMessageCodec.isBinary(body));
+        assertEquals(dto, BillingMessageCodec.decode(body));
+    }
+
+    @Test
+    void roundTripsDefaultsAndPreEpochTimes() {
+        UsageCalculationDTO dto = new UsageCalculationDTO();
+        dto.setChatCompletionId("c");
+        dto.setCreatedAt(LocalDateTime.of(1969, 12, 31, 23, 59, 59));
+
+        UsageCalculationDTO decoded = BillingMessageCodec.decode(BillingMessageCodec.encode(dto));
+        assertEquals(dto, decoded);
+        assertNull(decoded.getModelType());
+    }
+
+    @Test
+    void decodesLegacyJson() {
+        String json = "{\"chatCompletionId\":\"chatcmpl-legacy\",\"modelType\":\"chat\","
+                + "\"promptCacheHitTokens\":1,\"promptCacheMissTokens\":2,\"completionTokens\":3,"
+                + "\"createdAt\":\"2024-06-01T08:00:00\"}";
+
+        UsageCalculationDTO dto = BillingMessageCodec.decode(json.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("chatcmpl-legacy", dto.getChatCompletionId());
+        assertEquals("chat", dto.getModelType());
+        assertEquals(1, dto.getPromptCacheHitTokens());
+        assertEquals(2, dto.getPromptCacheMissTokens());
+        assertEquals(3, dto.getCompletionTokens());
+        assertEquals(LocalDateTime.of(2024, 6, 1, 8, 0), dto.getCreatedAt());
+    }
+
+    @Test
+    void rejectsEveryTruncation() {
+        byte[] body = BillingMessageCodec.encode(sample());
+        // 包括截在字段边界上的前缀：不能解码成 token 数偏少的消息
+        for (int length = 1; length < body.length; length++) {
+            byte[] truncated = Arrays.copyOf(body, length);
+            assertThrows(BillingMessageCodec.MalformedBillingMessageException.class,
+                    () -> BillingMessageCodec.decode(truncated), "prefix of " + length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsTrailingBytes() {
+        byte[] body = BillingMessageCodec.encode(sample());
+        byte[] extended = Arrays.copyOf(body, body.length + 2);
+        assertThrows(BillingMessageCodec.MalformedBillingMessageException.class,
+                () -> BillingMessageCodec.decode(extended));
+    }
+
+    @Test
+    void decodesVersionOneWithoutLength() {
+        UsageCalculationDTO dto = sample();
+        byte[] body = BillingMessageCodec.encode(dto);
+        // 版本 1：magic、版本号后直接是字段；样例的字段段不足 128 字节，长度占 1 字节
+        byte[] legacy = new byte[body.length - 1];
+        legacy[0] = body[0];
+        legacy[1] = 1;
+        System.arraycopy(body, 3, legacy, 2, body.length - 3);
+
+        assertEquals(dto, BillingMessageCodec.decode(legacy));
+    }
+
+    @Test
+    void rejectsLengthBeyondBody() {
+        // magic, version, field 1 (bytes) claiming 100 bytes with only 1 present
+        byte[] body = {(byte) 0xB1, 1, 0x0A, 100, 'x'};
+        assertThrows(BillingMessageCodec.MalformedBillingMessageException.class,
+                () -> BillingMessageCodec.decode(body));
+    }
+
+    @Test
+    void rejectsUnsupportedVersion() {
+        byte[] body = BillingMessageCodec.encode(sample());
+        body[1] = 3;
+        assertThrows(BillingMessageCodec.MalformedBillingMessageException.class,
+                () -> BillingMessageCodec.decode(body));
+    }
+}
@@ -0,0 +1,129 @@
+package com.bgpay.bgai.service.mq;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatLogBatcherTest {
+    private static final String TOPIC = "chat-log";
+
+    private DefaultMQProducer producer;
+    private final List<List<Message>> sent = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        producer = mock(DefaultMQProducer.class);
+        when(producer.fetchPublishMessageQueues(TOPIC)).thenReturn(List.of(new MessageQueue(TOPIC, "broker-a", 0)));
+        SendResult ok = new SendResult();
+        ok.setSendStatus(SendStatus.SEND_OK);
+        when(producer.send(anyCollection(), any(MessageQueue.class))).thenAnswer(invocation -> {
+            Collection<Message> messages = invocation.getArgument(0);
+            sent.add(new ArrayList<>(messages));
+            return ok;
+        });
+    }
+
+    private ChatLogBatcher batcher(int maxBatchBytes, long lingerMs, int maxInFlightBytes) {
+        return new ChatLogBatcher(producer, TOPIC, "chatLog", maxBatchBytes, lingerMs, maxInFlightBytes,
+                50, false, new MessageTracing());
+    }
+
+    @Test
+    void batchNeverExceedsMaxBytes() throws Exception {
+        // 每条编码后约 350 字节，1000 字节上限下每批只能装两条
+        ChatLogBatcher batcher = batcher(1000, 5_000, 1 << 20);
+        // 先全部入队再启动，发送线程一次取完，批次只由大小决定
+        for (int i = 0; i < 10; i++) {
+            assertTrue(batcher.append("k", new byte[300], null));
+        }
+        batcher.start();
+        batcher.close();
+
+        assertEquals(List.of(2, 2, 2, 2, 2), sent.stream().map(List::size).toList());
+    }
+
+    @Test
+    void oversizedMessageIsSentAlone() throws Exception {
+        ChatLogBatcher batcher = batcher(1000, 5_000, 1 << 20);
+        batcher.append("k", new byte[100], null);
+        batcher.append("k", new byte[2000], null);
+        batcher.append("k", new byte[100], null);
+        batcher.start();
+        batcher.close();
+
+        assertEquals(List.of(1, 1, 1), sent.stream().map(List::size).toList());
+        assertEquals(2000, sent.get(1).get(0).getBody().length);
+    }
+
+    @Test
+    void partialBatchIsSentAfterLinger() throws Exception {
+        ChatLogBatcher batcher = batcher(1 << 20, 300, 1 << 20);
+        MQCallback callback = mock(MQCallback.class);
+        batcher.start();
+        try {
+            batcher.append("k", new byte[100], callback);
+
+            Thread.sleep(100);
+            verify(producer, never()).send(anyCollection(), any(MessageQueue.class));
+            verify(callback, timeout(2_000)).onSuccess("k");
+            assertEquals(1, sent.size());
+        } finally {
+            batcher.close();
+        }
+    }
+
+    @Test
+    void appendIsRefusedOnceInFlightCapIsReached() throws Exception {
+        // 不启动发送线程，已接收的消息一直占用额度
+        ChatLogBatcher batcher = batcher(1 << 20, 5_000, 1000);
+
+        assertTrue(batcher.append("a", new byte[600], null));
+        assertEquals(600, batcher.inFlightBytes());
+        assertFalse(batcher.append("b", new byte[600], null));
+        assertEquals(600, batcher.inFlightBytes());
+
+        batcher.start();
+        batcher.close();
+        assertEquals(0, batcher.inFlightBytes());
+        assertEquals(1, sent.size());
+        assertNull(sent.get(0).get(0).getUserProperty(ChatLogBatcher.ENCODING_PROPERTY));
+    }
+
+    @Test
+    void failedSendReleasesPermitsAndNotifiesFailure() throws Exception {
+        RuntimeException failure = new RuntimeException("broker unavailable");
+        when(producer.send(anyCollection(), any(MessageQueue.class))).thenThrow(failure);
+        ChatLogBatcher batcher = batcher(1 << 20, 5_000, 1000);
+        MQCallback callback = mock(MQCallback.class);
+
+        assertTrue(batcher.append("a", new byte[600], callback));
+        batcher.start();
+        batcher.close();
+
+        verify(callback).onFailure(eq("a"), eq(failure));
+        assertEquals(0, batcher.inFlightBytes());
+        assertTrue(batcher.append("b", new byte[600], null));
+    }
+}
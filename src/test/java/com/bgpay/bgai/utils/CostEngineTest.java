@@ -0,0 +1,89 @@
+package com.bgpay.bgai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CostEngineTest {
+    private static final BigDecimal ONE_MILLION = new BigDecimal("1000000");
+
+    /**
+     * The BigDecimal formula previously used by the billing consumer.
+     */
+    private static BigDecimal legacyCost(long tokens, BigDecimal price) {
+        return BigDecimal.valueOf(tokens)
+                .divide(ONE_MILLION, 6, RoundingMode.HALF_UP)
+                .multiply(price)
+                .setScale(4, RoundingMode.HALF_UP);
+    }
+
+    private static void assertMatchesLegacy(long tokens, BigDecimal price) {
+        assertEquals(legacyCost(tokens, price), CostEngine.cost(tokens, price),
+                () -> "tokens=" + tokens + ", price=" + price);
+    }
+
+    @Test
+    void matchesLegacyFormulaOnRandomInputs() {
+        Random random = new Random(20240601L);
+        for (int i = 0; i < 200_000; i++) {
+            long tokens = random.nextInt(Integer.MAX_VALUE);
+            BigDecimal price = BigDecimal.valueOf(random.nextInt(100_000_000), random.nextInt(7));
+            assertMatchesLegacy(tokens, price);
+        }
+    }
+
+    @Test
+    void matchesLegacyFormulaOnSmallTokenCounts() {
+        Random random = new Random(42L);
+        for (int i = 0; i < 100_000; i++) {
+            long tokens = random.nextInt(10_000);
+            BigDecimal price = BigDecimal.valueOf(random.nextInt(10_000_000), 6);
+            assertMatchesLegacy(tokens, price);
+        }
+    }
+
+    @Test
+    void roundsHalfUpOnExactTies() {
+        // 1 token * 50 / 1e6 = 0.00005 -> 0.0001
+        assertEquals(new BigDecimal("0.0001"), CostEngine.cost(1, new BigDecimal("50")));
+        // 1 token * 49.999999 / 1e6 rounds down
+        assertEquals(new BigDecimal("0.0000"), CostEngine.cost(1, new BigDecimal("49.999999")));
+        assertEquals(new BigDecimal("-0.0001"), CostEngine.cost(-1, new BigDecimal("50")));
+        assertMatchesLegacy(3, new BigDecimal("50"));
+        assertMatchesLegacy(150, new BigDecimal("1"));
+    }
+
+    @Test
+    void handlesEdgeCases() {
+        assertMatchesLegacy(0, new BigDecimal("16.000000"));
+        assertMatchesLegacy(Integer.MAX_VALUE, new BigDecimal("16"));
+        assertMatchesLegacy(Integer.MAX_VALUE, new BigDecimal("0.000001"));
+        // 乘积超出 long 时走 BigDecimal 分支
+        assertMatchesLegacy(Integer.MAX_VALUE, new BigDecimal("99999999999.999999"));
+        assertMatchesLegacy(Long.MAX_VALUE / 1_000_000, new BigDecimal("123.456789"));
+        // 超过 6 位小数的价格无法用定点表示
+        assertMatchesLegacy(123_456_789, new BigDecimal("0.1234567891"));
+        assertMatchesLegacy(1_000_000, new BigDecimal("2.00000000"));
+    }
+
+    @Test
+    void toDecimalUsesCostScale() {
+        assertEquals(new BigDecimal("1.2345"), CostEngine.toDecimal(12_345L));
+        assertEquals(CostEngine.COST_SCALE, CostEngine.toDecimal(0L).scale());
+    }
+
+    @Test
+    void decimalCalculatorAgreesWithCostEngine() {
+        Random random = new Random(7L);
+        for (int i = 0; i < 10_000; i++) {
+            long tokens = random.nextInt(5_000_000);
+            BigDecimal price = BigDecimal.valueOf(random.nextInt(10_000_000), random.nextInt(7));
+            assertEquals(CostEngine.cost(tokens, price),
+                    DecimalCalculator.calculate(BigDecimal.valueOf(tokens), price));
+        }
+    }
+}